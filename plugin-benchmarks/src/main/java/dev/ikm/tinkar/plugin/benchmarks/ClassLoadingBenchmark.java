@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.benchmarks;
+
+import dev.ikm.tinkar.plugin.service.boot.internal.ClassLoaderStrategy;
+import dev.ikm.tinkar.plugin.service.boot.internal.Layers;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.module.ModuleFinder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Measures loading and initializing all classes of a large, multi-module plugin from a fresh layer, with each
+ * class loader strategy and a growing number of threads loading classes concurrently. Each thread loads the
+ * classes of one module at a time, which is the case where a single shared loader could become contended.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ClassLoadingBenchmark {
+    private static final int MODULE_COUNT = 8;
+    private static final int CLASSES_PER_MODULE = 250;
+
+    @Param({"ONE", "MANY"})
+    public ClassLoaderStrategy classLoaderStrategy;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    private Path pluginDirectory;
+    private ModuleFinder moduleFinder;
+    private Set<String> roots;
+    private ExecutorService executor;
+    private ModuleLayer layer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pluginDirectory = Files.createTempDirectory("bench-class-loading");
+        SyntheticPlugins.generateLarge(MODULE_COUNT, CLASSES_PER_MODULE, pluginDirectory);
+        moduleFinder = ModuleFinder.of(pluginDirectory);
+        roots = IntStream.range(0, MODULE_COUNT).mapToObj(i -> "bench.large" + i).collect(Collectors.toSet());
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void defineLayer() {
+        layer = Layers.createModuleLayer("bench-large", List.of(ModuleLayer.boot()), moduleFinder, roots,
+                classLoaderStrategy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        SyntheticPlugins.delete(pluginDirectory);
+    }
+
+    @Benchmark
+    public int loadAllClasses() throws Exception {
+        List<Future<Integer>> loads = new ArrayList<>(MODULE_COUNT);
+        for (int i = 0; i < MODULE_COUNT; i++) {
+            String moduleName = "bench.large" + i;
+            loads.add(executor.submit(() -> {
+                ClassLoader classLoader = layer.findLoader(moduleName);
+                int loaded = 0;
+                for (int j = 0; j < CLASSES_PER_MODULE; j++) {
+                    Class.forName(moduleName + ".C" + j, true, classLoader);
+                    loaded++;
+                }
+                return loaded;
+            }));
+        }
+        int loaded = 0;
+        for (Future<Integer> load : loads) {
+            loaded += load.get();
+        }
+        return loaded;
+    }
+}
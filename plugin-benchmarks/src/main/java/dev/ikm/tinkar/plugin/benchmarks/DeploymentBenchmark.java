@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.benchmarks;
+
+import dev.ikm.tinkar.plugin.service.boot.internal.Layers;
+import dev.ikm.tinkar.plugin.service.boot.internal.PluginWatchDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a hot deployment followed by an undeployment of a plugin jar, from staging the jar in the working
+ * store to publishing the layer to the PluggableServiceLoader and back. The plugin directory stays empty, so the
+ * directory watcher does not interfere with the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeploymentBenchmark {
+    private Path pluginDirectory;
+    private Path pluginJarDirectory;
+    private PluginWatchDirectory pluginWatchDirectory;
+    private Path pluginJar;
+    private Layers layers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pluginDirectory = Files.createTempDirectory("bench-deployment");
+        pluginJarDirectory = Files.createTempDirectory("bench-deployment-jars");
+        pluginJar = SyntheticPlugins.generate(1, pluginJarDirectory).getFirst();
+        pluginWatchDirectory = new PluginWatchDirectory("Benchmark plugins directory", pluginDirectory);
+        layers = new Layers(Set.of(pluginWatchDirectory));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticPlugins.delete(pluginDirectory);
+        SyntheticPlugins.delete(pluginJarDirectory);
+    }
+
+    @Benchmark
+    public boolean deployAndUndeploy() {
+        String pluginLayerName = layers.deployPluginArtifact(pluginWatchDirectory, pluginJar).orElseThrow();
+        return layers.undeployPluginLayer(pluginLayerName);
+    }
+}
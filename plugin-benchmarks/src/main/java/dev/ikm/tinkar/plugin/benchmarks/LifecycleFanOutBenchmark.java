@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.benchmarks;
+
+import dev.ikm.tinkar.plugin.service.boot.internal.Layers;
+import dev.ikm.tinkar.plugin.service.boot.internal.PluginLifecycleSupport;
+import dev.ikm.tinkar.plugin.service.boot.internal.PluginNameAndModuleLayer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures delivering a lifecycle event to the listeners of a growing number of plugin layers, from publishing
+ * the event until every listener lane has delivered it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LifecycleFanOutBenchmark {
+    @Param({"1", "10", "100"})
+    public int listenerCount;
+
+    private Path pluginDirectory;
+    private PluginLifecycleSupport pluginLifecycleSupport;
+    private final List<ModuleLayer> listenerLayers = new ArrayList<>();
+    private PluginNameAndModuleLayer event;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pluginDirectory = Files.createTempDirectory("bench-lifecycle");
+        pluginLifecycleSupport = new PluginLifecycleSupport(PluginLifecycleSupport.DEFAULT_LISTENER_TIMEOUT,
+                PluginLifecycleSupport.DEFAULT_LISTENER_QUEUE_CAPACITY);
+        for (Path pluginJar : SyntheticPlugins.generate(listenerCount, pluginDirectory)) {
+            ModuleLayer listenerLayer = Layers.createModuleLayer(List.of(ModuleLayer.boot()), List.of(pluginJar));
+            pluginLifecycleSupport.register(listenerLayer);
+            listenerLayers.add(listenerLayer);
+        }
+        event = new PluginNameAndModuleLayer("bench-event", listenerLayers.getFirst());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        listenerLayers.forEach(pluginLifecycleSupport::unregister);
+        pluginLifecycleSupport.shutdown();
+        SyntheticPlugins.delete(pluginDirectory);
+    }
+
+    @Benchmark
+    public boolean notifyAndAwaitDelivery() throws InterruptedException {
+        pluginLifecycleSupport.notifyPluginLayerListenersOnAddition(event);
+        return pluginLifecycleSupport.awaitDelivery(Duration.ofSeconds(10));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.benchmarks;
+
+import dev.ikm.tinkar.plugin.service.boot.internal.Layers;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures resolving a plugin jar and defining its module layer on top of the boot layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ModuleLayerBenchmark {
+    private Path pluginDirectory;
+    private List<Path> pluginJar;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pluginDirectory = Files.createTempDirectory("bench-module-layer");
+        pluginJar = SyntheticPlugins.generate(1, pluginDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticPlugins.delete(pluginDirectory);
+    }
+
+    @Benchmark
+    public ModuleLayer createModuleLayer() {
+        return Layers.createModuleLayer(List.of(ModuleLayer.boot()), pluginJar);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.benchmarks;
+
+import dev.ikm.tinkar.plugin.service.boot.PluggableService;
+import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up the providers of a service deployed in a growing number of plugin layers, through the
+ * PluggableServiceLoader, the cached providers, and the stream of providers. PluggableService is set up once per
+ * fork, so every layer count runs in its own JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceLookupBenchmark {
+    @Param({"1", "10", "100"})
+    public int layerCount;
+
+    private Path pluginDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pluginDirectory = Files.createTempDirectory("bench-service-lookup");
+        SyntheticPlugins.generate(layerCount, pluginDirectory);
+        PluggableService.setPluginDirectory(pluginDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticPlugins.delete(pluginDirectory);
+    }
+
+    @Benchmark
+    public void loaderIteration(Blackhole blackhole) {
+        for (PluginLifecycleListener listener : PluggableService.loader(PluginLifecycleListener.class)) {
+            blackhole.consume(listener);
+        }
+    }
+
+    @Benchmark
+    public int providers() {
+        return PluggableService.providers(PluginLifecycleListener.class).size();
+    }
+
+    @Benchmark
+    public long streamCount() {
+        return PluggableService.stream(PluginLifecycleListener.class).count();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.benchmarks;
+
+import dev.ikm.tinkar.plugin.service.boot.PluggableService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.spi.ToolProvider;
+import java.util.stream.Stream;
+
+/**
+ * Generates synthetic plugin jars for the benchmarks. Each plugin is a module {@code bench.pluginN} providing a
+ * no-op {@code PluginLifecycleListener}, the service every benchmark looks up, as a plugin module can't depend on
+ * the benchmark classes on the class path. All plugins are compiled in a single javac run against the boot layer
+ * module. For class loading, the modules of a large plugin are generated as {@code bench.largeN} modules with
+ * many classes each.
+ */
+public final class SyntheticPlugins {
+    private static final String LISTENER_SOURCE = """
+            package bench.plugin%1$d;
+
+            public class NoOpListener implements dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener {
+                @Override
+                public void pluginLayerAdded(String pluginLayerName, ModuleLayer pluginLayer) {
+                }
+
+                @Override
+                public void pluginLayerBeingRemoved(String pluginLayerName, ModuleLayer pluginLayer) {
+                }
+            }
+            """;
+
+    private static final String MODULE_INFO_SOURCE = """
+            module bench.plugin%1$d {
+                requires dev.ikm.tinkar.plugin.service.boot;
+                provides dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener with bench.plugin%1$d.NoOpListener;
+            }
+            """;
+
+    private static final String LARGE_CLASS_SOURCE = """
+            package bench.large%1$d;
+
+            public class C%2$d {
+                private static final int[] TABLE = new int[%2$d %% 16 + 1];
+
+                static {
+                    for (int i = 0; i < TABLE.length; i++) {
+                        TABLE[i] = i * %2$d;
+                    }
+                }
+
+                public int sum() {
+                    int sum = 0;
+                    for (int value : TABLE) {
+                        sum += value;
+                    }
+                    return sum;
+                }
+
+                public String describe() {
+                    return "C%2$d[" + TABLE.length + "]";
+                }
+            }
+            """;
+
+    private static final String LARGE_MODULE_INFO_SOURCE = """
+            module bench.large%1$d {
+                exports bench.large%1$d;
+            }
+            """;
+
+    private SyntheticPlugins() {
+    }
+
+    /**
+     * Generates the modules of a large plugin as jars named {@code bench-largeN-1.0.0.jar} into the target
+     * directory. Module {@code bench.largeN} holds the classes {@code bench.largeN.C0} to
+     * {@code bench.largeN.C<classesPerModule - 1>}.
+     *
+     * @param moduleCount      the number of modules
+     * @param classesPerModule the number of classes in each module
+     * @param targetDirectory  the directory to write the module jars to
+     * @return the paths of the module jars, in module order
+     */
+    public static List<Path> generateLarge(int moduleCount, int classesPerModule, Path targetDirectory) {
+        try {
+            Path workDirectory = Files.createTempDirectory("bench-large");
+            Path sourceDirectory = workDirectory.resolve("src");
+            Path classesDirectory = workDirectory.resolve("classes");
+            List<String> javacArguments = new ArrayList<>(List.of(
+                    "-Xlint:-module",
+                    "-d", classesDirectory.toString(),
+                    "--module-source-path", sourceDirectory.toString()));
+            for (int i = 0; i < moduleCount; i++) {
+                Path moduleDirectory = sourceDirectory.resolve("bench.large" + i);
+                Path packageDirectory = Files.createDirectories(moduleDirectory.resolve("bench/large" + i));
+                javacArguments.add(Files.writeString(moduleDirectory.resolve("module-info.java"),
+                        LARGE_MODULE_INFO_SOURCE.formatted(i)).toString());
+                for (int j = 0; j < classesPerModule; j++) {
+                    javacArguments.add(Files.writeString(packageDirectory.resolve("C" + j + ".java"),
+                            LARGE_CLASS_SOURCE.formatted(i, j)).toString());
+                }
+            }
+            run("javac", javacArguments);
+
+            Files.createDirectories(targetDirectory);
+            List<Path> moduleJars = new ArrayList<>(moduleCount);
+            for (int i = 0; i < moduleCount; i++) {
+                Path moduleJar = targetDirectory.resolve("bench-large" + i + "-1.0.0.jar");
+                run("jar", List.of("--create", "--file", moduleJar.toString(),
+                        "-C", classesDirectory.resolve("bench.large" + i).toString(), "."));
+                moduleJars.add(moduleJar);
+            }
+            delete(workDirectory);
+            return moduleJars;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generates plugin jars named {@code bench-pluginN-1.0.0.jar} into the target directory.
+     *
+     * @param count           the number of plugins
+     * @param targetDirectory the directory to write the plugin jars to
+     * @return the paths of the plugin jars, in plugin order
+     */
+    public static List<Path> generate(int count, Path targetDirectory) {
+        try {
+            Path workDirectory = Files.createTempDirectory("bench-plugins");
+            Path sourceDirectory = workDirectory.resolve("src");
+            Path classesDirectory = workDirectory.resolve("classes");
+            List<String> javacArguments = new ArrayList<>(List.of(
+                    "-Xlint:-module",
+                    "-d", classesDirectory.toString(),
+                    "--module-source-path", sourceDirectory.toString(),
+                    "--module-path", bootModuleLocation().toString()));
+            for (int i = 0; i < count; i++) {
+                Path moduleDirectory = sourceDirectory.resolve("bench.plugin" + i);
+                Path packageDirectory = Files.createDirectories(moduleDirectory.resolve("bench/plugin" + i));
+                javacArguments.add(Files.writeString(moduleDirectory.resolve("module-info.java"),
+                        MODULE_INFO_SOURCE.formatted(i)).toString());
+                javacArguments.add(Files.writeString(packageDirectory.resolve("NoOpListener.java"),
+                        LISTENER_SOURCE.formatted(i)).toString());
+            }
+            run("javac", javacArguments);
+
+            Files.createDirectories(targetDirectory);
+            List<Path> pluginJars = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Path pluginJar = targetDirectory.resolve("bench-plugin" + i + "-1.0.0.jar");
+                run("jar", List.of("--create", "--file", pluginJar.toString(),
+                        "-C", classesDirectory.resolve("bench.plugin" + i).toString(), "."));
+                pluginJars.add(pluginJar);
+            }
+            delete(workDirectory);
+            return pluginJars;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Deletes a directory and its content.
+     *
+     * @param directory the directory to delete
+     */
+    public static void delete(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path bootModuleLocation() {
+        String bootModuleName = PluggableService.class.getModule().getName();
+        return ModuleLayer.boot().configuration().findModule(bootModuleName)
+                .flatMap(module -> module.reference().location())
+                .map(Path::of)
+                .orElseThrow(() -> new IllegalStateException(bootModuleName + " is not in the boot layer"));
+    }
+
+    private static void run(String toolName, List<String> arguments) {
+        ToolProvider tool = ToolProvider.findFirst(toolName)
+                .orElseThrow(() -> new IllegalStateException(toolName + " is not available"));
+        int exitCode = tool.run(System.out, System.err, arguments.toArray(String[]::new));
+        if (exitCode != 0) {
+            throw new IllegalStateException(toolName + " failed with exit code " + exitCode);
+        }
+    }
+}
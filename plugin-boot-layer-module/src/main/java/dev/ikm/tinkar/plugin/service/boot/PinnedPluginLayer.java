@@ -0,0 +1,30 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot;
+
+import java.time.Instant;
+
+/**
+ * A removed plugin layer that has not been garbage collected within the leak grace period, because a reference
+ * to the layer, its class loader, or one of its classes or instances is still held.
+ *
+ * @param name                  the name of the plugin layer
+ * @param removedAt             the time the layer was removed
+ * @param approximateClassCount the number of classes in the modules of the layer, an upper bound of the classes
+ *                              the layer retains
+ */
+public record PinnedPluginLayer(String name, Instant removedAt, int approximateClassCount) {
+}
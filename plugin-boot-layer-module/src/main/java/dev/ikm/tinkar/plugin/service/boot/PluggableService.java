@@ -16,14 +16,21 @@
 package dev.ikm.tinkar.plugin.service.boot;
 
 import dev.ikm.tinkar.plugin.service.boot.internal.Layers;
+import dev.ikm.tinkar.plugin.service.boot.internal.PluginEvents;
+import dev.ikm.tinkar.plugin.service.boot.internal.PluginManagement;
 import dev.ikm.tinkar.plugin.service.boot.internal.PluginWatchDirectory;
+import dev.ikm.tinkar.plugin.service.boot.internal.ProviderProfiler;
+import dev.ikm.tinkar.plugin.service.boot.internal.ProviderSetPublisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 /**
  * The PluggableService class represents a service that supports extensibility through plugins.
@@ -40,14 +47,145 @@ public class PluggableService {
 
     public static final String PATH_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.PATH_KEY";
     public static final String ARTIFACT_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.ARTIFACT_KEY";
+    /**
+     * Set to "false" to unpack and resolve the plugins found at startup one after another on the calling thread,
+     * instead of concurrently on virtual threads. Defaults to "true".
+     */
+    public static final String PARALLEL_STARTUP_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.PARALLEL_STARTUP_KEY";
+    /**
+     * The file of the plugin catalog, which records the plugin artifacts and PluggableServiceLoader jar seen in
+     * previous runs. Defaults to plugin-catalog.properties in a catalog directory of its own per application, keyed
+     * by the working directory and the plugin directories, in a tinkar-plugins directory under java.io.tmpdir.
+     */
+    public static final String CATALOG_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.CATALOG_KEY";
+    /**
+     * The directory of the content addressed working store plugin artifacts are linked or copied into before
+     * they are loaded. Defaults to a store directory in a tinkar-plugins directory under java.io.tmpdir.
+     */
+    public static final String WORKING_STORE_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.WORKING_STORE_KEY";
+    /**
+     * The maximum total size in bytes of artifacts kept in the working store while no plugin layer uses them.
+     * Defaults to 256 MiB.
+     */
+    public static final String WORKING_STORE_MAX_UNUSED_BYTES_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.WORKING_STORE_MAX_UNUSED_BYTES_KEY";
+    /**
+     * The quiet period in milliseconds after which changes in the plugin directories are applied, as one batch,
+     * once the changed plugin artifacts have stopped growing. Defaults to 500.
+     */
+    public static final String QUIET_PERIOD_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.QUIET_PERIOD_KEY";
+    /**
+     * The time in milliseconds a PluginLifecycleListener may take to handle an event before it is reported and
+     * interrupted. Defaults to 10000.
+     */
+    public static final String LISTENER_TIMEOUT_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.LISTENER_TIMEOUT_KEY";
+    /**
+     * The number of lifecycle events that may be queued for a PluginLifecycleListener; further events are dropped
+     * and reported. Defaults to 256.
+     */
+    public static final String LISTENER_QUEUE_CAPACITY_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.LISTENER_QUEUE_CAPACITY_KEY";
+    /**
+     * The time in milliseconds a removed plugin layer may take to be garbage collected before it is reported as
+     * pinned, see {@link #pinnedPluginLayers()}. Defaults to 60000.
+     */
+    public static final String LEAK_GRACE_PERIOD_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.LEAK_GRACE_PERIOD_KEY";
+    /**
+     * Set to "true" to only unpack the plugins found at startup and read their module descriptors, and to define
+     * the layer of a plugin the first time a service it provides is looked up through {@link #loader(Class)} or
+     * {@link #providers(Class)}. Plugins added while running are defined immediately. Defaults to "false".
+     */
+    public static final String LAZY_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.LAZY_KEY";
+    /**
+     * How the plugin directories are watched for changes: NATIVE for native file system events, HASH for native
+     * events filtered by a content hash of every file, POLL for polling the size and modification time of the
+     * plugins every {@link #POLL_INTERVAL_KEY} milliseconds, or NONE to not watch, for immutable deployments.
+     * Defaults to NATIVE.
+     */
+    public static final String WATCH_STRATEGY_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.WATCH_STRATEGY_KEY";
+    /**
+     * The time in milliseconds between polls of the plugin directories, with the POLL watch strategy. Defaults to
+     * 2000.
+     */
+    public static final String POLL_INTERVAL_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.POLL_INTERVAL_KEY";
+    /**
+     * Set to "true" to warm up a plugin layer before it becomes visible to lookups: the provider classes of its
+     * modules are loaded and initialized on virtual threads, and its {@link PluginWarmup} hooks are called.
+     * Defaults to "false".
+     */
+    public static final String WARMUP_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.WARMUP_KEY";
+    /**
+     * The time in milliseconds the warm-up of a plugin layer may take, after which the layer is published
+     * regardless. Defaults to 30000.
+     */
+    public static final String WARMUP_TIMEOUT_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.WARMUP_TIMEOUT_KEY";
+    /**
+     * The location of a plugin repository index, an http or https URI or a file path, to mirror into the plugin
+     * directory, the first by name if there are several. The repository is synced before the plugins are loaded at
+     * startup, and then periodically. Not set by default.
+     */
+    public static final String REPOSITORY_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.REPOSITORY_KEY";
+    /**
+     * The time in milliseconds between syncs of the plugin repository, or 0 to only sync at startup. Defaults to
+     * 300000.
+     */
+    public static final String REPOSITORY_SYNC_INTERVAL_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.REPOSITORY_SYNC_INTERVAL_KEY";
+    /**
+     * How the modules of a plugin are found: DIRECTORY to unpack the plugin into its working directory, or MAPPED
+     * to memory-map .jar plugins and .zip plugin bundles and load their classes straight from the mapping, without
+     * writing them to disk. A mapped plugin must be replaced by renaming a new file over it, never by rewriting
+     * the file in place. Tar bundles and shared libraries are always unpacked. Defaults to DIRECTORY.
+     */
+    public static final String MODULE_FINDER_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.MODULE_FINDER_KEY";
+    /**
+     * How the modules of a plugin layer are defined to class loaders: ONE for a single class loader shared by all
+     * modules of the layer, or MANY for a class loader per module. The JDK loaders of both are parallel capable, so
+     * neither serializes class loading; MANY costs a loader per module. Set for a single plugin by appending "."
+     * and the artifact id of the plugin to this key. Defaults to ONE.
+     */
+    public static final String CLASS_LOADER_STRATEGY_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.CLASS_LOADER_STRATEGY_KEY";
+    /**
+     * A comma separated list of service interface names whose providers are profiled. The providers returned by
+     * {@link #providers(Class)} and {@link #stream(Class)} are wrapped in proxies recording the calls, latency and
+     * allocation of their methods by plugin layer, as returned by {@link #providerProfiles()}. The providers of a
+     * {@link #loader(Class)} are not profiled. Not set by default.
+     */
+    public static final String PROFILED_SERVICES_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.PROFILED_SERVICES_KEY";
+    /**
+     * Set to "false" to not register the MXBeans of the plugin runtime, found in the
+     * {@link dev.ikm.tinkar.plugin.service.boot.management} package, with the platform MBean server. Defaults to
+     * "true".
+     */
+    public static final String MANAGEMENT_KEY = "dev.ikm.tinkar.plugin.service.boot.PluggableService.MANAGEMENT_KEY";
     private static final String DefaultPluggableServiceLoaderArtifactId = "plugin-service-loader-module";
 
     private static PluggableServiceLoader pluggableServiceLoader;
 
+    /**
+     * The layer of the PluggableServiceLoader module. It is resolved once, with the boot layer as parent,
+     * and reused for every change of the plugin layers.
+     */
+    private static ModuleLayer pluginServiceLoaderLayer;
+
     private final Layers layers;
 
+    /**
+     * Profiles the providers of the services selected by {@link #PROFILED_SERVICES_KEY}, if any.
+     */
+    private final Optional<ProviderProfiler> providerProfiler;
+
+    /**
+     * The registered MXBeans of the plugin runtime, unless disabled by {@link #MANAGEMENT_KEY}.
+     */
+    private final Optional<PluginManagement> pluginManagement;
+
     private static AtomicReference<PluggableService> singletonReference = new AtomicReference<>();
 
+    /**
+     * The publishers of the providers of services, created on the first call of {@link #publisher(Class)} for a
+     * service.
+     */
+    private static final ConcurrentHashMap<Class<?>, ProviderSetPublisher<?>> providerSetPublishers =
+            new ConcurrentHashMap<>();
+
     /**
      * Creates an instance of the PluggableService class.
      *
@@ -58,12 +196,22 @@ public class PluggableService {
         if (PluggableService.singletonReference.compareAndSet(null, this) == false) {
             throw new IllegalStateException("PluggableService must only be set up once. ");
         }
-        this.layers = new Layers(pluginsDirectories);
-        deployPluginServiceLoader(List.of(ModuleLayer.boot()));
+        Set<String> profiledServices =
+                ProviderProfiler.parseProfiledServices(System.getProperty(PROFILED_SERVICES_KEY));
+        this.providerProfiler = profiledServices.isEmpty() ? Optional.empty() :
+                Optional.of(new ProviderProfiler(profiledServices, this::pluginLayerName));
+        // the publishers listen from the start, as the deployer applies changes as soon as it is started
+        this.layers = new Layers(pluginsDirectories, List.of((added, removed) -> providerSetPublishers.values()
+                .forEach(providerSetPublisher -> providerSetPublisher.layersChanged(added, removed))));
+        this.pluginManagement = Boolean.parseBoolean(System.getProperty(MANAGEMENT_KEY, "true")) ?
+                PluginManagement.register(layers) : Optional.empty();
     }
 
     public static Optional<String> findPluggableServiceLoaderJar(File dirPath, String artifactKey){
         File filesList[] = dirPath.listFiles();
+        if (filesList == null) {
+            return Optional.empty();
+        }
         for(File file : filesList) {
             if(file.isFile()) {
                 if (file.getName().endsWith(".jar") && file.getName().startsWith(artifactKey)) {
@@ -79,28 +227,74 @@ public class PluggableService {
         return Optional.empty();
     }
 
-    public static void deployPluginServiceLoader(List<ModuleLayer> parentLayers) {
-        if (System.getProperty(PATH_KEY) == null) {
-            String artifactKey = System.getProperty(ARTIFACT_KEY, DefaultPluggableServiceLoaderArtifactId);
+    /**
+     * Returns the artifact key used to find the PluggableServiceLoader jar when no PATH_KEY is provided.
+     *
+     * @return the value of the ARTIFACT_KEY system property, or the default artifact id
+     */
+    public static String pluggableServiceLoaderArtifactKey() {
+        return System.getProperty(ARTIFACT_KEY, DefaultPluggableServiceLoaderArtifactId);
+    }
 
-            findPluggableServiceLoaderJar(new File(System.getProperty("user.dir")),
-                    artifactKey).ifPresentOrElse(pluggableServiceLoaderJar -> {
-                        System.setProperty(PATH_KEY, pluggableServiceLoaderJar);
-                        LOG.info("Found pluggable service loader jar: {}", pluggableServiceLoaderJar);
-                    },
-                    () -> {throw new RuntimeException("No pluggable service loader found. \n" +
-                            "Ensure that PATH_KEY and ARTIFACT_KEY system properties are provided,\n" +
-                            "or that a pluggable service provider .jar file is provided at a discoverable location.\n\n"
-                    );});
+    /**
+     * Deploys the PluggableServiceLoader, and points it at the services of the given layers.
+     * <p>
+     * The PluggableServiceLoader module is located and resolved into its own layer on the first call only.
+     * Later calls, made whenever the plugin layers change, just hand the PluggableServiceLoader a new service
+     * layer: an empty layer on top of the given layers, which requires no module resolution.
+     *
+     * @param parentLayers the layers the PluggableServiceLoader should find services in
+     * @return the module layer of the deployed PluggableServiceLoader
+     */
+    public static synchronized ModuleLayer deployPluginServiceLoader(List<ModuleLayer> parentLayers) {
+        PluginEvents.ServiceLoaderDeploymentEvent deploymentEvent = new PluginEvents.ServiceLoaderDeploymentEvent();
+        deploymentEvent.begin();
+        try {
+            ModuleLayer layer = deployPluginServiceLoaderLayer(parentLayers);
+            deploymentEvent.outcome = PluginEvents.SUCCESS;
+            return layer;
+        } catch (RuntimeException | Error e) {
+            deploymentEvent.outcome = PluginEvents.failure(e);
+            throw e;
+        } finally {
+            deploymentEvent.layerCount = parentLayers.size();
+            deploymentEvent.commit();
         }
-        String pluginServiceLoaderPath = System.getProperty(PATH_KEY);
+    }
+
+    private static ModuleLayer deployPluginServiceLoaderLayer(List<ModuleLayer> parentLayers) {
+        if (pluginServiceLoaderLayer == null) {
+            if (System.getProperty(PATH_KEY) == null) {
+                String artifactKey = pluggableServiceLoaderArtifactKey();
 
-        ModuleLayer pluginServiceLoaderLayer = Layers.createModuleLayer(parentLayers,
-                List.of(Path.of(pluginServiceLoaderPath)));
-        ServiceLoader<PluggableServiceLoader> pluggableServiceLoaderLoader =
-                ServiceLoader.load(pluginServiceLoaderLayer, PluggableServiceLoader.class);
-        Optional<PluggableServiceLoader> pluggableServiceLoaderOptional = pluggableServiceLoaderLoader.findFirst();
-        pluggableServiceLoaderOptional.ifPresent(serviceLoader -> PluggableService.setServiceProvider(serviceLoader));
+                findPluggableServiceLoaderJar(new File(System.getProperty("user.dir")),
+                        artifactKey).ifPresentOrElse(pluggableServiceLoaderJar -> {
+                            System.setProperty(PATH_KEY, pluggableServiceLoaderJar);
+                            LOG.info("Found pluggable service loader jar: {}", pluggableServiceLoaderJar);
+                        },
+                        () -> {throw new RuntimeException("No pluggable service loader found. \n" +
+                                "Ensure that PATH_KEY and ARTIFACT_KEY system properties are provided,\n" +
+                                "or that a pluggable service provider .jar file is provided at a discoverable location.\n\n"
+                        );});
+            }
+            String pluginServiceLoaderPath = System.getProperty(PATH_KEY);
+
+            ModuleLayer layer = Layers.createModuleLayer(List.of(ModuleLayer.boot()),
+                    List.of(Path.of(pluginServiceLoaderPath)));
+            ServiceLoader<PluggableServiceLoader> pluggableServiceLoaderLoader =
+                    ServiceLoader.load(layer, PluggableServiceLoader.class);
+            PluggableServiceLoader serviceLoader = pluggableServiceLoaderLoader.findFirst()
+                    .orElseThrow(() -> new IllegalStateException("No PluggableServiceLoader provided by: " +
+                            pluginServiceLoaderPath));
+            PluggableService.setServiceProvider(serviceLoader);
+            pluginServiceLoaderLayer = layer;
+        }
+        PluggableService.pluggableServiceLoader.setServiceLayer(Layers.createServiceLayer(parentLayers));
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService != null) {
+            pluggableService.providerProfiler.ifPresent(ProviderProfiler::clearProxies);
+        }
+        return pluginServiceLoaderLayer;
     }
 
     /**
@@ -136,6 +330,215 @@ public class PluggableService {
         if (PluggableService.pluggableServiceLoader.ensureUses(service)) {
             LOG.info("Adding uses {} to : PluggableService.pluggableServiceLoader.", service.getName());
         }
-        return PluggableService.pluggableServiceLoader.loader(service);
+        recordLookup(service);
+        PluginEvents.ServiceLookupEvent lookupEvent = new PluginEvents.ServiceLookupEvent();
+        lookupEvent.begin();
+        definePluginLayersProviding(service);
+        ServiceLoader<S> loader = PluggableService.pluggableServiceLoader.loader(service);
+        lookupEvent.end();
+        if (lookupEvent.shouldCommit()) {
+            commitLookupEvent(lookupEvent, service, "loader", declaredProviderCount(service));
+        }
+        return loader;
+    }
+
+    /**
+     * Returns the removed plugin layers that have not been garbage collected within the leak grace period. A
+     * pinned layer keeps its class loader and classes in memory, because something still references the layer,
+     * its class loader, or one of its classes or instances.
+     *
+     * @return the pinned plugin layers, oldest first, or an empty list if PluggableService has not been set up
+     */
+    public static List<PinnedPluginLayer> pinnedPluginLayers() {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService == null) {
+            return List.of();
+        }
+        return pluggableService.layers.pinnedPluginLayers();
+    }
+
+    /**
+     * Returns the providers of the given pluggable service class.
+     * <p>
+     * The providers are cached by the PluggableServiceLoader until a plugin layer is added or removed,
+     * so this is the preferred lookup for frequently used services.
+     *
+     * @param service the pluggable service class
+     * @param <S>     the type of the service
+     * @return an immutable list of the providers for the given service class
+     */
+    public static <S> List<S> providers(Class<S> service) {
+        if (PluggableService.pluggableServiceLoader == null) {
+            throw new IllegalStateException("PluggableServiceLoader has not been set. " +
+                    "Use the setServiceProvider() method to set the PluggableServiceLoader.");
+        }
+        if (PluggableService.pluggableServiceLoader.ensureUses(service)) {
+            LOG.info("Adding uses {} to : PluggableService.pluggableServiceLoader.", service.getName());
+        }
+        recordLookup(service);
+        PluginEvents.ServiceLookupEvent lookupEvent = new PluginEvents.ServiceLookupEvent();
+        lookupEvent.begin();
+        definePluginLayersProviding(service);
+        List<S> providers = PluggableService.pluggableServiceLoader.providers(service);
+        lookupEvent.end();
+        if (lookupEvent.shouldCommit()) {
+            commitLookupEvent(lookupEvent, service, "providers", providers.size());
+        }
+        Optional<ProviderProfiler> providerProfiler = providerProfiler(service);
+        if (providerProfiler.isPresent()) {
+            return providerProfiler.get().profile(service, providers);
+        }
+        return providers;
+    }
+
+    /**
+     * Returns a publisher of the providers of the given pluggable service class. Each subscriber first receives
+     * the current providers, as returned by {@link #providers(Class)}, and then the new providers whenever a plugin
+     * layer providing the service is added or removed. The publisher never completes.
+     * <p>
+     * Changes are conflated: a subscriber that has not requested the next list when the providers change
+     * receives only the providers current at the time of its next request. Subscribers can hold on to the last
+     * list they received instead of looking up the providers on every use, as a new list, without the providers of
+     * a removed layer, is published when the layer is removed. Lists are delivered on virtual threads.
+     *
+     * @param service the pluggable service class
+     * @param <S>     the type of the service
+     * @return the publisher of the providers for the given service class
+     */
+    @SuppressWarnings("unchecked")
+    public static <S> Flow.Publisher<List<S>> publisher(Class<S> service) {
+        return (Flow.Publisher<List<S>>) providerSetPublishers.computeIfAbsent(service,
+                key -> new ProviderSetPublisher<>(service, () -> providers(service)));
+    }
+
+    /**
+     * Returns the providers of the given pluggable service class, without instantiating them.
+     * <p>
+     * Only the layers whose modules declare a provider of the service are searched, as found in an index of the
+     * module descriptors of the registered layers, and each layer only contributes its own providers, not those
+     * of its parents. Callers can select providers by {@link ServiceLoader.Provider#type()} and only pay for the
+     * instantiation of the providers they {@link ServiceLoader.Provider#get() get}. The same reference rules as for
+     * {@link #loader(Class)} apply.
+     *
+     * @param service the pluggable service class
+     * @param <S>     the type of the service
+     * @return the providers of the service, in the registration order of their layers
+     */
+    public static <S> Stream<ServiceLoader.Provider<S>> stream(Class<S> service) {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService == null || pluggableService.layers == null) {
+            return loader(service).stream();
+        }
+        Module bootModule = PluggableService.class.getModule();
+        if (!bootModule.canUse(service)) {
+            bootModule.addUses(service);
+        }
+        recordLookup(service);
+        PluginEvents.ServiceLookupEvent lookupEvent = new PluginEvents.ServiceLookupEvent();
+        lookupEvent.begin();
+        List<ModuleLayer> providingLayers = pluggableService.layers.layersProviding(service.getName());
+        lookupEvent.end();
+        if (lookupEvent.shouldCommit()) {
+            commitLookupEvent(lookupEvent, service, "stream", declaredProviderCount(service));
+        }
+        Stream<ServiceLoader.Provider<S>> providers = providingLayers.stream()
+                .flatMap(layer -> ServiceLoader.load(layer, service).stream()
+                        .filter(provider -> provider.type().getModule().getLayer() == layer));
+        Optional<ProviderProfiler> providerProfiler = providerProfiler(service);
+        if (providerProfiler.isPresent()) {
+            return providers.map(provider -> providerProfiler.get().profile(service, provider));
+        }
+        return providers;
+    }
+
+    /**
+     * Returns the recorded profiles of the providers of the services selected by {@link #PROFILED_SERVICES_KEY}.
+     * Profiles are kept for removed plugin layers, so that versions of a plugin can be compared.
+     *
+     * @return the profiles by plugin layer, service and method, or an empty list if profiling is not enabled
+     */
+    public static List<ProviderProfile> providerProfiles() {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService == null) {
+            return List.of();
+        }
+        return pluggableService.providerProfiler.map(ProviderProfiler::profiles).orElse(List.of());
+    }
+
+    /**
+     * Returns the recorded profiles of the providers of a plugin layer.
+     *
+     * @param pluginLayerName the name of the plugin layer
+     * @return the profiles of the plugin layer by service and method
+     */
+    public static List<ProviderProfile> providerProfiles(String pluginLayerName) {
+        return providerProfiles().stream()
+                .filter(profile -> profile.pluginLayerName().equals(pluginLayerName))
+                .toList();
+    }
+
+    /**
+     * Discards the recorded provider profiles.
+     */
+    public static void resetProviderProfiles() {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService != null) {
+            pluggableService.providerProfiler.ifPresent(ProviderProfiler::reset);
+        }
+    }
+
+    private Optional<String> pluginLayerName(ModuleLayer moduleLayer) {
+        return layers.pluginLayerName(moduleLayer);
+    }
+
+    /**
+     * Counts a lookup of a service for the {@link dev.ikm.tinkar.plugin.service.boot.management.ServiceLookupMXBean}.
+     *
+     * @param service the requested service
+     */
+    private static void recordLookup(Class<?> service) {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService != null && pluggableService.pluginManagement != null) {
+            pluggableService.pluginManagement.ifPresent(pluginManagement -> pluginManagement.recordLookup(service));
+        }
+    }
+
+    private static Optional<ProviderProfiler> providerProfiler(Class<?> service) {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService == null || pluggableService.layers == null) {
+            return Optional.empty();
+        }
+        return pluggableService.providerProfiler.filter(providerProfiler -> providerProfiler.profiles(service));
+    }
+
+    private static void commitLookupEvent(PluginEvents.ServiceLookupEvent lookupEvent, Class<?> service,
+                                          String method, int providerCount) {
+        lookupEvent.service = service;
+        lookupEvent.method = method;
+        lookupEvent.providerCount = providerCount;
+        lookupEvent.commit();
+    }
+
+    /**
+     * Returns the number of providers of a service declared by the registered layers, for lookup events.
+     */
+    private static int declaredProviderCount(Class<?> service) {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService == null || pluggableService.layers == null) {
+            return -1;
+        }
+        return pluggableService.layers.declaredProviderCount(service.getName());
+    }
+
+    /**
+     * Defines the deferred plugin layers providing a service, when plugin layers are defined lazily.
+     *
+     * @param service the requested service
+     */
+    private static void definePluginLayersProviding(Class<?> service) {
+        PluggableService pluggableService = singletonReference.get();
+        if (pluggableService != null && pluggableService.layers != null) {
+            pluggableService.layers.definePluginLayersProviding(service.getName());
+        }
     }
 }
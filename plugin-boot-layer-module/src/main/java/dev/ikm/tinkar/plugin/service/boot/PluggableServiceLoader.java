@@ -15,6 +15,7 @@
  */
 package dev.ikm.tinkar.plugin.service.boot;
 
+import java.util.List;
 import java.util.ServiceLoader;
 
 /**
@@ -41,6 +42,30 @@ public interface PluggableServiceLoader {
      */
     <S> ServiceLoader<S> loader(Class<S> service);
 
+    /**
+     * Returns the providers of the given pluggable service class, instantiated across all plugin layers.
+     * <p>
+     * Unlike {@link #loader(Class)}, the returned list is resolved once and cached until the set of plugin
+     * layers changes, so repeated lookups on a stable plugin set do not rescan the layer graph. The same
+     * reference rules apply: callers must drop the returned providers when a plugin layer is being removed.
+     *
+     * @param service the pluggable service class
+     * @param <S>     the type of the service
+     * @return an immutable list of the providers for the given service class
+     */
+    <S> List<S> providers(Class<S> service);
+
+    /**
+     * Sets the layer that services are loaded from.
+     * <p>
+     * The service layer is an empty layer whose parents are the boot layer and all plugin layers. It is
+     * replaced whenever a plugin layer is added or removed, which allows the PluggableServiceLoader itself
+     * to remain deployed in a single layer for the lifetime of the application.
+     *
+     * @param serviceLayer the layer to load services from
+     */
+    void setServiceLayer(ModuleLayer serviceLayer);
+
     /**
      * Ensures that the specified service is registered in the Java module system.
      * <p>
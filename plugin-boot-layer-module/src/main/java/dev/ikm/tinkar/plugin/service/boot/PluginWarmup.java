@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot;
+
+/**
+ * Implementations warm up the services of their plugin when its layer is deployed, before the layer becomes
+ * visible to lookups, so that the first request after a hot deployment does not pay for the cold start of the
+ * plugin. Warm-up only runs if enabled with {@link PluggableService#WARMUP_KEY}.
+ * <p>
+ * A plugin declares its warm-up with {@code provides PluginWarmup with ...}; only the implementations in the
+ * deployed layer itself are called, on a virtual thread, after the provider classes of the layer have been
+ * loaded and initialized. Retrieved via the service loader API.
+ */
+public interface PluginWarmup {
+
+    /**
+     * Warms up the services of the plugin, e.g. by exercising their hot paths once.
+     *
+     * @param pluginLayerName the name of the plugin layer being deployed
+     * @param pluginLayer     the ModuleLayer representing the plugin layer being deployed
+     * @throws Exception if the warm-up fails, which is logged without preventing the deployment
+     */
+    void warmUp(String pluginLayerName, ModuleLayer pluginLayer) throws Exception;
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot;
+
+import java.util.List;
+
+/**
+ * The profile of the calls of one method of a service, on the providers of one plugin layer, recorded while the
+ * service is profiled.
+ *
+ * @param pluginLayerName         the name of the plugin layer of the providers
+ * @param service                 the name of the service
+ * @param method                  the method, as its name and parameter types
+ * @param calls                   the number of calls
+ * @param failures                the number of calls that threw an exception
+ * @param totalNanos              the total time of the calls in nanoseconds
+ * @param maxNanos                the time of the slowest call in nanoseconds
+ * @param latencyHistogram        the number of calls by latency: element 0 counts the calls that took no measurable
+ *                                time, element i the calls that took at least 2^(i-1) and less than 2^i nanoseconds
+ * @param allocatedBytes          the bytes allocated by the calls that could be measured
+ * @param allocationMeasuredCalls the number of calls whose allocation could be measured, which excludes calls on
+ *                                virtual threads, or all calls if the JVM does not measure thread allocation
+ */
+public record ProviderProfile(String pluginLayerName, String service, String method, long calls, long failures,
+                              long totalNanos, long maxNanos, List<Long> latencyHistogram, long allocatedBytes,
+                              long allocationMeasuredCalls) {
+
+    /**
+     * Returns the mean time of the calls.
+     *
+     * @return the mean time in nanoseconds, or 0 without calls
+     */
+    public long meanNanos() {
+        return calls == 0 ? 0 : totalNanos / calls;
+    }
+
+    /**
+     * Returns an upper bound of a percentile of the call latency, from the histogram.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the histogram bucket holding the percentile, in nanoseconds, or 0 without calls
+     */
+    public long percentileNanos(double percentile) {
+        long threshold = (long) Math.ceil(calls * percentile / 100.0);
+        long count = 0;
+        for (int i = 0; i < latencyHistogram.size(); i++) {
+            count += latencyHistogram.get(i);
+            if (count >= threshold && count > 0) {
+                return i == 0 ? 0 : i >= Long.SIZE - 1 ? maxNanos : Math.min(maxNanos, (1L << i) - 1);
+            }
+        }
+        return maxNanos;
+    }
+
+    /**
+     * Returns the mean bytes allocated by the calls that could be measured.
+     *
+     * @return the mean allocated bytes, or -1 if no call could be measured
+     */
+    public long meanAllocatedBytes() {
+        return allocationMeasuredCalls == 0 ? -1 : allocatedBytes / allocationMeasuredCalls;
+    }
+}
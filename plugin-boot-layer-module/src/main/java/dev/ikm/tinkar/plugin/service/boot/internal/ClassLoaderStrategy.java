@@ -0,0 +1,35 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+/**
+ * How the modules of a plugin layer are mapped to class loaders. The class loaders the JDK defines for module
+ * layers are parallel capable, locking per class name rather than per loader, so both strategies load classes
+ * concurrently; they differ in how the loading of a multi-module plugin is spread over loaders.
+ */
+public enum ClassLoaderStrategy {
+    /**
+     * One class loader for all modules of the layer, defined with
+     * {@link ModuleLayer#defineModulesWithOneLoader}. Classes of all modules share the loader's package map and
+     * delegation, which is cheapest to define and to collect.
+     */
+    ONE,
+    /**
+     * A class loader for each module of the layer, defined with {@link ModuleLayer#defineModulesWithManyLoaders}.
+     * Each module has its own package map and delegation, at the cost of a loader per module.
+     */
+    MANY
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the changes of the plugin layers applied since startup, and the time they took.
+ */
+public class DeploymentStats {
+    private final LongAdder deployments = new LongAdder();
+    private final LongAdder failedDeployments = new LongAdder();
+    private final LongAdder addedLayers = new LongAdder();
+    private final LongAdder removedLayers = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private volatile long lastNanos;
+
+    /**
+     * Records a deployment: a batch of plugin changes, or an explicit undeployment.
+     *
+     * @param nanos  the time the deployment took
+     * @param failed whether the deployment failed
+     */
+    public void recordDeployment(long nanos, boolean failed) {
+        deployments.increment();
+        if (failed) {
+            failedDeployments.increment();
+        }
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        lastNanos = nanos;
+    }
+
+    /**
+     * Records the layers a change added and removed.
+     *
+     * @param added   the number of added layers
+     * @param removed the number of removed layers
+     */
+    public void recordLayers(int added, int removed) {
+        addedLayers.add(added);
+        removedLayers.add(removed);
+    }
+
+    /**
+     * @return the number of deployments
+     */
+    public long deploymentCount() {
+        return deployments.sum();
+    }
+
+    /**
+     * @return the number of failed deployments
+     */
+    public long failedDeploymentCount() {
+        return failedDeployments.sum();
+    }
+
+    /**
+     * @return the number of added layers
+     */
+    public long addedLayerCount() {
+        return addedLayers.sum();
+    }
+
+    /**
+     * @return the number of removed layers
+     */
+    public long removedLayerCount() {
+        return removedLayers.sum();
+    }
+
+    /**
+     * @return the time the last deployment took, in nanoseconds
+     */
+    public long lastNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * @return the mean time of the deployments, in nanoseconds, or 0 without deployments
+     */
+    public long meanNanos() {
+        long count = deployments.sum();
+        return count == 0 ? 0 : totalNanos.sum() / count;
+    }
+
+    /**
+     * @return the time the slowest deployment took, in nanoseconds
+     */
+    public long maxNanos() {
+        return maxNanos.get();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A plugin source in a file system, such as a shared network mount, read from an index file.
+ */
+public class FilePluginSource implements PluginSource {
+    private final Path index;
+
+    /**
+     * Creates a source reading the given index file.
+     *
+     * @param index the path of the index file
+     */
+    public FilePluginSource(Path index) {
+        this.index = index;
+    }
+
+    @Override
+    public List<Entry> index() throws IOException {
+        return PluginSource.parseIndex(Files.readString(index));
+    }
+
+    @Override
+    public InputStream open(Entry entry, long offset) throws IOException {
+        Path artifact = index.resolveSibling(entry.path());
+        FileChannel channel = FileChannel.open(artifact);
+        try {
+            return Channels.newInputStream(channel.position(offset));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return index.toString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * A plugin source on an HTTP server, read from the URI of its index. Partial transfers are resumed with range
+ * requests; a server that ignores them sends the whole artifact, and the bytes already transferred are skipped.
+ */
+public class HttpPluginSource implements PluginSource {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    private final URI index;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    /**
+     * Creates a source reading the index at the given URI.
+     *
+     * @param index the URI of the index
+     */
+    public HttpPluginSource(URI index) {
+        this.index = index;
+    }
+
+    @Override
+    public List<Entry> index() throws IOException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(index).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("HTTP status " + response.statusCode() + " reading plugin index " + index);
+        }
+        return PluginSource.parseIndex(response.body());
+    }
+
+    @Override
+    public InputStream open(Entry entry, long offset) throws IOException {
+        URI artifact = index.resolve(entry.path());
+        HttpRequest.Builder request = HttpRequest.newBuilder(artifact).GET();
+        if (offset > 0) {
+            request.header("Range", "bytes=" + offset + "-");
+        }
+        HttpResponse<InputStream> response = send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        InputStream body = response.body();
+        try {
+            switch (response.statusCode()) {
+                case 200 -> body.skipNBytes(offset);
+                case 206 -> {
+                    String contentRange = response.headers().firstValue("Content-Range").orElse("");
+                    if (!contentRange.startsWith("bytes " + offset + "-")) {
+                        throw new IOException("Unexpected Content-Range '" + contentRange + "' for " + artifact);
+                    }
+                }
+                default -> throw new IOException("HTTP status " + response.statusCode() + " fetching " + artifact);
+            }
+            return body;
+        } catch (IOException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException {
+        try {
+            return httpClient.send(request, bodyHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted requesting " + request.uri());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return index.toString();
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.lang.module.ModuleDescriptor;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * The LayerRegistry holds the registered plugin layers as an immutable {@link Snapshot}, indexed by name,
+ * by module layer and by the services their modules provide.
+ * <p>
+ * Every change publishes a new snapshot with an incremented generation. Readers never block: they read the
+ * current snapshot and may keep using it while changes are published. Writers are serialized, look up layers
+ * through the name index, and build the next snapshot from the current one.
+ */
+public class LayerRegistry {
+
+    private final AtomicReference<Snapshot> currentSnapshot =
+            new AtomicReference<>(new Snapshot(0, Collections.emptyMap(), List.of(), Collections.emptyMap(),
+                    Collections.emptyMap()));
+
+    /**
+     * The services provided by each registered layer, so that the descriptors of a layer are only read once.
+     */
+    private Map<ModuleLayer, Set<String>> providedServices = new HashMap<>();
+
+    /**
+     * An immutable view of the registered layers.
+     *
+     * @param generation   incremented with every published change
+     * @param layersByName the registered layers by name, in registration order
+     * @param moduleLayers the module layers of the registered layers, in registration order
+     * @param layersByService the registered layers by the names of the services their modules provide, in
+     *                        registration order
+     * @param layersByModuleLayer the registered layers by their module layer
+     */
+    public record Snapshot(long generation, Map<String, PluginNameAndModuleLayer> layersByName,
+                           List<ModuleLayer> moduleLayers, Map<String, List<PluginNameAndModuleLayer>> layersByService,
+                           Map<ModuleLayer, PluginNameAndModuleLayer> layersByModuleLayer) {
+
+        /**
+         * Finds a registered layer by name.
+         *
+         * @param name the name of the layer
+         * @return the layer, or an empty optional if no layer with that name is registered
+         */
+        public Optional<PluginNameAndModuleLayer> find(String name) {
+            return Optional.ofNullable(layersByName.get(name));
+        }
+
+        /**
+         * Finds a registered layer by its module layer.
+         *
+         * @param moduleLayer the module layer
+         * @return the layer, or an empty optional if the module layer is not registered
+         */
+        public Optional<PluginNameAndModuleLayer> find(ModuleLayer moduleLayer) {
+            return Optional.ofNullable(layersByModuleLayer.get(moduleLayer));
+        }
+
+        /**
+         * Returns the registered layers, in registration order.
+         *
+         * @return the registered layers
+         */
+        public Collection<PluginNameAndModuleLayer> layers() {
+            return layersByName.values();
+        }
+
+        /**
+         * Returns the registered layers with a module declaring a provider of the given service.
+         *
+         * @param serviceName the name of the service
+         * @return the providing layers, in registration order
+         */
+        public List<PluginNameAndModuleLayer> providing(String serviceName) {
+            return layersByService.getOrDefault(serviceName, List.of());
+        }
+    }
+
+    /**
+     * Returns the current snapshot of the registered layers.
+     *
+     * @return the current snapshot
+     */
+    public Snapshot snapshot() {
+        return currentSnapshot.get();
+    }
+
+    /**
+     * Finds a registered layer by name in the current snapshot.
+     *
+     * @param name the name of the layer
+     * @return the layer, or an empty optional if no layer with that name is registered
+     */
+    public Optional<PluginNameAndModuleLayer> find(String name) {
+        return snapshot().find(name);
+    }
+
+    /**
+     * Registers a layer, unless a layer with the same name is already registered.
+     *
+     * @param pluginNameAndModuleLayer the layer to register
+     * @return true if the layer was registered, false if a layer with the same name already exists
+     */
+    public synchronized boolean add(PluginNameAndModuleLayer pluginNameAndModuleLayer) {
+        Snapshot snapshot = currentSnapshot.get();
+        if (snapshot.layersByName().containsKey(pluginNameAndModuleLayer.name())) {
+            return false;
+        }
+        LinkedHashMap<String, PluginNameAndModuleLayer> layersByName = new LinkedHashMap<>(snapshot.layersByName());
+        layersByName.put(pluginNameAndModuleLayer.name(), pluginNameAndModuleLayer);
+        publish(snapshot, layersByName);
+        return true;
+    }
+
+    /**
+     * Removes the layer with the given name.
+     *
+     * @param name the name of the layer to remove
+     * @return the removed layer, or an empty optional if no layer with that name was registered
+     */
+    public synchronized Optional<PluginNameAndModuleLayer> remove(String name) {
+        Snapshot snapshot = currentSnapshot.get();
+        PluginNameAndModuleLayer removed = snapshot.layersByName().get(name);
+        if (removed == null) {
+            return Optional.empty();
+        }
+        LinkedHashMap<String, PluginNameAndModuleLayer> layersByName = new LinkedHashMap<>(snapshot.layersByName());
+        layersByName.remove(name);
+        publish(snapshot, layersByName);
+        return Optional.of(removed);
+    }
+
+    /**
+     * Removes and registers layers in a single published change, so that readers see either none or all of
+     * the changes. A registered layer with the same name as a layer to register is replaced in place.
+     *
+     * @param removals  the names of the layers to remove
+     * @param additions the layers to register
+     * @return the removed and replaced layers
+     */
+    public synchronized List<PluginNameAndModuleLayer> apply(Collection<String> removals,
+                                                              Collection<PluginNameAndModuleLayer> additions) {
+        Snapshot snapshot = currentSnapshot.get();
+        LinkedHashMap<String, PluginNameAndModuleLayer> layersByName = new LinkedHashMap<>(snapshot.layersByName());
+        List<PluginNameAndModuleLayer> removed = new ArrayList<>();
+        for (String name : removals) {
+            PluginNameAndModuleLayer removedLayer = layersByName.remove(name);
+            if (removedLayer != null) {
+                removed.add(removedLayer);
+            }
+        }
+        for (PluginNameAndModuleLayer addition : additions) {
+            PluginNameAndModuleLayer replaced = layersByName.put(addition.name(), addition);
+            if (replaced != null) {
+                removed.add(replaced);
+            }
+        }
+        if (!removed.isEmpty() || !additions.isEmpty()) {
+            publish(snapshot, layersByName);
+        }
+        return removed;
+    }
+
+    private void publish(Snapshot previous, LinkedHashMap<String, PluginNameAndModuleLayer> layersByName) {
+        List<ModuleLayer> moduleLayers = layersByName.values().stream()
+                .map(PluginNameAndModuleLayer::moduleLayer)
+                .toList();
+        Map<String, List<PluginNameAndModuleLayer>> layersByService = new HashMap<>();
+        Map<ModuleLayer, Set<String>> servicesByLayer = new HashMap<>();
+        Map<ModuleLayer, PluginNameAndModuleLayer> layersByModuleLayer = new HashMap<>();
+        for (PluginNameAndModuleLayer pluginNameAndModuleLayer : layersByName.values()) {
+            ModuleLayer moduleLayer = pluginNameAndModuleLayer.moduleLayer();
+            layersByModuleLayer.putIfAbsent(moduleLayer, pluginNameAndModuleLayer);
+            Set<String> services = providedServices.containsKey(moduleLayer) ? providedServices.get(moduleLayer) :
+                    moduleLayer.modules().stream()
+                            .flatMap(module -> module.getDescriptor().provides().stream())
+                            .map(ModuleDescriptor.Provides::service)
+                            .collect(Collectors.toCollection(LinkedHashSet::new));
+            servicesByLayer.put(moduleLayer, services);
+            services.forEach(service -> layersByService.computeIfAbsent(service, key -> new ArrayList<>())
+                    .add(pluginNameAndModuleLayer));
+        }
+        providedServices = servicesByLayer;
+        layersByService.replaceAll((service, layers) -> List.copyOf(layers));
+        currentSnapshot.set(new Snapshot(previous.generation() + 1,
+                Collections.unmodifiableMap(layersByName), moduleLayers, Collections.unmodifiableMap(layersByService),
+                Collections.unmodifiableMap(layersByModuleLayer)));
+    }
+}
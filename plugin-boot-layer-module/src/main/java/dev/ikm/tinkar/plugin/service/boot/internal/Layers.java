@@ -18,22 +18,29 @@ package dev.ikm.tinkar.plugin.service.boot.internal;
 import dev.ikm.tinkar.plugin.service.boot.*;
 import io.methvin.watcher.DirectoryChangeEvent;
 import io.methvin.watcher.DirectoryChangeEvent.EventType;
+import io.methvin.watcher.DirectoryChangeListener;
 import io.methvin.watcher.DirectoryWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.module.Configuration;
 import java.lang.module.ModuleFinder;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * The Layers class represents a system of module layers used to manage plugins in an application.
@@ -44,29 +51,124 @@ public class Layers {
     private static final Logger LOG = LoggerFactory.getLogger(Layers.class);
     private static final Pattern PLUGIN_ARTIFACT_PATTERN = Pattern.compile("(.*?)\\-(\\d[\\d+\\-_A-Za-z\\.]*?)\\.(jar|zip|tar|tar\\.gz)");
     public static final String TINKAR_PLUGINS_TEMP_DIR = "tinkar-plugins";
+    public static final String PLUGIN_CATALOG_FILE = "plugin-catalog.properties";
+    public static final String PLUGIN_CATALOGS_DIR = "catalogs";
+    public static final String PLUGIN_WORKING_STORE_DIR = "store";
     public static final String BOOT_LAYER = "boot-layer";
+    public static final String SHARED_LIBRARY_LAYER = "shared-library-layer";
+    /**
+     * The subdirectory of a plugin directory holding the shared libraries.
+     */
+    public static final String SHARED_LIBRARY_DIR = "shared";
     public static final String PLUGIN_SERVICE_LOADER_LAYER = "plugin-service-loader-layer";
 
     /**
      * The actual module layers by name.
      */
-    private final CopyOnWriteArraySet<PluginNameAndModuleLayer> moduleLayers = new CopyOnWriteArraySet<>();
+    private final LayerRegistry layerRegistry = new LayerRegistry();
 
     /**
-     * Temporary directory where all plug-ins will be copied to. Modules will be
+     * Store where all plug-ins will be linked or copied to. Modules will be
      * sourced from there, allowing to remove plug-ins by deleting their original
      * directory.
      */
+    private final PluginWorkingStore pluginWorkingStore;
+    private final PluginBundleExtractor pluginBundleExtractor;
+
+    /**
+     * Directory of this process in the working store, holding a working directory per plugin layer.
+     */
     private final Path pluginsWorkingDir;
 
+    /**
+     * The working directory of each plugin layer, released once the layer has been removed and collected.
+     */
+    private final ConcurrentHashMap<ModuleLayer, Path> pluginWorkingDirs = new ConcurrentHashMap<>();
+
+    /**
+     * The artifact of each plugin layer, until the layer has been removed.
+     */
+    private final ConcurrentHashMap<ModuleLayer, Path> pluginArtifactPaths = new ConcurrentHashMap<>();
+
+    private final DeploymentStats deploymentStats = new DeploymentStats();
+
+    /**
+     * Notified of the layers added to and removed from the registry after startup.
+     */
+    private final List<BiConsumer<Collection<PluginNameAndModuleLayer>, Collection<PluginNameAndModuleLayer>>>
+            layerChangeListeners = new CopyOnWriteArrayList<>();
+
+    private final RemovedLayerTracker removedLayerTracker = new RemovedLayerTracker(Duration.ofMillis(
+            Long.getLong(PluggableService.LEAK_GRACE_PERIOD_KEY, RemovedLayerTracker.DEFAULT_GRACE_PERIOD.toMillis())));
+
+    /**
+     * Record of the plugin artifacts seen in previous runs, used to skip scanning unchanged artifacts.
+     */
+    private final PluginCatalog pluginCatalog;
+
     /**
      * All configured directories potentially containing plug-ins.
      */
     private final Set<PluginWatchDirectory> pluginsDirectories;
 
-    private static final List<ModuleLayer> pluginParentLayerAsList = List.of(ModuleLayer.boot());
+    /**
+     * The parent of the plugin layers: the shared library layer if there are shared libraries, otherwise the
+     * boot layer.
+     */
+    private final List<ModuleLayer> pluginParentLayerAsList;
+
+    private final AtomicInteger pluginIndex = new AtomicInteger();
+
+    private final Optional<Deployer> deployer;
+
+    /**
+     * Serializes changes of the registered layers with the matching update of the PluggableServiceLoader, so
+     * that the loader never ends up pointed at an older set of layers.
+     */
+    private final ReentrantLock layerTransitionLock = new ReentrantLock();
+
+    /**
+     * Whether the plugin layers found at startup are only defined once a service they provide is requested.
+     */
+    private final boolean lazy = Boolean.getBoolean(PluggableService.LAZY_KEY);
 
-    private int pluginIndex = 0;
+    /**
+     * Whether .jar plugins and .zip plugin bundles are memory-mapped, rather than unpacked.
+     */
+    private final boolean mapped = "MAPPED".equalsIgnoreCase(
+            System.getProperty(PluggableService.MODULE_FINDER_KEY, "DIRECTORY"));
+
+    /**
+     * Warms up new plugin layers before they are published, if warm-up is enabled.
+     */
+    private final Optional<PluginWarmer> pluginWarmer = Boolean.getBoolean(PluggableService.WARMUP_KEY) ?
+            Optional.of(new PluginWarmer(Duration.ofMillis(Long.getLong(PluggableService.WARMUP_TIMEOUT_KEY,
+                    PluginWarmer.DEFAULT_WARMUP_TIMEOUT.toMillis())))) : Optional.empty();
+
+    /**
+     * Mirrors the plugin repository into the first plugin directory, if a repository is configured.
+     */
+    private final Optional<PluginRepositorySync> pluginRepositorySync;
+
+    /**
+     * Plugins found at startup in lazy mode, unpacked but not yet defined, by plugin layer name. Kept in the
+     * registration order of the plugin artifacts, so that deferred layers are registered in the same order as
+     * in eager mode. Changes and iterations synchronize on the map, and keep pendingPluginLayersByService in step.
+     */
+    private final Map<String, PreparedPluginLayer> pendingPluginLayers = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * The pending plugin layers by the names of the services they provide, in registration order, so that a
+     * lookup of a service without pending providers costs a single map read.
+     */
+    private final ConcurrentHashMap<String, List<PreparedPluginLayer>> pendingPluginLayersByService =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The layer of the deployed PluggableServiceLoader. It is not one of the plugin layers,
+     * but its lifecycle listeners are notified like theirs.
+     */
+    private volatile ModuleLayer pluginServiceLoaderLayer;
 
     /**
      * Creates a new instance of Layers.
@@ -74,18 +176,89 @@ public class Layers {
      * @param pluginsDirectories a set of PluginsDirectory objects representing the directories where plugins are stored
      */
     public Layers(Set<PluginWatchDirectory> pluginsDirectories) {
-        this.moduleLayers.add(new PluginNameAndModuleLayer(BOOT_LAYER, ModuleLayer.boot()));
+        this(pluginsDirectories, List.of());
+    }
+
+    /**
+     * Creates a new instance of Layers, with layer change listeners registered before the plugin directories are
+     * watched, so that no change is missed between startup and registration.
+     *
+     * @param pluginsDirectories   a set of PluginsDirectory objects representing the directories where plugins are stored
+     * @param layerChangeListeners the listeners notified of the layers added and removed after startup
+     * @see #addLayerChangeListener(BiConsumer)
+     */
+    public Layers(Set<PluginWatchDirectory> pluginsDirectories,
+                  List<BiConsumer<Collection<PluginNameAndModuleLayer>, Collection<PluginNameAndModuleLayer>>> layerChangeListeners) {
+        this.layerChangeListeners.addAll(layerChangeListeners);
+        this.layerRegistry.add(new PluginNameAndModuleLayer(BOOT_LAYER, ModuleLayer.boot()));
         this.pluginsDirectories = Collections.unmodifiableSet(pluginsDirectories);
+        // the default catalog is per application, as it records the loader jar and retains only the plugins found
+        String applicationKey = PluginCatalog.applicationKey(Path.of(System.getProperty("user.dir")),
+                pluginsDirectories.stream().map(PluginWatchDirectory::directory).toList());
+        this.pluginCatalog = PluginCatalog.load(Path.of(System.getProperty(PluggableService.CATALOG_KEY,
+                Path.of(System.getProperty("java.io.tmpdir"), TINKAR_PLUGINS_TEMP_DIR, PLUGIN_CATALOGS_DIR,
+                        applicationKey, PLUGIN_CATALOG_FILE).toString())));
+
+        this.pluginWorkingStore = PluginWorkingStore.open(
+                Path.of(System.getProperty(PluggableService.WORKING_STORE_KEY,
+                        Path.of(System.getProperty("java.io.tmpdir"), TINKAR_PLUGINS_TEMP_DIR, PLUGIN_WORKING_STORE_DIR).toString())),
+                Long.getLong(PluggableService.WORKING_STORE_MAX_UNUSED_BYTES_KEY, PluginWorkingStore.DEFAULT_MAX_UNUSED_BYTES));
+        this.pluginsWorkingDir = pluginWorkingStore.layersDirectory();
+        this.pluginBundleExtractor = new PluginBundleExtractor(pluginWorkingStore);
+
+        this.pluginRepositorySync = Optional.ofNullable(System.getProperty(PluggableService.REPOSITORY_KEY))
+                .flatMap(repository -> pluginsDirectories.stream()
+                        .min(Comparator.comparing(PluginWatchDirectory::name))
+                        .map(pluginDirectory -> new PluginRepositorySync(PluginSource.of(repository),
+                                pluginDirectory.directory())));
+        pluginRepositorySync.ifPresent(repositorySync -> {
+            try {
+                repositorySync.sync();
+            } catch (IOException | UncheckedIOException e) {
+                LOG.warn("Unable to sync the plugin repository, starting with the local plugins", e);
+            }
+        });
 
         try {
-            this.pluginsWorkingDir = Files.createTempDirectory(TINKAR_PLUGINS_TEMP_DIR);
+            List<Path> sharedLibraries = new ArrayList<>();
+            this.pluginParentLayerAsList = createSharedLibraryLayer(sharedLibraries)
+                    .map(sharedLibraryLayer -> {
+                        layerRegistry.add(new PluginNameAndModuleLayer(SHARED_LIBRARY_LAYER, sharedLibraryLayer));
+                        return List.of(sharedLibraryLayer);
+                    })
+                    .orElse(List.of(ModuleLayer.boot()));
 
-            if (!pluginsDirectories.isEmpty()) {
-                Deployer deployer = new Deployer(pluginsDirectories);
-                for (PluginWatchDirectory pluginWatchDirectory: pluginsDirectories) {
-                    List<PluginNameAndModuleLayer> newPluginModuleLayers = handlePluginComponent(pluginWatchDirectory);
-                    newPluginModuleLayers.forEach(pluginNameAndModuleLayer -> deployer.deploy(pluginNameAndModuleLayer));
-                }
+            this.deployer = pluginsDirectories.isEmpty() ? Optional.empty() :
+                    Optional.of(new Deployer(pluginsDirectories));
+            List<PluginArtifact> pluginArtifacts = new ArrayList<>();
+            for (PluginWatchDirectory pluginWatchDirectory: pluginsDirectories.stream()
+                    .sorted(Comparator.comparing(PluginWatchDirectory::name)).toList()) {
+                pluginArtifacts.addAll(findPluginArtifacts(pluginWatchDirectory));
+            }
+            List<PluginNameAndModuleLayer> newPluginModuleLayers = createPluginLayers(pluginArtifacts);
+            pluginCatalog.retainAll(Stream.concat(sharedLibraries.stream(),
+                    pluginArtifacts.stream().map(PluginArtifact::artifact)).toList());
+
+            // the loader must see the plugin layers found at startup
+            String artifactKey = PluggableService.pluggableServiceLoaderArtifactKey();
+            boolean searchLoaderJar = System.getProperty(PluggableService.PATH_KEY) == null;
+            if (searchLoaderJar) {
+                pluginCatalog.pluggableServiceLoaderJar(artifactKey)
+                        .ifPresent(jar -> System.setProperty(PluggableService.PATH_KEY, jar.toString()));
+            }
+            this.pluginServiceLoaderLayer = PluggableService.deployPluginServiceLoader(layerRegistry.snapshot().moduleLayers());
+            if (searchLoaderJar) {
+                pluginCatalog.setPluggableServiceLoaderJar(Path.of(System.getProperty(PluggableService.PATH_KEY)), artifactKey);
+            }
+            pluginCatalog.save();
+            deployer.ifPresent(pluginDeployer -> {
+                pluginDeployer.deploy(newPluginModuleLayers);
+                pluginDeployer.start();
+            });
+            long syncIntervalMillis = Long.getLong(PluggableService.REPOSITORY_SYNC_INTERVAL_KEY,
+                    PluginRepositorySync.DEFAULT_SYNC_INTERVAL.toMillis());
+            if (syncIntervalMillis > 0) {
+                pluginRepositorySync.ifPresent(repositorySync -> repositorySync.start(Duration.ofMillis(syncIntervalMillis)));
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -93,41 +266,375 @@ public class Layers {
     }
 
     /**
-     * Handles the plugin component by creating module layer for each plugin artifact found in the directory.
+     * Resolves the jars in the shared library subdirectories of the plugin directories into a single layer, on
+     * top of the boot layer. The shared library layer is the parent of all plugin layers, so libraries common to
+     * several plugins are loaded once, by one class loader, instead of once per plugin. Shared libraries are only
+     * read at startup.
+     *
+     * @param sharedLibraries receives the shared library jars found
+     * @return the shared library layer, or an empty optional if there are no shared libraries
+     * @throws IOException if an I/O error occurs while listing a shared library directory
+     */
+    private Optional<ModuleLayer> createSharedLibraryLayer(List<Path> sharedLibraries) throws IOException {
+        Path sharedLibraryDir = pluginsWorkingDir.resolve(SHARED_LIBRARY_LAYER);
+        Set<String> roots = new HashSet<>();
+        for (PluginWatchDirectory pluginWatchDirectory : pluginsDirectories.stream()
+                .sorted(Comparator.comparing(PluginWatchDirectory::name)).toList()) {
+            Path sharedDir = pluginWatchDirectory.directory().resolve(SHARED_LIBRARY_DIR);
+            if (!Files.isDirectory(sharedDir)) {
+                continue;
+            }
+            List<Path> jars;
+            try (Stream<Path> paths = Files.list(sharedDir)) {
+                jars = paths.filter(path -> path.getFileName().toString().endsWith(".jar"))
+                        .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                        .toList();
+            }
+            for (Path jar : jars) {
+                Path stagedJar = sharedLibraryDir.resolve(jar.getFileName().toString());
+                if (Files.exists(stagedJar)) {
+                    LOG.warn("Ignoring shared library with the same file name as another shared library: " + jar);
+                    continue;
+                }
+                Optional<PluginCatalog.CatalogEntry> catalogEntry = pluginCatalog.validate(jar);
+                String sha256 = pluginWorkingStore.stage(jar, catalogEntry.map(PluginCatalog.CatalogEntry::sha256),
+                        sharedLibraryDir);
+                roots.addAll(catalogEntry
+                        .orElseGet(() -> pluginCatalog.record(jar, sha256, List.of(stagedJar)))
+                        .moduleNames());
+                sharedLibraries.add(jar);
+            }
+        }
+        if (sharedLibraries.isEmpty()) {
+            return Optional.empty();
+        }
+        LOG.info("Shared library layer with modules: " + roots);
+        return Optional.of(createModuleLayer(SHARED_LIBRARY_LAYER, List.of(ModuleLayer.boot()),
+                List.of(sharedLibraryDir), roots));
+    }
+
+    /**
+     * A plugin artifact found in a plugin directory, with the name and working directory of its layer.
+     */
+    private record PluginArtifact(String pluginName, Path artifact, Path pluginDir) {
+    }
+
+    /**
+     * Finds the plugin artifacts in a plugin directory, in file name order. The working directory of each
+     * artifact is assigned here, on the calling thread, so that layer creation may run concurrently.
      *
-     * @param plugin the plugin object representing the plugin component
-     * @return a map of plugin names and associated module layers
-     * @throws IOException if an I/O error occurs while handling the plugin component
+     * @param plugin the plugin directory
+     * @return the plugin artifacts found in the directory
+     * @throws IOException if an I/O error occurs while listing the directory
      */
-    private List<PluginNameAndModuleLayer> handlePluginComponent(PluginWatchDirectory plugin) throws IOException {
-        List<PluginNameAndModuleLayer> newPluginModuleLayers = new ArrayList<>();
+    private List<PluginArtifact> findPluginArtifacts(PluginWatchDirectory plugin) throws IOException {
+        List<PluginArtifact> pluginArtifacts = new ArrayList<>();
 
         // Expect .jar, .zip, .tar, .tar.gz as direct children
-        Files.list(plugin.directory())
-                .forEach(path -> {
-                    Matcher matcher = PLUGIN_ARTIFACT_PATTERN.matcher(path.getFileName().toString());
-                    if (!matcher.matches()) {
-                        return;
-                    }
+        try (Stream<Path> paths = Files.list(plugin.directory())) {
+            paths.sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                    .forEach(path -> pluginLayerName(plugin, path).ifPresent(pluginName -> {
+                        Path pluginDir = pluginsWorkingDir.resolve(pluginIndex.getAndIncrement() + "-" + pluginName);
+                        pluginArtifacts.add(new PluginArtifact(pluginName, path, pluginDir));
+                    }));
+        }
+        return pluginArtifacts;
+    }
 
-                    String pluginArtifactId = matcher.group(1);
-                    String pluginVersion = matcher.group(2);
-                    String derivedFrom = plugin.directory().getFileName().toString();
-                    String pluginName = String.join("-", derivedFrom, pluginArtifactId, pluginVersion);
+    /**
+     * Unpacks a plugin artifact and creates its module layer. The root modules of the layer are taken from the
+     * plugin catalog if the artifact is unchanged; otherwise the artifact is scanned and recorded in the catalog.
+     *
+     * @param pluginArtifact the plugin artifact
+     * @return the name and module layer of the plugin
+     */
+    private PluginNameAndModuleLayer createPluginLayer(PluginArtifact pluginArtifact) {
+        return definePluginLayer(preparePluginLayer(pluginArtifact));
+    }
 
-                    Path pluginDir = pluginsWorkingDir.resolve(pluginIndex++ + "-" + pluginName);
-                    List<Path> modulePathEntries = unpackPluginArtifact(path, pluginDir);
+    /**
+     * A plugin artifact that has been unpacked or mapped, with the module descriptors it was read for.
+     *
+     * @param pluginArtifact   the plugin artifact
+     * @param moduleFinder     the module finder of the modules of the artifact
+     * @param mapped           whether the artifact is mapped, rather than unpacked to its working directory
+     * @param roots            the names of the modules of the artifact
+     * @param providedServices the names of the services provided by the modules of the artifact
+     */
+    private record PreparedPluginLayer(PluginArtifact pluginArtifact, ModuleFinder moduleFinder, boolean mapped,
+                                       Set<String> roots, Set<String> providedServices) {
+    }
 
-                    ModuleLayer moduleLayer = createModuleLayer(pluginParentLayerAsList, modulePathEntries);
+    /**
+     * Unpacks or maps a plugin artifact and reads its module descriptors, from the plugin catalog if the artifact
+     * is unchanged; otherwise the artifact is scanned and recorded in the catalog.
+     *
+     * @param pluginArtifact the plugin artifact
+     * @return the prepared plugin layer
+     */
+    private PreparedPluginLayer preparePluginLayer(PluginArtifact pluginArtifact) {
+        Optional<PluginCatalog.CatalogEntry> catalogEntry = pluginCatalog.validate(pluginArtifact.artifact());
+        boolean mapArtifact = mapped && MappedModuleFinder.supports(pluginArtifact.artifact().getFileName().toString());
+        PluginEvents.UnpackEvent unpackEvent = new PluginEvents.UnpackEvent();
+        unpackEvent.begin();
+        String sha256;
+        ModuleFinder moduleFinder;
+        try {
+            if (mapArtifact) {
+                moduleFinder = MappedModuleFinder.open(pluginArtifact.artifact());
+                sha256 = catalogEntry.isPresent() ? catalogEntry.get().sha256() :
+                        PluginCatalog.sha256(pluginArtifact.artifact());
+            } else {
+                sha256 = unpackPluginArtifact(pluginArtifact.artifact(),
+                        catalogEntry.map(PluginCatalog.CatalogEntry::sha256), pluginArtifact.pluginDir());
+                moduleFinder = ModuleFinder.of(pluginArtifact.pluginDir());
+            }
+            unpackEvent.outcome = PluginEvents.SUCCESS;
+        } catch (IOException e) {
+            unpackEvent.outcome = PluginEvents.failure(e);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException | Error e) {
+            unpackEvent.outcome = PluginEvents.failure(e);
+            throw e;
+        } finally {
+            unpackEvent.end();
+            if (unpackEvent.shouldCommit()) {
+                unpackEvent.pluginLayerName = pluginArtifact.pluginName();
+                unpackEvent.artifact = pluginArtifact.artifact().toString();
+                unpackEvent.artifactSize = pluginArtifact.artifact().toFile().length();
+                unpackEvent.commit();
+            }
+        }
+        PluginCatalog.CatalogEntry entry = catalogEntry.orElseGet(() ->
+                pluginCatalog.record(pluginArtifact.artifact(), sha256, moduleFinder));
+        return new PreparedPluginLayer(pluginArtifact, moduleFinder, mapArtifact, entry.moduleNames(),
+                entry.providedServices());
+    }
 
-                    PluginNameAndModuleLayer pluginNameAndModuleLayer = new PluginNameAndModuleLayer(pluginName, moduleLayer);
-                    moduleLayers.add(pluginNameAndModuleLayer);
-                    newPluginModuleLayers.add(pluginNameAndModuleLayer);
-                });
+    /**
+     * Resolves and defines the module layer of a prepared plugin, and warms it up if warm-up is enabled, before
+     * the caller publishes it.
+     *
+     * @param preparedPluginLayer the prepared plugin layer
+     * @return the name and module layer of the plugin
+     */
+    private PluginNameAndModuleLayer definePluginLayer(PreparedPluginLayer preparedPluginLayer) {
+        PluginArtifact pluginArtifact = preparedPluginLayer.pluginArtifact();
+        ModuleLayer moduleLayer = createModuleLayer(pluginArtifact.pluginName(), pluginParentLayerAsList,
+                preparedPluginLayer.moduleFinder(), preparedPluginLayer.roots(),
+                classLoaderStrategy(pluginArtifact.artifact()));
+        if (!preparedPluginLayer.mapped()) {
+            pluginWorkingDirs.put(moduleLayer, pluginArtifact.pluginDir());
+        }
+        pluginArtifactPaths.put(moduleLayer, pluginArtifact.artifact());
+        PluginNameAndModuleLayer pluginNameAndModuleLayer =
+                new PluginNameAndModuleLayer(pluginArtifact.pluginName(), moduleLayer);
+        pluginWarmer.ifPresent(warmer -> warmer.warmUp(pluginNameAndModuleLayer));
+        return pluginNameAndModuleLayer;
+    }
+
+    /**
+     * Defines the pending plugin layers providing a service, in lazy mode. Returns once the layers are
+     * registered and visible to the PluggableServiceLoader; without pending layers for the service, it returns
+     * immediately.
+     *
+     * @param serviceName the name of the requested service
+     */
+    public void definePluginLayersProviding(String serviceName) {
+        if (!pendingPluginLayersByService.containsKey(serviceName)) {
+            return;
+        }
+        layerTransitionLock.lock();
+        try {
+            List<PreparedPluginLayer> providingLayers = pendingPluginLayersByService.getOrDefault(serviceName, List.of());
+            if (providingLayers.isEmpty()) {
+                // defined by a concurrent lookup
+                return;
+            }
+            LOG.info("Defining " + providingLayers.size() + " deferred plugin layers providing " + serviceName);
+            List<PreparedPluginLayer> definedPendingLayers = new ArrayList<>();
+            List<PluginNameAndModuleLayer> definedLayers = new ArrayList<>();
+            for (PreparedPluginLayer providingLayer : providingLayers) {
+                try {
+                    definedLayers.add(definePluginLayer(providingLayer));
+                    definedPendingLayers.add(providingLayer);
+                } catch (RuntimeException e) {
+                    LOG.error("Unable to define deferred plugin layer: " + providingLayer.pluginArtifact().pluginName(), e);
+                    removePendingPluginLayer(providingLayer.pluginArtifact().pluginName())
+                            .ifPresent(this::releasePendingPluginLayer);
+                }
+            }
+            layerRegistry.apply(List.of(), definedLayers);
+            pluginServiceLoaderLayer = PluggableService.deployPluginServiceLoader(layerRegistry.snapshot().moduleLayers());
+            layersChanged(definedLayers, List.of());
+            // only drop them from the pending layers once they are visible to lookups
+            definedPendingLayers.forEach(pending -> removePendingPluginLayer(pending.pluginArtifact().pluginName()));
+            deployer.ifPresent(pluginDeployer -> pluginDeployer.deploy(definedLayers));
+        } finally {
+            layerTransitionLock.unlock();
+        }
+    }
+
+    private void addPendingPluginLayer(PreparedPluginLayer preparedPluginLayer) {
+        synchronized (pendingPluginLayers) {
+            pendingPluginLayers.put(preparedPluginLayer.pluginArtifact().pluginName(), preparedPluginLayer);
+            for (String service : preparedPluginLayer.providedServices()) {
+                pendingPluginLayersByService.merge(service, List.of(preparedPluginLayer),
+                        (current, added) -> Stream.concat(current.stream(), added.stream()).toList());
+            }
+        }
+    }
+
+    /**
+     * Removes a pending plugin layer, from the pending layers and from the index by service.
+     *
+     * @param pluginLayerName the name of the plugin layer
+     * @return the removed pending layer, or an empty optional if there was no pending layer with that name
+     */
+    private Optional<PreparedPluginLayer> removePendingPluginLayer(String pluginLayerName) {
+        synchronized (pendingPluginLayers) {
+            PreparedPluginLayer removed = pendingPluginLayers.remove(pluginLayerName);
+            if (removed != null) {
+                for (String service : removed.providedServices()) {
+                    pendingPluginLayersByService.computeIfPresent(service, (key, current) -> {
+                        List<PreparedPluginLayer> remaining = current.stream()
+                                .filter(pending -> pending != removed)
+                                .toList();
+                        return remaining.isEmpty() ? null : remaining;
+                    });
+                }
+            }
+            return Optional.ofNullable(removed);
+        }
+    }
 
+    /**
+     * Releases the working directory of a pending plugin layer that will not be defined.
+     *
+     * @param preparedPluginLayer the dropped pending plugin layer
+     */
+    private void releasePendingPluginLayer(PreparedPluginLayer preparedPluginLayer) {
+        if (!preparedPluginLayer.mapped()) {
+            pluginWorkingStore.release(preparedPluginLayer.pluginArtifact().pluginDir());
+        }
+    }
+
+    /**
+     * Creates the layers of the plugin artifacts found at startup, and registers them in the order of the
+     * artifacts. With parallel startup, unpacking and module resolution of the artifacts run concurrently on
+     * virtual threads. In lazy mode, the artifacts are only unpacked and their module descriptors read; their
+     * layers are defined once a service they provide is requested. An artifact whose layer name is already taken,
+     * by a registered layer or an earlier artifact, is skipped before anything is staged for it.
+     *
+     * @param pluginArtifacts the plugin artifacts, in registration order
+     * @return the registered plugin layers
+     */
+    private List<PluginNameAndModuleLayer> createPluginLayers(List<PluginArtifact> pluginArtifacts) {
+        LayerRegistry.Snapshot snapshot = layerRegistry.snapshot();
+        Set<String> newPluginLayerNames = new HashSet<>();
+        List<PluginArtifact> newPluginArtifacts = new ArrayList<>();
+        for (PluginArtifact pluginArtifact : pluginArtifacts) {
+            if (snapshot.find(pluginArtifact.pluginName()).isEmpty() &&
+                    newPluginLayerNames.add(pluginArtifact.pluginName())) {
+                newPluginArtifacts.add(pluginArtifact);
+            } else {
+                LOG.warn("Ignoring plugin artifact for a layer that already exists: " + pluginArtifact.artifact());
+            }
+        }
+        if (lazy) {
+            forEachPluginArtifact(newPluginArtifacts, this::preparePluginLayer).forEach(this::addPendingPluginLayer);
+            LOG.info("Deferred " + pendingPluginLayers.size() + " plugin layers until a service they provide is requested");
+            return List.of();
+        }
+        List<PluginNameAndModuleLayer> newPluginModuleLayers =
+                forEachPluginArtifact(newPluginArtifacts, this::createPluginLayer);
+        // one published change for all of them, rather than a snapshot per layer
+        layerRegistry.apply(List.of(), newPluginModuleLayers);
         return newPluginModuleLayers;
     }
 
+    /**
+     * Applies a function to the plugin artifacts found at startup, concurrently on virtual threads unless
+     * parallel startup is disabled.
+     *
+     * @param pluginArtifacts the plugin artifacts
+     * @param function        the function to apply
+     * @param <T>             the type of the results
+     * @return the results, in the order of the artifacts
+     */
+    private <T> List<T> forEachPluginArtifact(List<PluginArtifact> pluginArtifacts, Function<PluginArtifact, T> function) {
+        List<T> results = new ArrayList<>();
+        if (Boolean.parseBoolean(System.getProperty(PluggableService.PARALLEL_STARTUP_KEY, "true"))) {
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<T>> futures = pluginArtifacts.stream()
+                        .map(pluginArtifact -> executor.submit(() -> function.apply(pluginArtifact)))
+                        .toList();
+                for (Future<T> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        } else {
+            pluginArtifacts.forEach(pluginArtifact -> results.add(function.apply(pluginArtifact)));
+        }
+        return results;
+    }
+
+    /**
+     * Derives the name of the plugin layer for a plugin artifact. The name is used as key of the layer,
+     * so it must be derived the same way at startup and on directory change events.
+     *
+     * @param pluginDirectory the plugin directory containing the artifact
+     * @param pluginArtifact  the path of the plugin artifact
+     * @return the plugin layer name, or an empty optional if the file is not a plugin artifact
+     */
+    private static Optional<String> pluginLayerName(PluginWatchDirectory pluginDirectory, Path pluginArtifact) {
+        Matcher matcher = PLUGIN_ARTIFACT_PATTERN.matcher(pluginArtifact.getFileName().toString());
+        if (!matcher.matches()) {
+            return Optional.empty();
+        }
+        String pluginArtifactId = matcher.group(1);
+        String pluginVersion = matcher.group(2);
+        return Optional.of(String.join("-", pluginDirectory.name(), pluginArtifactId, pluginVersion));
+    }
+
+    /**
+     * Returns the class loader strategy of a plugin: the strategy set for its artifact id by
+     * {@link PluggableService#CLASS_LOADER_STRATEGY_KEY} followed by "." and the artifact id, otherwise the
+     * strategy set by {@link PluggableService#CLASS_LOADER_STRATEGY_KEY}, otherwise {@link ClassLoaderStrategy#ONE}.
+     *
+     * @param pluginArtifact the path of the plugin artifact
+     * @return the class loader strategy of the plugin
+     */
+    private static ClassLoaderStrategy classLoaderStrategy(Path pluginArtifact) {
+        String strategy = System.getProperty(PluggableService.CLASS_LOADER_STRATEGY_KEY,
+                ClassLoaderStrategy.ONE.name());
+        Matcher matcher = PLUGIN_ARTIFACT_PATTERN.matcher(pluginArtifact.getFileName().toString());
+        if (matcher.matches()) {
+            strategy = System.getProperty(PluggableService.CLASS_LOADER_STRATEGY_KEY + "." + matcher.group(1),
+                    strategy);
+        }
+        return ClassLoaderStrategy.valueOf(strategy.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Identifies a plugin independent of its version, by the artifact id of the plugin artifact in its directory.
+     *
+     * @param pluginArtifact the path of the plugin artifact
+     * @return the artifact id resolved against the directory of the artifact
+     */
+    private static Path pluginArtifactId(Path pluginArtifact) {
+        Matcher matcher = PLUGIN_ARTIFACT_PATTERN.matcher(pluginArtifact.getFileName().toString());
+        return matcher.matches() ? pluginArtifact.resolveSibling(matcher.group(1)) : pluginArtifact;
+    }
+
     /**
      * Creates a module layer with the given parent layers and module path entries.
      *
@@ -136,89 +643,425 @@ public class Layers {
      * @return the created module layer
      */
     public static ModuleLayer createModuleLayer(List<ModuleLayer> parentLayers, List<Path> modulePathEntries) {
-        ClassLoader scl = ClassLoader.getSystemClassLoader();
-
-        ModuleFinder finder = ModuleFinder.of(modulePathEntries.toArray(Path[]::new));
-
-        Set<String> roots = finder.findAll()
+        Set<String> roots = ModuleFinder.of(modulePathEntries.toArray(Path[]::new)).findAll()
                 .stream()
                 .map(m -> m.descriptor().name())
                 .collect(Collectors.toSet());
 
-        Configuration appConfig = Configuration.resolve(
-                finder,
+        return createModuleLayer(parentLayers, modulePathEntries, roots);
+    }
+
+    /**
+     * Creates a module layer with the given parent layers, module path entries and root modules. Only the
+     * descriptors of the root modules and the modules they require are read from the module path entries.
+     *
+     * @param parentLayers      the list of parent module layers
+     * @param modulePathEntries the list of module path entries
+     * @param roots             the names of the root modules
+     * @return the created module layer
+     */
+    public static ModuleLayer createModuleLayer(List<ModuleLayer> parentLayers, List<Path> modulePathEntries,
+                                                Set<String> roots) {
+        String layerName = modulePathEntries.stream()
+                .map(path -> String.valueOf(path.getFileName()))
+                .collect(Collectors.joining(", "));
+        return createModuleLayer(layerName, parentLayers, modulePathEntries, roots);
+    }
+
+    /**
+     * Creates a module layer with the given parent layers, module path entries and root modules, naming the layer
+     * in the resolution and definition events it records.
+     *
+     * @param layerName         the name of the layer
+     * @param parentLayers      the list of parent module layers
+     * @param modulePathEntries the list of module path entries
+     * @param roots             the names of the root modules
+     * @return the created module layer
+     */
+    public static ModuleLayer createModuleLayer(String layerName, List<ModuleLayer> parentLayers,
+                                                List<Path> modulePathEntries, Set<String> roots) {
+        return createModuleLayer(layerName, parentLayers, ModuleFinder.of(modulePathEntries.toArray(Path[]::new)),
+                roots);
+    }
+
+    /**
+     * Creates a module layer with the given parent layers and root modules, finding the modules with the given
+     * module finder, and naming the layer in the resolution and definition events it records.
+     *
+     * @param layerName    the name of the layer
+     * @param parentLayers the list of parent module layers
+     * @param finder       the module finder of the modules of the layer
+     * @param roots        the names of the root modules
+     * @return the created module layer
+     */
+    public static ModuleLayer createModuleLayer(String layerName, List<ModuleLayer> parentLayers,
+                                                ModuleFinder finder, Set<String> roots) {
+        return createModuleLayer(layerName, parentLayers, finder, roots, ClassLoaderStrategy.ONE);
+    }
+
+    /**
+     * Creates a module layer with the given parent layers and root modules, finding the modules with the given
+     * module finder, and defining them to class loaders with the given strategy.
+     *
+     * @param layerName           the name of the layer
+     * @param parentLayers        the list of parent module layers
+     * @param finder              the module finder of the modules of the layer
+     * @param roots               the names of the root modules
+     * @param classLoaderStrategy whether the modules share one class loader, or each have their own
+     * @return the created module layer
+     */
+    public static ModuleLayer createModuleLayer(String layerName, List<ModuleLayer> parentLayers,
+                                                ModuleFinder finder, Set<String> roots,
+                                                ClassLoaderStrategy classLoaderStrategy) {
+        ClassLoader scl = ClassLoader.getSystemClassLoader();
+
+        PluginEvents.ResolutionEvent resolutionEvent = new PluginEvents.ResolutionEvent();
+        resolutionEvent.begin();
+        Configuration appConfig;
+        try {
+            appConfig = Configuration.resolve(
+                    finder,
+                    parentLayers.stream().map(ModuleLayer::configuration).collect(Collectors.toList()),
+                    ModuleFinder.of(),
+                    roots);
+            resolutionEvent.moduleCount = appConfig.modules().size();
+            resolutionEvent.outcome = PluginEvents.SUCCESS;
+        } catch (RuntimeException | Error e) {
+            resolutionEvent.outcome = PluginEvents.failure(e);
+            throw e;
+        } finally {
+            resolutionEvent.layerName = layerName;
+            resolutionEvent.commit();
+        }
+
+        PluginEvents.LayerDefinitionEvent definitionEvent = new PluginEvents.LayerDefinitionEvent();
+        definitionEvent.begin();
+        try {
+            ModuleLayer layer = switch (classLoaderStrategy) {
+                case ONE -> ModuleLayer.defineModulesWithOneLoader(appConfig, parentLayers, scl).layer();
+                case MANY -> ModuleLayer.defineModulesWithManyLoaders(appConfig, parentLayers, scl).layer();
+            };
+            definitionEvent.outcome = PluginEvents.SUCCESS;
+            return layer;
+        } catch (RuntimeException | Error e) {
+            definitionEvent.outcome = PluginEvents.failure(e);
+            throw e;
+        } finally {
+            definitionEvent.layerName = layerName;
+            definitionEvent.moduleCount = appConfig.modules().size();
+            definitionEvent.classLoaderStrategy = classLoaderStrategy.name();
+            definitionEvent.commit();
+        }
+    }
+
+    /**
+     * Creates an empty module layer on top of the given parent layers. Loading services from it finds the
+     * services of all parent layers, without resolving any module.
+     *
+     * @param parentLayers the list of parent module layers
+     * @return the created module layer
+     */
+    public static ModuleLayer createServiceLayer(List<ModuleLayer> parentLayers) {
+        Configuration serviceConfig = Configuration.resolve(
+                ModuleFinder.of(),
                 parentLayers.stream().map(ModuleLayer::configuration).collect(Collectors.toList()),
                 ModuleFinder.of(),
-                roots);
+                Set.of());
 
-        return ModuleLayer.defineModulesWithOneLoader(appConfig, parentLayers, scl).layer();
+        return ModuleLayer.defineModules(serviceConfig, parentLayers, moduleName -> null).layer();
     }
 
     /**
-     * Unpacks a plugin artifact to the target directory.
+     * Unpacks a plugin artifact to the target directory, through the working store. A plugin jar is staged as is;
+     * the jars of a plugin bundle are extracted, so that the plugin and its dependencies resolve into one layer.
      *
      * @param pluginArtifact the path of the plugin artifact to unpack
+     * @param knownSha256 the hash of the plugin artifact, if known from the plugin catalog
      * @param targetDir the directory to unpack the plugin artifact to
      *
-     * @return a list containing the target directory
+     * @return the hex encoded SHA-256 hash of the plugin artifact
      *
      * @throws UnsupportedOperationException if the plugin artifact has an unsupported file extension
      */
-    private List<Path> unpackPluginArtifact(Path pluginArtifact, Path targetDir) {
+    private String unpackPluginArtifact(Path pluginArtifact, Optional<String> knownSha256, Path targetDir) {
         String fileName = pluginArtifact.getFileName().toString();
         if (fileName.endsWith(".jar")) {
-            Path dest = targetDir.resolve(fileName);
+            return pluginWorkingStore.stage(pluginArtifact, knownSha256, targetDir);
+        } else if (PluginBundleExtractor.isBundle(fileName)) {
             try {
-                Files.createDirectories(dest.getParent());
-                Files.copy(pluginArtifact, dest, StandardCopyOption.REPLACE_EXISTING);
+                return pluginBundleExtractor.extract(pluginArtifact, knownSha256, targetDir);
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                throw new UncheckedIOException(e);
             }
-        } else if (fileName.endsWith(".zip") || fileName.endsWith(".tar")) {
-            throw new UnsupportedOperationException("Can't handle .tar");
-        } else if (fileName.endsWith(".tar.gz")) {
-            throw new UnsupportedOperationException("Can't handle .tar.gz");
         }
+        throw new UnsupportedOperationException("Can't handle " + fileName);
+    }
+
+    /**
+     * Deploys a plugin artifact as if it had been created in a plugin directory, and returns once its layer is
+     * registered and visible to the PluggableServiceLoader. The artifact need not be located in the directory; an
+     * artifact outside the plugin directories is left deployed by {@link #rescan()}.
+     *
+     * @param pluginDirectory the plugin directory the artifact is deployed for, which determines the layer name
+     * @param pluginArtifact  the plugin artifact
+     * @return the name of the deployed plugin layer, or an empty optional if its layer could not be created or
+     * a layer with the same name already exists
+     * @throws IllegalArgumentException if the file name is not that of a plugin artifact
+     * @throws IllegalStateException if no plugin directories are configured
+     */
+    public Optional<String> deployPluginArtifact(PluginWatchDirectory pluginDirectory, Path pluginArtifact) {
+        String pluginLayerName = pluginLayerName(pluginDirectory, pluginArtifact).orElseThrow(() ->
+                new IllegalArgumentException("Not a plugin artifact: " + pluginArtifact));
+        LayerRegistry.Snapshot before = layerRegistry.snapshot();
+        requireDeployer().applyChanges(List.of(
+                new PluginChangeBatcher.PluginChange(pluginLayerName, pluginArtifact, PluginChangeBatcher.Kind.CREATE)));
+        return before.find(pluginLayerName).isEmpty() && layerRegistry.find(pluginLayerName).isPresent() ?
+                Optional.of(pluginLayerName) : Optional.empty();
+    }
+
+    /**
+     * Undeploys a registered plugin layer, leaving its artifact in place, and returns once the layer is no longer
+     * visible to the PluggableServiceLoader. As the artifact is still present, a later {@link #rescan()}, or a
+     * change of the artifact, deploys the layer again.
+     *
+     * @param pluginLayerName the name of the plugin layer
+     * @return true if the layer was registered and has been undeployed
+     * @throws IllegalArgumentException if the name is that of the boot layer or the shared library layer
+     * @throws IllegalStateException if no plugin directories are configured
+     */
+    public boolean undeployPluginLayer(String pluginLayerName) {
+        if (BOOT_LAYER.equals(pluginLayerName) || SHARED_LIBRARY_LAYER.equals(pluginLayerName)) {
+            throw new IllegalArgumentException("Only plugin layers can be undeployed: " + pluginLayerName);
+        }
+        return requireDeployer().undeployPluginLayer(pluginLayerName);
+    }
 
-        return List.of(targetDir);
+    /**
+     * Lists the plugin directories, and applies the differences to the registered plugin layers, as if the
+     * watcher had reported them. Layers deployed from artifacts outside the plugin directories are kept. Returns
+     * once the changes are applied.
+     *
+     * @return the number of changes found
+     * @throws IllegalStateException if no plugin directories are configured
+     */
+    public int rescan() {
+        return requireDeployer().rescan();
+    }
+
+    /**
+     * Returns the configured plugin directories.
+     *
+     * @return the plugin directories
+     */
+    public Set<PluginWatchDirectory> pluginsDirectories() {
+        return pluginsDirectories;
+    }
+
+    /**
+     * Returns the registered layers.
+     *
+     * @return the registered layers, in registration order
+     */
+    public Collection<PluginNameAndModuleLayer> registeredLayers() {
+        return layerRegistry.snapshot().layers();
+    }
+
+    /**
+     * Returns the names of the plugin layers found at startup in lazy mode that are not yet defined.
+     *
+     * @return the names of the pending plugin layers
+     */
+    public Set<String> pendingPluginLayerNames() {
+        synchronized (pendingPluginLayers) {
+            return Set.copyOf(pendingPluginLayers.keySet());
+        }
+    }
+
+    /**
+     * Returns the counts and times of the changes of the plugin layers applied since startup.
+     *
+     * @return the deployment statistics
+     */
+    public DeploymentStats deploymentStats() {
+        return deploymentStats;
+    }
+
+    /**
+     * Adds a listener notified of the layers added to and removed from the registry after startup. Listeners are
+     * called on the thread applying the change, after the PluggableServiceLoader has been updated, and must not
+     * block.
+     *
+     * @param layerChangeListener receives the added and the removed layers
+     */
+    public void addLayerChangeListener(
+            BiConsumer<Collection<PluginNameAndModuleLayer>, Collection<PluginNameAndModuleLayer>> layerChangeListener) {
+        layerChangeListeners.add(layerChangeListener);
+    }
+
+    private void layersChanged(Collection<PluginNameAndModuleLayer> added, Collection<PluginNameAndModuleLayer> removed) {
+        deploymentStats.recordLayers(added.size(), removed.size());
+        for (BiConsumer<Collection<PluginNameAndModuleLayer>, Collection<PluginNameAndModuleLayer>> layerChangeListener :
+                layerChangeListeners) {
+            try {
+                layerChangeListener.accept(added, removed);
+            } catch (RuntimeException e) {
+                LOG.warn("Layer change listener failed", e);
+            }
+        }
+    }
+
+    private Deployer requireDeployer() {
+        return deployer.orElseThrow(() -> new IllegalStateException("No plugin directories are configured"));
+    }
+
+    /**
+     * Returns the registered layers with a module declaring a provider of the given service, defining deferred
+     * plugin layers providing it first.
+     *
+     * @param serviceName the name of the service
+     * @return the module layers providing the service, in registration order
+     */
+    public List<ModuleLayer> layersProviding(String serviceName) {
+        definePluginLayersProviding(serviceName);
+        return layerRegistry.snapshot().providing(serviceName).stream()
+                .map(PluginNameAndModuleLayer::moduleLayer)
+                .toList();
+    }
+
+    /**
+     * Returns the name a module layer is registered under.
+     *
+     * @param moduleLayer the module layer
+     * @return the name of the layer, or empty if the layer is not registered
+     */
+    public Optional<String> pluginLayerName(ModuleLayer moduleLayer) {
+        return layerRegistry.snapshot().find(moduleLayer).map(PluginNameAndModuleLayer::name);
+    }
+
+    /**
+     * Returns the number of providers of a service declared by the modules of the registered layers, without
+     * defining deferred plugin layers.
+     *
+     * @param serviceName the name of the service
+     * @return the number of declared providers
+     */
+    public int declaredProviderCount(String serviceName) {
+        return layerRegistry.snapshot().providing(serviceName).stream()
+                .flatMap(pluginNameAndModuleLayer -> pluginNameAndModuleLayer.moduleLayer().modules().stream())
+                .flatMap(module -> module.getDescriptor().provides().stream())
+                .filter(provides -> provides.service().equals(serviceName))
+                .mapToInt(provides -> provides.providers().size())
+                .sum();
+    }
+
+    /**
+     * Returns the removed plugin layers that have not been garbage collected within the leak grace period.
+     *
+     * @return the pinned plugin layers, oldest first
+     */
+    public List<PinnedPluginLayer> pinnedPluginLayers() {
+        return removedLayerTracker.pinnedLayers();
+    }
+
+    /**
+     * Tracks a removed plugin layer, and releases its working directory, if it has one, once the layer has been
+     * garbage collected.
+     *
+     * @param removedLayer the removed plugin layer
+     */
+    private void releaseWhenCollected(PluginNameAndModuleLayer removedLayer) {
+        pluginArtifactPaths.remove(removedLayer.moduleLayer());
+        Path pluginWorkingDir = pluginWorkingDirs.remove(removedLayer.moduleLayer());
+        removedLayerTracker.track(removedLayer.name(), removedLayer.moduleLayer(), () -> {
+            // a mapped layer has no working directory, its mapping is released with the layer
+            if (pluginWorkingDir != null) {
+                pluginWorkingStore.release(pluginWorkingDir);
+            }
+        });
     }
 
     /**
      * The Deployer class is responsible for managing the deployment of plugins by monitoring changes in a directory and
-     * creating or removing plugin module layers accordingly.
+     * creating or removing plugin module layers accordingly. Directory changes are coalesced into batches, and each
+     * batch is applied as a single change of the plugin layers.
      */
     private class Deployer {
 
-        private final PluginLifecycleSupport pluginLifecycleSupport = new PluginLifecycleSupport();
+        private final PluginLifecycleSupport pluginLifecycleSupport = new PluginLifecycleSupport(
+                Duration.ofMillis(Long.getLong(PluggableService.LISTENER_TIMEOUT_KEY,
+                        PluginLifecycleSupport.DEFAULT_LISTENER_TIMEOUT.toMillis())),
+                Integer.getInteger(PluggableService.LISTENER_QUEUE_CAPACITY_KEY,
+                        PluginLifecycleSupport.DEFAULT_LISTENER_QUEUE_CAPACITY));
+        private final PluginChangeBatcher pluginChangeBatcher = new PluginChangeBatcher(Duration.ofMillis(
+                Long.getLong(PluggableService.QUIET_PERIOD_KEY, PluginChangeBatcher.DEFAULT_QUIET_PERIOD.toMillis())));
+        private final ExecutorService executor;
+        /**
+         * The watched plugin directories, by their absolute normalized path.
+         */
+        private final Map<Path, PluginWatchDirectory> pluginDirectoriesByRoot = new HashMap<>();
+        /**
+         * Serializes the batches of directory changes with explicit deployments.
+         */
+        private final ReentrantLock changeLock = new ReentrantLock();
 
         /**
-         * Deploys plugins from the given set of plugin directories.
+         * Deploys plugins from the given set of plugin directories. All directories are watched by a single
+         * watcher, with the strategy set by {@link PluggableService#WATCH_STRATEGY_KEY}. Changes are watched from
+         * construction on, but only applied once {@link #start()} has been called.
          *
          * @param pluginsDirectories the set of plugin directories
          */
         public Deployer(Set<PluginWatchDirectory> pluginsDirectories) {
+            pluginLifecycleSupport.register(ModuleLayer.boot());
+            for (PluginWatchDirectory pluginDirectory : pluginsDirectories) {
+                pluginDirectoriesByRoot.put(pluginDirectory.directory().toAbsolutePath().normalize(), pluginDirectory);
+            }
+            List<Path> rootPaths = List.copyOf(pluginDirectoriesByRoot.keySet());
+            DirectoryChangeListener listener = this::onDirectoryChange;
+            WatchStrategy watchStrategy = WatchStrategy.valueOf(System.getProperty(PluggableService.WATCH_STRATEGY_KEY,
+                    WatchStrategy.NATIVE.name()).toUpperCase(Locale.ROOT));
+            LOG.info("Watching plugin directories " + rootPaths + " with strategy " + watchStrategy);
 
-            ExecutorService executor = Executors.newFixedThreadPool(pluginsDirectories.size(),
+            // one thread watching the directories, and one applying the batches of changes
+            this.executor = Executors.newFixedThreadPool(2,
                     runnable -> Thread.ofVirtual().name("Plugin directory watcher thread").unstarted(runnable));
 
-            for (PluginWatchDirectory pluginDirectory : pluginsDirectories) {
-                executor.execute(() -> {
-                    try {
+            Optional<DirectoryWatcher> directoryWatcher = Optional.empty();
+            try {
+                switch (watchStrategy) {
+                    case NATIVE, HASH -> {
                         DirectoryWatcher watcher = DirectoryWatcher.builder()
-                                .path(pluginDirectory.directory())
-                                .listener(event -> onDirectoryChange(event, pluginDirectory))
+                                .paths(rootPaths)
+                                .fileHashing(watchStrategy == WatchStrategy.HASH)
+                                .listener(listener)
                                 .build();
-
-                        watcher.watch();
-                    } catch (IOException e) {
-                        LOG.error(e.getMessage(), e);
-                        // TODO: handle exception as it will be lost inside the Executor IIRC
-                        throw new RuntimeException(e);
+                        directoryWatcher = Optional.of(watcher);
+                        executor.execute(watcher::watch);
                     }
-                });
+                    case POLL -> {
+                        PluginDirectoryPoller poller = new PluginDirectoryPoller(rootPaths, listener, Duration.ofMillis(
+                                Long.getLong(PluggableService.POLL_INTERVAL_KEY,
+                                        PluginDirectoryPoller.DEFAULT_POLL_INTERVAL.toMillis())));
+                        executor.execute(poller::watch);
+                    }
+                    case NONE -> {
+                        // the plugins found at startup are kept
+                    }
+                }
+            } catch (IOException e) {
+                LOG.error("Unable to watch plugin directories " + rootPaths, e);
+                throw new UncheckedIOException(e);
             }
 
+            Optional<DirectoryWatcher> watcherToClose = directoryWatcher;
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                watcherToClose.ifPresent(watcher -> {
+                    try {
+                        watcher.close();
+                    } catch (IOException e) {
+                        // IGNORE
+                    }
+                });
                 executor.shutdownNow();
                 try {
                     if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
@@ -227,79 +1070,366 @@ public class Layers {
                 } catch (InterruptedException e) {
                     // IGNORE
                 }
+                pluginLifecycleSupport.shutdown();
             }));
         }
 
         /**
-         * Handles directory change events.
+         * Starts applying the batches of directory changes, once the plugins found at startup are registered.
+         */
+        public void start() {
+            executor.execute(() -> {
+                // the pool names its threads after the watcher
+                Thread.currentThread().setName("Plugin change applier thread");
+                while (true) {
+                    try {
+                        applyChanges(pluginChangeBatcher.nextBatch());
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (RuntimeException e) {
+                        LOG.error("Unable to apply plugin changes", e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Handles directory change events, by offering them to the batcher. The plugin directory of an event is
+         * found by the root path it was reported for.
          *
-         * @param event           the directory change event
-         * @param pluginDirectory the plugin directory
+         * @param event the directory change event
          */
-        private void onDirectoryChange(DirectoryChangeEvent event, PluginWatchDirectory pluginDirectory) {
-            Matcher matcher = PLUGIN_ARTIFACT_PATTERN.matcher(event.path().getFileName().toString());
-            if (!matcher.matches()) {
+        private void onDirectoryChange(DirectoryChangeEvent event) {
+            Path directory = event.rootPath().toAbsolutePath().normalize();
+            PluginWatchDirectory pluginDirectory = pluginDirectoriesByRoot.get(directory);
+            if (pluginDirectory == null) {
+                LOG.warn("Ignoring change outside the plugin directories: " + event);
                 return;
             }
-
-            String pluginArtifactId = matcher.group(1);
-            String pluginVersion = matcher.group(2);
-            String derivedFrom = pluginDirectory.name();
-            String pluginLayerName = String.join("-", derivedFrom, pluginArtifactId, pluginVersion);
+            if (!directory.equals(event.path().toAbsolutePath().normalize().getParent())) {
+                // only direct children are plugins
+                if (event.path().toAbsolutePath().normalize().startsWith(directory.resolve(SHARED_LIBRARY_DIR)) &&
+                        event.path().getFileName().toString().endsWith(".jar")) {
+                    LOG.warn("Changes to shared libraries take effect after a restart: " + event.path());
+                }
+                return;
+            }
+            Optional<String> optionalPluginLayerName = pluginLayerName(pluginDirectory, event.path());
+            if (optionalPluginLayerName.isEmpty()) {
+                return;
+            }
+            String pluginLayerName = optionalPluginLayerName.get();
 
             switch (event.eventType()) {
-                case CREATE -> {
-                    if (moduleLayers.stream().noneMatch(pluginNameAndModuleLayer -> pluginNameAndModuleLayer.name().equals(pluginLayerName))) {
-                        Path pluginDir = pluginsWorkingDir.resolve(pluginIndex++ + "-" + pluginLayerName);
-                        List<Path> modulePathEntries = unpackPluginArtifact(event.path(), pluginDir);
-                        ModuleLayer moduleLayer = createModuleLayer(pluginParentLayerAsList, modulePathEntries);
-                        PluginNameAndModuleLayer pluginNameAndModuleLayer = new PluginNameAndModuleLayer(pluginLayerName, moduleLayer);
-                        moduleLayers.add(pluginNameAndModuleLayer);
-                        // Create new service loader with new layer...
-                        PluggableService.deployPluginServiceLoader(moduleLayers.stream().map(pluginNameAndModuleLayerFromStream -> pluginNameAndModuleLayerFromStream.moduleLayer()).toList());
-                        deploy(pluginNameAndModuleLayer);
-                    } else {
-                        LOG.warn("Trying to create a layer that already exists: " + pluginLayerName);
+                case CREATE -> pluginChangeBatcher.offer(
+                        new PluginChangeBatcher.PluginChange(pluginLayerName, event.path(), PluginChangeBatcher.Kind.CREATE));
+                case MODIFY -> pluginChangeBatcher.offer(
+                        new PluginChangeBatcher.PluginChange(pluginLayerName, event.path(), PluginChangeBatcher.Kind.MODIFY));
+                case DELETE -> pluginChangeBatcher.offer(
+                        new PluginChangeBatcher.PluginChange(pluginLayerName, event.path(), PluginChangeBatcher.Kind.DELETE));
+                default -> LOG.warn("Unexpected DirectoryChange event type: " + event);
+            }
+        }
+
+        /**
+         * Applies a batch of changes. The layers of created and modified artifacts are created concurrently while
+         * the current layers keep serving, then all layers are removed and registered in one registry change,
+         * followed by a single update of the PluggableServiceLoader and a single round of lifecycle notifications.
+         * <p>
+         * A modified artifact, or a deleted artifact together with a created artifact of the same artifact id in
+         * the same directory, such as a new version of a plugin, replaces the layer of the old artifact. If the
+         * layer of the new artifact cannot be created, the old layer stays in service.
+         *
+         * @param changes the batch of changes
+         */
+        private void applyChanges(List<PluginChangeBatcher.PluginChange> changes) {
+            changeLock.lock();
+            PluginEvents.DeploymentEvent deploymentEvent = new PluginEvents.DeploymentEvent();
+            deploymentEvent.begin();
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                applyChangesSerially(changes, deploymentEvent);
+                deploymentEvent.outcome = PluginEvents.SUCCESS;
+                failed = false;
+            } catch (RuntimeException | Error e) {
+                deploymentEvent.outcome = PluginEvents.failure(e);
+                throw e;
+            } finally {
+                deploymentStats.recordDeployment(System.nanoTime() - start, failed);
+                changeLock.unlock();
+                deploymentEvent.changeCount = changes.size();
+                deploymentEvent.commit();
+            }
+        }
+
+        private void applyChangesSerially(List<PluginChangeBatcher.PluginChange> changes,
+                                          PluginEvents.DeploymentEvent deploymentEvent) {
+            LayerRegistry.Snapshot snapshot;
+            List<String> removals = new ArrayList<>();
+            List<PluginArtifact> creations = new ArrayList<>();
+            // the layer each new layer replaces, by the name of the new layer
+            Map<String, String> replacements = new HashMap<>();
+            // deleted layers by artifact id, for replacement by a created layer of the same artifact id
+            Map<Path, String> deletions = new HashMap<>();
+            layerTransitionLock.lock();
+            try {
+                for (PluginChangeBatcher.PluginChange change : changes) {
+                    if (change.kind() != PluginChangeBatcher.Kind.CREATE) {
+                        dropPendingPluginLayer(change.pluginLayerName());
                     }
                 }
-                case DELETE -> {
-                    Optional<PluginNameAndModuleLayer> match = moduleLayers.stream().filter(pluginNameAndModuleLayer -> pluginNameAndModuleLayer.name().equals(pluginLayerName)).findFirst();
-                    match.ifPresentOrElse(pluginNameAndModuleLayer -> {
-                        moduleLayers.remove(pluginNameAndModuleLayer);
-                        // Create new service loader without the removed layer...
-                        PluggableService.deployPluginServiceLoader(moduleLayers.stream().map(pluginNameAndModuleLayerFromStream -> pluginNameAndModuleLayerFromStream.moduleLayer()).toList());
-                        undeploy(pluginNameAndModuleLayer);
-                    },
-                        //else
-                        () -> LOG.warn("Trying to delete a layer that is not present: " + pluginLayerName));
+                // deferred layers can no longer be defined for the changed artifacts
+                snapshot = layerRegistry.snapshot();
+            } finally {
+                layerTransitionLock.unlock();
+            }
+            for (PluginChangeBatcher.PluginChange change : changes) {
+                String pluginLayerName = change.pluginLayerName();
+                switch (change.kind()) {
+                    case CREATE -> {
+                        if (snapshot.find(pluginLayerName).isEmpty() && !pendingPluginLayers.containsKey(pluginLayerName)) {
+                            creations.add(newPluginArtifact(pluginLayerName, change.artifact()));
+                        } else {
+                            LOG.warn("Trying to create a layer that already exists: " + pluginLayerName);
+                        }
+                    }
+                    case MODIFY -> {
+                        if (snapshot.find(pluginLayerName).isPresent()) {
+                            replacements.put(pluginLayerName, pluginLayerName);
+                        }
+                        creations.add(newPluginArtifact(pluginLayerName, change.artifact()));
+                    }
+                    case DELETE -> {
+                        pluginCatalog.remove(change.artifact());
+                        if (snapshot.find(pluginLayerName).isPresent()) {
+                            deletions.put(pluginArtifactId(change.artifact()), pluginLayerName);
+                        } else if (!pendingPluginLayers.containsKey(pluginLayerName)) {
+                            LOG.warn("Trying to delete a layer that is not present: " + pluginLayerName);
+                        }
+                    }
+                }
+            }
+            for (PluginArtifact creation : creations) {
+                String replacedLayerName = deletions.remove(pluginArtifactId(creation.artifact()));
+                if (replacedLayerName != null) {
+                    replacements.put(creation.pluginName(), replacedLayerName);
+                }
+            }
+            removals.addAll(deletions.values());
+
+            List<PluginNameAndModuleLayer> additions = new ArrayList<>();
+            Map<PluginArtifact, PluginNameAndModuleLayer> createdLayers = createPluginLayersOrSkip(creations);
+            for (PluginArtifact creation : creations) {
+                PluginNameAndModuleLayer createdLayer = createdLayers.get(creation);
+                String replacedLayerName = replacements.get(creation.pluginName());
+                if (createdLayer != null) {
+                    additions.add(createdLayer);
+                    if (replacedLayerName != null) {
+                        removals.add(replacedLayerName);
+                    }
+                } else if (replacedLayerName != null) {
+                    LOG.warn("Keeping plugin layer " + replacedLayerName + " in service, as its replacement " +
+                            creation.pluginName() + " could not be created");
                 }
-                default -> LOG.warn("Unexpected DirectoryChange event type: " + event);
             }
+
+            List<PluginNameAndModuleLayer> removed;
+            layerTransitionLock.lock();
+            try {
+                removed = layerRegistry.apply(removals, additions);
+                pluginCatalog.save();
+                if (removed.isEmpty() && additions.isEmpty()) {
+                    return;
+                }
+                // Point the service loader at the layers after the changes...
+                pluginServiceLoaderLayer = PluggableService.deployPluginServiceLoader(layerRegistry.snapshot().moduleLayers());
+            } finally {
+                layerTransitionLock.unlock();
+            }
+            if (deploymentEvent.isEnabled()) {
+                deploymentEvent.removedLayers = layerNames(removed);
+                deploymentEvent.addedLayers = layerNames(additions);
+            }
+            layersChanged(additions, removed);
+            undeploy(removed);
+            deploy(additions);
+            removed.forEach(Layers.this::releaseWhenCollected);
+        }
+
+        private static String layerNames(Collection<PluginNameAndModuleLayer> pluginLayers) {
+            return pluginLayers.stream().map(PluginNameAndModuleLayer::name).collect(Collectors.joining(", "));
         }
 
         /**
-         * Deploys a plugin layer by notifying any potential lifecycle listeners about the new layer.
+         * Removes a registered plugin layer, without a change of its artifact.
          *
-         * @param pluginLayerToDeploy the PluginNameAndModuleLayer representing the plugin layer to deploy
+         * @param pluginLayerName the name of the plugin layer
+         * @return true if the layer was registered and has been removed
          */
-        public void deploy(PluginNameAndModuleLayer pluginLayerToDeploy) {
-            // for each existing layer, notify any potential lifecycle listeners about the new layer
-            for (PluginNameAndModuleLayer pluginNameAndModuleLayer : moduleLayers) {
-                pluginLifecycleSupport.notifyPluginLayerListenersOnAddition(pluginNameAndModuleLayer.moduleLayer(),
-                        pluginLayerToDeploy);
+        private boolean undeployPluginLayer(String pluginLayerName) {
+            changeLock.lock();
+            long start = System.nanoTime();
+            boolean undeployed = false;
+            boolean failed = true;
+            try {
+                List<PluginNameAndModuleLayer> removed;
+                layerTransitionLock.lock();
+                try {
+                    removed = layerRegistry.apply(List.of(pluginLayerName), List.of());
+                    if (removed.isEmpty()) {
+                        failed = false;
+                        return false;
+                    }
+                    pluginServiceLoaderLayer = PluggableService.deployPluginServiceLoader(layerRegistry.snapshot().moduleLayers());
+                } finally {
+                    layerTransitionLock.unlock();
+                }
+                layersChanged(List.of(), removed);
+                undeploy(removed);
+                removed.forEach(Layers.this::releaseWhenCollected);
+                undeployed = true;
+                failed = false;
+                return true;
+            } finally {
+                if (undeployed || failed) {
+                    deploymentStats.recordDeployment(System.nanoTime() - start, failed);
+                }
+                changeLock.unlock();
             }
         }
 
         /**
-         * Undeploy the specified plugin layer by notifying any potential lifecycle listeners about the removed layer.
+         * Lists the plugin directories, and applies the differences to the registered plugin layers as one batch:
+         * artifacts without a registered or pending layer are created, artifacts that changed since their layer
+         * was recorded in the catalog are modified, and layers whose artifact is gone from a plugin directory are
+         * deleted. Layers deployed from artifacts outside the plugin directories are not deleted.
          *
-         * @param pluginLayerToUndeploy the plugin layer to undeploy
+         * @return the number of changes found
          */
-        public void undeploy(PluginNameAndModuleLayer pluginLayerToUndeploy) {
-            // for each existing layer, notify any potential lifecycle listeners about the removed layer
-            for (PluginNameAndModuleLayer pluginNameAndModuleLayer : moduleLayers) {
-                pluginLifecycleSupport.notifyPluginLayerListenersOnRemoval(pluginNameAndModuleLayer.moduleLayer(),
-                        pluginLayerToUndeploy);
+        private int rescan() {
+            changeLock.lock();
+            try {
+                LayerRegistry.Snapshot snapshot = layerRegistry.snapshot();
+                List<PluginChangeBatcher.PluginChange> changes = new ArrayList<>();
+                Set<String> foundLayerNames = new HashSet<>();
+                for (PluginWatchDirectory pluginDirectory : pluginDirectoriesByRoot.values()) {
+                    List<Path> artifacts;
+                    try (Stream<Path> paths = Files.list(pluginDirectory.directory())) {
+                        artifacts = paths.filter(Files::isRegularFile)
+                                .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                                .toList();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    for (Path artifact : artifacts) {
+                        Optional<String> pluginLayerName = pluginLayerName(pluginDirectory, artifact);
+                        if (pluginLayerName.isEmpty()) {
+                            continue;
+                        }
+                        foundLayerNames.add(pluginLayerName.get());
+                        if (snapshot.find(pluginLayerName.get()).isEmpty()) {
+                            if (!pendingPluginLayers.containsKey(pluginLayerName.get())) {
+                                changes.add(new PluginChangeBatcher.PluginChange(pluginLayerName.get(), artifact,
+                                        PluginChangeBatcher.Kind.CREATE));
+                            }
+                        } else if (pluginCatalog.validate(artifact).isEmpty()) {
+                            changes.add(new PluginChangeBatcher.PluginChange(pluginLayerName.get(), artifact,
+                                    PluginChangeBatcher.Kind.MODIFY));
+                        }
+                    }
+                }
+                for (PluginNameAndModuleLayer registeredLayer : snapshot.layers()) {
+                    Path artifact = pluginArtifactPaths.get(registeredLayer.moduleLayer());
+                    if (artifact != null && !foundLayerNames.contains(registeredLayer.name()) &&
+                            pluginDirectoriesByRoot.containsKey(artifact.toAbsolutePath().normalize().getParent())) {
+                        changes.add(new PluginChangeBatcher.PluginChange(registeredLayer.name(), artifact,
+                                PluginChangeBatcher.Kind.DELETE));
+                    }
+                }
+                if (!changes.isEmpty()) {
+                    LOG.info("Rescan found " + changes.size() + " plugin changes");
+                    applyChanges(changes);
+                }
+                return changes.size();
+            } finally {
+                changeLock.unlock();
+            }
+        }
+
+        /**
+         * Drops a deferred plugin layer whose artifact was modified or deleted before it was used.
+         *
+         * @param pluginLayerName the name of the plugin layer
+         */
+        private void dropPendingPluginLayer(String pluginLayerName) {
+            removePendingPluginLayer(pluginLayerName).ifPresent(Layers.this::releasePendingPluginLayer);
+        }
+
+        private PluginArtifact newPluginArtifact(String pluginLayerName, Path artifact) {
+            Path pluginDir = pluginsWorkingDir.resolve(pluginIndex.getAndIncrement() + "-" + pluginLayerName);
+            return new PluginArtifact(pluginLayerName, artifact, pluginDir);
+        }
+
+        /**
+         * Creates the layers of the given artifacts concurrently on virtual threads. An artifact whose layer cannot
+         * be created is logged and skipped, without affecting the others.
+         *
+         * @param pluginArtifacts the plugin artifacts
+         * @return the created layers by artifact
+         */
+        private Map<PluginArtifact, PluginNameAndModuleLayer> createPluginLayersOrSkip(List<PluginArtifact> pluginArtifacts) {
+            Map<PluginArtifact, PluginNameAndModuleLayer> pluginLayers = new HashMap<>();
+            try (ExecutorService layerExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+                List<Future<PluginNameAndModuleLayer>> futures = pluginArtifacts.stream()
+                        .map(pluginArtifact -> layerExecutor.submit(() -> createPluginLayer(pluginArtifact)))
+                        .toList();
+                for (int i = 0; i < futures.size(); i++) {
+                    PluginArtifact pluginArtifact = pluginArtifacts.get(i);
+                    try {
+                        pluginLayers.put(pluginArtifact, futures.get(i).get());
+                    } catch (ExecutionException e) {
+                        LOG.error("Unable to create plugin layer: " + pluginArtifact.pluginName(), e.getCause());
+                        pluginWorkingStore.release(pluginArtifact.pluginDir());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            return pluginLayers;
+        }
+
+        /**
+         * Deploys plugin layers by registering their lifecycle listeners, and notifying the listeners of all
+         * registered layers about the new layers.
+         *
+         * @param pluginLayersToDeploy the plugin layers to deploy
+         */
+        public void deploy(Collection<PluginNameAndModuleLayer> pluginLayersToDeploy) {
+            if (pluginServiceLoaderLayer != null) {
+                pluginLifecycleSupport.register(pluginServiceLoaderLayer);
+            }
+            for (PluginNameAndModuleLayer pluginLayerToDeploy : pluginLayersToDeploy) {
+                pluginLifecycleSupport.register(pluginLayerToDeploy.moduleLayer());
+            }
+            for (PluginNameAndModuleLayer pluginLayerToDeploy : pluginLayersToDeploy) {
+                pluginLifecycleSupport.notifyPluginLayerListenersOnAddition(pluginLayerToDeploy);
+            }
+        }
+
+        /**
+         * Undeploy the specified plugin layers by dropping their lifecycle listeners, and notifying the listeners
+         * of the remaining layers about the removed layers.
+         *
+         * @param pluginLayersToUndeploy the plugin layers to undeploy
+         */
+        public void undeploy(Collection<PluginNameAndModuleLayer> pluginLayersToUndeploy) {
+            for (PluginNameAndModuleLayer pluginLayerToUndeploy : pluginLayersToUndeploy) {
+                pluginLifecycleSupport.unregister(pluginLayerToUndeploy.moduleLayer());
+            }
+            for (PluginNameAndModuleLayer pluginLayerToUndeploy : pluginLayersToUndeploy) {
+                pluginLifecycleSupport.notifyPluginLayerListenersOnRemoval(pluginLayerToUndeploy);
             }
         }
 
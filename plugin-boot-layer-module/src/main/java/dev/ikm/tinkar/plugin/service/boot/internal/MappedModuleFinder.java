@@ -0,0 +1,350 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A ModuleFinder serving the modules of a plugin artifact straight from the memory-mapped artifact, without
+ * copying or extracting it to disk. A plugin jar is mapped as is; the jars of a .zip plugin bundle are read in
+ * place if they are stored, and inflated into memory once if they are deflated. Module descriptors and class
+ * bytes are read from the mapping on demand by the {@link ModuleReader} of each module.
+ * <p>
+ * Explicit modules and automatic modules are supported; the versioned entries of multi-release jars are
+ * ignored. Resources are located by URIs served by {@link MappedZipUrlStreamHandlerProvider}.
+ * <p>
+ * The mapping stays valid when the artifact is deleted, or replaced by a new file renamed over it, as the
+ * mapping keeps the original file content. Overwriting the artifact in place, by truncating and rewriting the
+ * same file, changes the mapped content under the loaded classes and may crash the JVM; artifacts must be
+ * replaced by a rename, as {@link PluginRepositorySync} does. On Windows, a mapped artifact cannot be deleted
+ * until its layer has been garbage collected.
+ */
+public final class MappedModuleFinder implements ModuleFinder {
+    private static final String MODULE_INFO = "module-info.class";
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final Pattern DASH_VERSION = Pattern.compile("-(\\d+(\\.|$))");
+
+    private final Map<String, ModuleReference> modules;
+
+    private MappedModuleFinder(Map<String, ModuleReference> modules) {
+        this.modules = modules;
+    }
+
+    /**
+     * Returns whether an artifact can be mapped, rather than extracted.
+     *
+     * @param fileName the file name of the artifact
+     * @return true for .jar and .zip artifacts; .tar archives can only be read sequentially
+     */
+    public static boolean supports(String fileName) {
+        return fileName.endsWith(".jar") || fileName.endsWith(".zip");
+    }
+
+    /**
+     * Maps a plugin artifact and reads the descriptors of its modules.
+     *
+     * @param artifact a .jar plugin or a .zip plugin bundle
+     * @return the module finder
+     * @throws IOException if the artifact cannot be mapped or read, or contains two modules of the same name
+     */
+    public static MappedModuleFinder open(Path artifact) throws IOException {
+        String fileName = artifact.getFileName().toString();
+        URI artifactUri = artifact.toAbsolutePath().toUri();
+        MappedZip mappedArtifact = MappedZip.map(artifact);
+        Map<String, ModuleReference> modules = new LinkedHashMap<>();
+        if (fileName.endsWith(".jar")) {
+            addModule(modules, fileName, mappedArtifact, artifactUri);
+        } else if (fileName.endsWith(".zip")) {
+            Set<String> jarNames = new HashSet<>();
+            for (MappedZip.Entry entry : mappedArtifact.entries()) {
+                if (entry.isDirectory() || !entry.name().endsWith(".jar")) {
+                    continue;
+                }
+                String entryName = entry.name().replace('\\', '/');
+                String jarName = entryName.substring(entryName.lastIndexOf('/') + 1);
+                if (!jarNames.add(jarName)) {
+                    throw new IOException("Plugin bundle contains more than one " + jarName + ": " + artifact);
+                }
+                URI location = nestedLocation(artifactUri, entry.name());
+                addModule(modules, jarName, MappedZip.of(mappedArtifact.read(entry), location.toString()), location);
+            }
+        } else {
+            throw new IOException("Can't map " + fileName);
+        }
+        return new MappedModuleFinder(Collections.unmodifiableMap(modules));
+    }
+
+    @Override
+    public Optional<ModuleReference> find(String name) {
+        return Optional.ofNullable(modules.get(name));
+    }
+
+    @Override
+    public Set<ModuleReference> findAll() {
+        return Set.copyOf(modules.values());
+    }
+
+    private static void addModule(Map<String, ModuleReference> modules, String jarName, MappedZip jar, URI location)
+            throws IOException {
+        ModuleDescriptor descriptor;
+        try {
+            descriptor = descriptor(jarName, jar);
+        } catch (IllegalArgumentException | java.lang.module.InvalidModuleDescriptorException e) {
+            throw new IOException("Invalid module " + location + ": " + e.getMessage(), e);
+        }
+        if (modules.putIfAbsent(descriptor.name(), new MappedModuleReference(descriptor, location, jar)) != null) {
+            throw new FindException("Two versions of module " + descriptor.name() + " found in " + location);
+        }
+    }
+
+    private static URI nestedLocation(URI artifactUri, String entryName) throws IOException {
+        try {
+            return new URI(artifactUri.getScheme(), artifactUri.getSchemeSpecificPart() + "!/" + entryName, null);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static ModuleDescriptor descriptor(String jarName, MappedZip jar) throws IOException {
+        Set<String> packages = packages(jar);
+        Optional<MappedZip.Entry> moduleInfo = jar.entry(MODULE_INFO);
+        if (moduleInfo.isPresent()) {
+            return ModuleDescriptor.read(jar.read(moduleInfo.get()), () -> packages);
+        }
+        return automaticDescriptor(jarName, jar, packages);
+    }
+
+    /**
+     * Derives the descriptor of an automatic module, as the module path does: the name is taken from the
+     * Automatic-Module-Name manifest attribute, or derived from the jar name, and the services are taken from
+     * META-INF/services.
+     */
+    private static ModuleDescriptor automaticDescriptor(String jarName, MappedZip jar, Set<String> packages)
+            throws IOException {
+        String name = jarName.substring(0, jarName.length() - ".jar".length());
+        Optional<String> version = Optional.empty();
+        Matcher matcher = DASH_VERSION.matcher(name);
+        if (matcher.find()) {
+            version = Optional.of(name.substring(matcher.start() + 1));
+            name = name.substring(0, matcher.start());
+        }
+        name = name.replaceAll("[^A-Za-z0-9]", ".").replaceAll("(\\.)(\\1)+", ".");
+        name = name.replaceAll("^\\.", "").replaceAll("\\.$", "");
+
+        Optional<MappedZip.Entry> manifestEntry = jar.entry("META-INF/MANIFEST.MF");
+        if (manifestEntry.isPresent()) {
+            try (InputStream in = new ByteBufferInputStream(jar.read(manifestEntry.get()))) {
+                String automaticModuleName = new Manifest(in).getMainAttributes()
+                        .getValue(new Attributes.Name("Automatic-Module-Name"));
+                if (automaticModuleName != null) {
+                    name = automaticModuleName;
+                }
+            }
+        }
+
+        ModuleDescriptor.Builder builder = ModuleDescriptor.newAutomaticModule(name).packages(packages);
+        version.ifPresent(value -> {
+            try {
+                builder.version(value);
+            } catch (IllegalArgumentException e) {
+                // not a valid module version, the module is unversioned
+            }
+        });
+        for (MappedZip.Entry entry : jar.entries()) {
+            String entryName = entry.name();
+            if (entry.isDirectory() || !entryName.startsWith(SERVICES_PREFIX) ||
+                    entryName.indexOf('/', SERVICES_PREFIX.length()) >= 0) {
+                continue;
+            }
+            String service = entryName.substring(SERVICES_PREFIX.length());
+            List<String> providers = new ArrayList<>();
+            for (String line : StandardCharsets.UTF_8.decode(jar.read(entry)).toString().split("\\R")) {
+                int comment = line.indexOf('#');
+                String provider = (comment >= 0 ? line.substring(0, comment) : line).strip();
+                int lastDot = provider.lastIndexOf('.');
+                if (!provider.isEmpty() && lastDot > 0 && packages.contains(provider.substring(0, lastDot)) &&
+                        !providers.contains(provider)) {
+                    providers.add(provider);
+                }
+            }
+            if (!providers.isEmpty()) {
+                builder.provides(service, providers);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the packages of a jar: the directories of its files, other than META-INF, that are legal package
+     * names.
+     */
+    private static Set<String> packages(MappedZip jar) {
+        Set<String> packages = new HashSet<>();
+        for (MappedZip.Entry entry : jar.entries()) {
+            String name = entry.name();
+            int lastSlash = name.lastIndexOf('/');
+            if (entry.isDirectory() || lastSlash <= 0 || name.startsWith("META-INF/")) {
+                continue;
+            }
+            String packageName = name.substring(0, lastSlash).replace('/', '.');
+            if (isPackageName(packageName)) {
+                packages.add(packageName);
+            }
+        }
+        return packages;
+    }
+
+    private static boolean isPackageName(String packageName) {
+        for (String identifier : packageName.split("\\.", -1)) {
+            if (identifier.isEmpty() || !Character.isJavaIdentifierStart(identifier.codePointAt(0)) ||
+                    !identifier.codePoints().skip(1).allMatch(Character::isJavaIdentifierPart)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A module of a mapped artifact.
+     */
+    private static final class MappedModuleReference extends ModuleReference {
+        private final MappedZip jar;
+        private final long id;
+
+        private MappedModuleReference(ModuleDescriptor descriptor, URI location, MappedZip jar) {
+            super(descriptor, location);
+            this.jar = jar;
+            this.id = MappedZipUrlStreamHandlerProvider.register(jar);
+        }
+
+        @Override
+        public ModuleReader open() {
+            return new MappedModuleReader(jar, id);
+        }
+    }
+
+    /**
+     * Reads the resources of a module from its mapped jar.
+     */
+    private static final class MappedModuleReader implements ModuleReader {
+        private final MappedZip jar;
+        private final long id;
+        private volatile boolean closed;
+
+        private MappedModuleReader(MappedZip jar, long id) {
+            this.jar = jar;
+            this.id = id;
+        }
+
+        @Override
+        public Optional<URI> find(String name) throws IOException {
+            ensureOpen();
+            return jar.entry(name).map(entry -> MappedZipUrlStreamHandlerProvider.uri(id, entry.name()));
+        }
+
+        @Override
+        public Optional<InputStream> open(String name) throws IOException {
+            return read(name).map(ByteBufferInputStream::new);
+        }
+
+        @Override
+        public Optional<ByteBuffer> read(String name) throws IOException {
+            ensureOpen();
+            Optional<MappedZip.Entry> entry = jar.entry(name);
+            if (entry.isEmpty() || entry.get().isDirectory()) {
+                return Optional.empty();
+            }
+            return Optional.of(jar.read(entry.get()));
+        }
+
+        @Override
+        public Stream<String> list() throws IOException {
+            ensureOpen();
+            return jar.entries().stream().map(MappedZip.Entry::name);
+        }
+
+        @Override
+        public void close() {
+            // the mapping is released once the module's layer is garbage collected
+            closed = true;
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("ModuleReader is closed");
+            }
+        }
+    }
+
+    /**
+     * Reads a byte buffer as a stream.
+     */
+    static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? Byte.toUnsignedInt(buffer.get()) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
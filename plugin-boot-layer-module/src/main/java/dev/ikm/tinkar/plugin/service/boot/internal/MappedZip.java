@@ -0,0 +1,381 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A read-only zip archive held in a byte buffer, typically a memory-mapped file or a slice of one, read through
+ * its central directory without copying. Stored entries are returned as slices of the buffer; deflated entries
+ * are inflated into a new buffer on every read. ZIP64, multi-disk and encrypted archives are rejected.
+ * <p>
+ * The headers are not trusted: every record, name and entry is checked to lie within the buffer, entries must
+ * lie before the central directory, stored entries must have equal sizes, and deflated entries must inflate to
+ * exactly their recorded size, which is bounded by the maximum expansion of deflate.
+ */
+public final class MappedZip {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_END_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    /**
+     * Deflate expands data by at most 1032 times.
+     */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /**
+     * An entry of the central directory.
+     *
+     * @param name               the entry name
+     * @param method             the compression method
+     * @param compressedSize     the compressed size
+     * @param size               the uncompressed size
+     * @param localHeaderOffset  the offset of the local header of the entry
+     */
+    public record Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+        /**
+         * Returns whether the entry is a directory.
+         *
+         * @return true if the name ends with a slash
+         */
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+    private final long directoryOffset;
+
+    private MappedZip(ByteBuffer buffer, Map<String, Entry> entries, long directoryOffset) {
+        this.buffer = buffer;
+        this.entries = entries;
+        this.directoryOffset = directoryOffset;
+    }
+
+    /**
+     * Maps a zip file read-only. The mapping stays valid after the file is deleted or replaced by a rename, but
+     * not if the file is overwritten in place.
+     *
+     * @param file the zip file
+     * @return the mapped archive
+     * @throws IOException if the file cannot be mapped or is not a supported zip archive
+     */
+    public static MappedZip map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Zip archive is too large to map: " + file);
+            }
+            return of(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file.toString());
+        }
+    }
+
+    /**
+     * Reads the central directory of a zip archive held in a buffer.
+     *
+     * @param buffer      the archive
+     * @param description a description of the archive for error messages
+     * @return the archive
+     * @throws IOException if the buffer does not hold a supported zip archive
+     */
+    public static MappedZip of(ByteBuffer buffer, String description) throws IOException {
+        ByteBuffer zip = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int end = findEnd(zip, description);
+        if (end >= ZIP64_END_LOCATOR_SIZE && zip.getInt(end - ZIP64_END_LOCATOR_SIZE) == ZIP64_END_LOCATOR_SIGNATURE) {
+            throw new IOException("ZIP64 archives are not supported: " + description);
+        }
+        if (zip.getShort(end + 4) != 0 || zip.getShort(end + 6) != 0 ||
+                zip.getShort(end + 8) != zip.getShort(end + 10)) {
+            throw new IOException("Multi-disk archives are not supported: " + description);
+        }
+        int entryCount = Short.toUnsignedInt(zip.getShort(end + 10));
+        long directorySize = Integer.toUnsignedLong(zip.getInt(end + 12));
+        long directoryOffset = Integer.toUnsignedLong(zip.getInt(end + 16));
+        long directoryEnd = directoryOffset + directorySize;
+        if (directoryEnd > end) {
+            throw new IOException("Invalid central directory: " + description);
+        }
+        Map<String, Entry> entries = new LinkedHashMap<>(entryCount * 2);
+        long position = directoryOffset;
+        for (int i = 0; i < entryCount; i++) {
+            if (position + CENTRAL_HEADER_SIZE > directoryEnd || zip.getInt((int) position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Invalid central directory entry " + i + ": " + description);
+            }
+            int header = (int) position;
+            int flags = Short.toUnsignedInt(zip.getShort(header + 8));
+            int method = Short.toUnsignedInt(zip.getShort(header + 10));
+            long compressedSize = Integer.toUnsignedLong(zip.getInt(header + 20));
+            long size = Integer.toUnsignedLong(zip.getInt(header + 24));
+            int nameLength = Short.toUnsignedInt(zip.getShort(header + 28));
+            int extraLength = Short.toUnsignedInt(zip.getShort(header + 30));
+            int commentLength = Short.toUnsignedInt(zip.getShort(header + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(zip.getInt(header + 42));
+            long next = position + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            if (next > directoryEnd) {
+                throw new IOException("Invalid central directory entry " + i + ": " + description);
+            }
+            byte[] nameBytes = new byte[nameLength];
+            zip.get(header + CENTRAL_HEADER_SIZE, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            if (hasZip64Extra(zip, header + CENTRAL_HEADER_SIZE + nameLength, extraLength)) {
+                throw new IOException("ZIP64 entry " + name + " is not supported: " + description);
+            }
+            if ((flags & 1) != 0) {
+                throw new IOException("Encrypted entry " + name + " is not supported: " + description);
+            }
+            if (localHeaderOffset + LOCAL_HEADER_SIZE + compressedSize > directoryOffset) {
+                throw new IOException("Entry " + name + " exceeds the archive: " + description);
+            }
+            if (method == STORED && compressedSize != size ||
+                    method == DEFLATED && size > (compressedSize + 1) * MAX_DEFLATE_RATIO) {
+                throw new IOException("Invalid size of entry " + name + ": " + description);
+            }
+            entries.putIfAbsent(name, new Entry(name, method, compressedSize, size, localHeaderOffset));
+            position = next;
+        }
+        return new MappedZip(zip, Collections.unmodifiableMap(entries), directoryOffset);
+    }
+
+    private static int findEnd(ByteBuffer zip, String description) throws IOException {
+        int limit = Math.max(0, zip.limit() - END_SIZE - MAX_COMMENT_SIZE);
+        for (int position = zip.limit() - END_SIZE; position >= limit; position--) {
+            if (zip.getInt(position) == END_SIGNATURE &&
+                    position + END_SIZE + Short.toUnsignedInt(zip.getShort(position + 20)) <= zip.limit()) {
+                return position;
+            }
+        }
+        throw new IOException("Not a zip archive: " + description);
+    }
+
+    /**
+     * Returns whether the extra fields of a central directory entry hold a ZIP64 extended information field.
+     */
+    private static boolean hasZip64Extra(ByteBuffer zip, int offset, int length) {
+        int position = offset;
+        while (position + 4 <= offset + length) {
+            int id = Short.toUnsignedInt(zip.getShort(position));
+            if (id == ZIP64_EXTRA_ID) {
+                return true;
+            }
+            position += 4 + Short.toUnsignedInt(zip.getShort(position + 2));
+        }
+        return false;
+    }
+
+    /**
+     * Returns the entries of the archive, in central directory order.
+     *
+     * @return the entries
+     */
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Returns the entry with the given name.
+     *
+     * @param name the entry name
+     * @return the entry, or an empty optional if there is none
+     */
+    public Optional<Entry> entry(String name) {
+        return Optional.ofNullable(entries.get(name));
+    }
+
+    /**
+     * Reads the content of an entry.
+     *
+     * @param entry an entry of this archive
+     * @return a read-only buffer with the content of the entry, a slice of the archive for a stored entry
+     * @throws IOException if the entry is corrupt or uses an unsupported compression method
+     */
+    public ByteBuffer read(Entry entry) throws IOException {
+        ByteBuffer data = data(entry);
+        return switch (entry.method()) {
+            case STORED -> data;
+            case DEFLATED -> inflate(data, entry);
+            default -> throw new IOException("Unsupported compression method " + entry.method() + " of entry " +
+                    entry.name());
+        };
+    }
+
+    /**
+     * Opens a stream on the content of an entry. Unlike {@link #read(Entry)}, a deflated entry is inflated as it
+     * is read, rather than into a buffer holding all of its content.
+     *
+     * @param entry an entry of this archive
+     * @return a stream of the content of the entry, failing if the content does not have the recorded size
+     * @throws IOException if the entry is corrupt or uses an unsupported compression method
+     */
+    public InputStream open(Entry entry) throws IOException {
+        ByteBuffer data = data(entry);
+        InputStream in = switch (entry.method()) {
+            case STORED -> new MappedModuleFinder.ByteBufferInputStream(data);
+            case DEFLATED -> {
+                Inflater inflater = new Inflater(true);
+                yield new InflaterInputStream(new MappedModuleFinder.ByteBufferInputStream(data), inflater) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            }
+            default -> throw new IOException("Unsupported compression method " + entry.method() + " of entry " +
+                    entry.name());
+        };
+        return new SizeCheckedInputStream(in, entry);
+    }
+
+    /**
+     * Returns the compressed data of an entry, located through its local header.
+     */
+    private ByteBuffer data(Entry entry) throws IOException {
+        long offset = entry.localHeaderOffset();
+        if (offset + LOCAL_HEADER_SIZE > directoryOffset || buffer.getInt((int) offset) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header of entry " + entry.name());
+        }
+        int nameLength = Short.toUnsignedInt(buffer.getShort((int) offset + 26));
+        int extraLength = Short.toUnsignedInt(buffer.getShort((int) offset + 28));
+        long dataOffset = offset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+        if (dataOffset + entry.compressedSize() > directoryOffset) {
+            throw new IOException("Truncated entry " + entry.name());
+        }
+        return buffer.slice((int) dataOffset, (int) entry.compressedSize()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Reads the content of an entry, wrapping I/O errors.
+     *
+     * @param entry an entry of this archive
+     * @return a read-only buffer with the content of the entry
+     * @throws UncheckedIOException if the entry cannot be read
+     */
+    public ByteBuffer readUnchecked(Entry entry) {
+        try {
+            return read(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Fails a stream whose content is shorter or longer than the size recorded for its entry.
+     */
+    private static final class SizeCheckedInputStream extends FilterInputStream {
+        private final Entry entry;
+        private long remaining;
+
+        private SizeCheckedInputStream(InputStream in, Entry entry) {
+            super(in);
+            this.entry = entry;
+            this.remaining = entry.size();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = in.read(b, off, len);
+            } catch (EOFException e) {
+                throw new IOException("Truncated entry " + entry.name(), e);
+            }
+            if (read < 0) {
+                if (remaining != 0) {
+                    throw new IOException("Truncated entry " + entry.name());
+                }
+                return -1;
+            }
+            remaining -= read;
+            if (remaining < 0) {
+                throw new IOException("Entry " + entry.name() + " is longer than its recorded size");
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // read rather than skip, so that the size is checked
+            byte[] skipBuffer = new byte[Math.clamp(n, 0, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(skipBuffer, 0, (int) Math.min(skipBuffer.length, n - skipped));
+                if (read < 0) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer data, Entry entry) throws IOException {
+        if (entry.size() > Integer.MAX_VALUE - 8) {
+            throw new IOException("Entry " + entry.name() + " is too large");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteBuffer inflated = ByteBuffer.allocate((int) entry.size());
+            while (inflated.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(inflated) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+            }
+            if (inflated.hasRemaining()) {
+                throw new IOException("Truncated deflated entry " + entry.name());
+            }
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished())) {
+                throw new IOException("Entry " + entry.name() + " does not inflate to its recorded size");
+            }
+            return inflated.flip().asReadOnlyBuffer();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflated entry " + entry.name(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.spi.URLStreamHandlerProvider;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the resources of the modules found by the {@link MappedModuleFinder}, with URLs of the form
+ * {@code tinkar-mapped:/<id>/<entry name>}, where the id denotes a registered mapped jar. A jar is registered
+ * for as long as it is reachable; the URLs of a jar whose plugin layer has been garbage collected no longer
+ * resolve.
+ * <p>
+ * The provider is found by {@link URL} through the system class loader, so the boot layer module must be on
+ * the application module path for the resource URLs of mapped plugins to open.
+ */
+public class MappedZipUrlStreamHandlerProvider extends URLStreamHandlerProvider {
+    public static final String SCHEME = "tinkar-mapped";
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final Map<Long, WeakReference<MappedZip>> REGISTRY = new ConcurrentHashMap<>();
+
+    @Override
+    public URLStreamHandler createURLStreamHandler(String protocol) {
+        return SCHEME.equals(protocol) ? new Handler() : null;
+    }
+
+    /**
+     * Registers a mapped jar, until it is garbage collected.
+     *
+     * @param jar the mapped jar
+     * @return the id of the jar in resource URIs
+     */
+    static long register(MappedZip jar) {
+        long id = NEXT_ID.incrementAndGet();
+        REGISTRY.put(id, new WeakReference<>(jar));
+        CLEANER.register(jar, () -> REGISTRY.remove(id));
+        return id;
+    }
+
+    /**
+     * Returns the URI of an entry of a registered jar.
+     *
+     * @param id        the id of the jar
+     * @param entryName the name of the entry
+     * @return the URI
+     */
+    static URI uri(long id, String entryName) {
+        try {
+            return new URI(SCHEME, null, "/" + id + "/" + entryName, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(entryName, e);
+        }
+    }
+
+    private static final class Handler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) {
+            return new MappedZipUrlConnection(url);
+        }
+    }
+
+    private static final class MappedZipUrlConnection extends URLConnection {
+        private ByteBuffer content;
+
+        private MappedZipUrlConnection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (connected) {
+                return;
+            }
+            String path;
+            try {
+                path = url.toURI().getPath();
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+            int slash = path == null ? -1 : path.indexOf('/', 1);
+            if (slash < 0) {
+                throw new FileNotFoundException(url.toString());
+            }
+            MappedZip jar;
+            try {
+                WeakReference<MappedZip> reference = REGISTRY.get(Long.parseLong(path.substring(1, slash)));
+                jar = reference == null ? null : reference.get();
+            } catch (NumberFormatException e) {
+                jar = null;
+            }
+            if (jar == null) {
+                throw new FileNotFoundException(url + " (the plugin layer has been removed)");
+            }
+            MappedZip.Entry entry = jar.entry(path.substring(slash + 1))
+                    .filter(found -> !found.isDirectory())
+                    .orElseThrow(() -> new FileNotFoundException(url.toString()));
+            content = jar.read(entry);
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return new MappedModuleFinder.ByteBufferInputStream(content);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                connect();
+                return content.remaining();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Extracts the jars of a plugin bundle, a .zip, .tar or .tar.gz archive holding a plugin and its private
+ * dependencies, into the working directory of the plugin layer, so that they resolve into a single layer.
+ * <p>
+ * Only .jar entries are extracted, at any depth in the archive, under their file name; both / and \\ separate
+ * the directories of an entry name, and names that do not denote a file in the layer working directory are
+ * rejected. Links and other special entries are not extracted. Each jar is staged through the
+ * {@link PluginWorkingStore}, so jars shared by several bundles are stored once.
+ * <p>
+ * A .zip bundle is memory-mapped and read through its central directory, and its jars are decompressed in
+ * parallel on virtual threads, while the hash of the bundle is computed over the same mapping, so the bundle is
+ * read from disk once. A .tar or .tar.gz bundle is read in a single streaming pass, hashed as it is read, as the
+ * entries of a tar stream can only be reached in order; no entry is buffered in memory. The header checksum of
+ * every tar entry is verified, and a truncated bundle fails the extraction.
+ */
+public class PluginBundleExtractor {
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    private final PluginWorkingStore pluginWorkingStore;
+
+    /**
+     * Creates an extractor staging bundle jars through the given working store.
+     *
+     * @param pluginWorkingStore the working store
+     */
+    public PluginBundleExtractor(PluginWorkingStore pluginWorkingStore) {
+        this.pluginWorkingStore = pluginWorkingStore;
+    }
+
+    /**
+     * Returns whether a file name denotes a plugin bundle.
+     *
+     * @param fileName the file name
+     * @return true for .zip, .tar and .tar.gz files
+     */
+    public static boolean isBundle(String fileName) {
+        return fileName.endsWith(".zip") || fileName.endsWith(".tar") || fileName.endsWith(".tar.gz");
+    }
+
+    /**
+     * Extracts the jars of a plugin bundle into a layer working directory.
+     *
+     * @param bundle         the plugin bundle
+     * @param knownSha256    the hash of the bundle, if known from the plugin catalog
+     * @param layerDirectory the layer working directory
+     * @return the hex encoded SHA-256 hash of the bundle
+     * @throws IOException if an I/O error occurs, or the bundle contains two jars with the same file name
+     */
+    public String extract(Path bundle, Optional<String> knownSha256, Path layerDirectory) throws IOException {
+        String fileName = bundle.getFileName().toString();
+        if (fileName.endsWith(".zip")) {
+            return extractZip(bundle, knownSha256, layerDirectory);
+        }
+        MessageDigest digest = PluginCatalog.sha256Digest();
+        try (InputStream in = new BufferedInputStream(new DigestInputStream(Files.newInputStream(bundle), digest))) {
+            extractTar(fileName.endsWith(".tar.gz") ? new GZIPInputStream(in) : in, bundle, layerDirectory);
+            // digest trailing padding and blocks the tar reader did not need
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String extractZip(Path bundle, Optional<String> knownSha256, Path layerDirectory) throws IOException {
+        ByteBuffer mappedBundle;
+        try (FileChannel channel = FileChannel.open(bundle)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Plugin bundle is too large to extract: " + bundle);
+            }
+            mappedBundle = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        MappedZip zip = MappedZip.of(mappedBundle, bundle.toString());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> sha256 = knownSha256.isPresent() ? CompletableFuture.completedFuture(knownSha256.get()) :
+                    executor.submit(() -> {
+                        MessageDigest digest = PluginCatalog.sha256Digest();
+                        digest.update(mappedBundle.duplicate());
+                        return HexFormat.of().formatHex(digest.digest());
+                    });
+            Set<String> jarNames = new HashSet<>();
+            List<Future<String>> extractions = new ArrayList<>();
+            for (MappedZip.Entry entry : zip.entries()) {
+                if (entry.isDirectory() || !entry.name().endsWith(".jar")) {
+                    continue;
+                }
+                String jarName = jarName(entry.name(), jarNames, bundle, layerDirectory);
+                extractions.add(executor.submit(() -> {
+                    try (InputStream in = zip.open(entry)) {
+                        return pluginWorkingStore.stage(in, layerDirectory, jarName);
+                    }
+                }));
+            }
+            for (Future<String> extraction : extractions) {
+                extraction.get();
+            }
+            return sha256.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted extracting " + bundle);
+        }
+    }
+
+    /**
+     * Reads a ustar, GNU or pax tar stream. Long names are taken from GNU long name entries and pax path records.
+     * The stream ends with a zero block, or at the end of the stream between entries.
+     */
+    private void extractTar(InputStream in, Path bundle, Path layerDirectory) throws IOException {
+        Set<String> jarNames = new HashSet<>();
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+        while (true) {
+            int headerLength = in.readNBytes(header, 0, TAR_BLOCK_SIZE);
+            if (headerLength == 0 && longName == null || headerLength == TAR_BLOCK_SIZE && header[0] == 0) {
+                break;
+            }
+            if (headerLength < TAR_BLOCK_SIZE) {
+                throw new EOFException("Truncated tar header in plugin bundle " + bundle);
+            }
+            verifyChecksum(header, bundle);
+            String name = longName != null ? longName : tarName(header);
+            longName = null;
+            long size = tarNumber(header, 124, 12, bundle);
+            char type = (char) header[156];
+            InputStream entry = new BoundedInputStream(in, size);
+            switch (type) {
+                case 'L' -> longName = new String(entry.readAllBytes(), StandardCharsets.UTF_8).trim();
+                case 'x' -> longName = paxPath(new String(entry.readAllBytes(), StandardCharsets.UTF_8));
+                case '0', '\0' -> {
+                    if (name.endsWith(".jar")) {
+                        String jarName = jarName(name, jarNames, bundle, layerDirectory);
+                        try {
+                            pluginWorkingStore.stage(entry, layerDirectory, jarName);
+                        } catch (UncheckedIOException e) {
+                            throw e.getCause();
+                        }
+                    }
+                }
+                default -> {
+                    // directories, links and other entry types are not extracted
+                }
+            }
+            entry.transferTo(OutputStream.nullOutputStream());
+            long padding = (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+            in.skipNBytes(padding);
+        }
+    }
+
+    /**
+     * Returns the file name a jar entry is extracted under, which must name a file directly in the layer working
+     * directory, and must not be extracted before.
+     */
+    private static String jarName(String entryName, Set<String> jarNames, Path bundle, Path layerDirectory)
+            throws IOException {
+        String normalizedName = entryName.replace('\\', '/');
+        String jarName = normalizedName.substring(normalizedName.lastIndexOf('/') + 1);
+        Path target;
+        try {
+            target = layerDirectory.resolve(jarName);
+        } catch (InvalidPathException e) {
+            throw new IOException("Invalid entry name " + entryName + " in plugin bundle " + bundle, e);
+        }
+        if (jarName.equals(".jar") || !layerDirectory.equals(target.getParent()) ||
+                !jarName.equals(target.getFileName().toString())) {
+            throw new IOException("Invalid entry name " + entryName + " in plugin bundle " + bundle);
+        }
+        if (!jarNames.add(jarName)) {
+            throw new IOException("Plugin bundle contains more than one " + jarName + ": " + bundle);
+        }
+        return jarName;
+    }
+
+    private static void verifyChecksum(byte[] header, Path bundle) throws IOException {
+        long expected = tarNumber(header, 148, 8, bundle);
+        long checksum = 0;
+        for (int i = 0; i < TAR_BLOCK_SIZE; i++) {
+            // the checksum field itself counts as spaces
+            checksum += i >= 148 && i < 156 ? ' ' : Byte.toUnsignedInt(header[i]);
+        }
+        if (checksum != expected) {
+            throw new IOException("Invalid tar header checksum in plugin bundle " + bundle);
+        }
+    }
+
+    private static long tarNumber(byte[] header, int offset, int length, Path bundle) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            throw new IOException("Binary tar numbers are not supported in plugin bundle " + bundle);
+        }
+        String field = tarString(header, offset, length).trim();
+        try {
+            long number = field.isEmpty() ? 0 : Long.parseLong(field, 8);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid tar header in plugin bundle " + bundle, e);
+        }
+        throw new IOException("Invalid tar header in plugin bundle " + bundle);
+    }
+
+    private static String tarName(byte[] header) {
+        String name = tarString(header, 0, 100);
+        String magic = tarString(header, 257, 6);
+        if (magic.startsWith("ustar")) {
+            String prefix = tarString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String tarString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String paxPath(String records) {
+        // records are "<length> <key>=<value>\n"
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            if (space > 0 && record.startsWith("path=", space + 1)) {
+                return record.substring(space + 1 + "path=".length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Limits reading to the content of a single tar entry, without closing the tar stream.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read();
+            if (read < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining--;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException("Truncated tar entry");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() {
+            // the tar stream stays open for the following entries
+        }
+    }
+}
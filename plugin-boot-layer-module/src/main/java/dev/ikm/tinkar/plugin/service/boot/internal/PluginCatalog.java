@@ -0,0 +1,431 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * The PluginCatalog is an on-disk record of the plugin artifacts seen in previous runs, and of the modules
+ * they contain.
+ * <p>
+ * Each artifact is keyed by its path, and recorded with its size, modification time and SHA-256 content hash,
+ * along with the names, requires and provides of its modules. On a warm restart an artifact is validated by
+ * size and modification time; only when its modification time changed is its content hash recomputed. Artifacts
+ * that validate do not have their module descriptors scanned again. The catalog also remembers the location of
+ * the PluggableServiceLoader jar, so that it need not be searched for.
+ */
+public class PluginCatalog {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginCatalog.class);
+    private static final String CATALOG_VERSION = "1";
+
+    /**
+     * A module of a plugin artifact, as recorded in the catalog.
+     *
+     * @param name     the module name
+     * @param requires the names of the modules it requires
+     * @param provides the provider class names by service interface name
+     */
+    public record CatalogModule(String name, Set<String> requires, Map<String, List<String>> provides) {
+    }
+
+    /**
+     * A plugin artifact, as recorded in the catalog.
+     *
+     * @param artifact     the absolute path of the artifact
+     * @param size         the size of the artifact in bytes
+     * @param lastModified the modification time of the artifact in milliseconds
+     * @param sha256       the hex encoded SHA-256 hash of the artifact content
+     * @param modules      the modules of the artifact
+     */
+    public record CatalogEntry(Path artifact, long size, long lastModified, String sha256,
+                               List<CatalogModule> modules) {
+
+        /**
+         * Returns the names of the modules of the artifact.
+         *
+         * @return the module names
+         */
+        public Set<String> moduleNames() {
+            return modules.stream().map(CatalogModule::name).collect(Collectors.toUnmodifiableSet());
+        }
+
+        /**
+         * Returns the services provided by the modules of the artifact.
+         *
+         * @return the provided service names
+         */
+        public Set<String> providedServices() {
+            return modules.stream().flatMap(module -> module.provides().keySet().stream())
+                    .collect(Collectors.toUnmodifiableSet());
+        }
+    }
+
+    private record LoaderJar(Path jar, String artifactKey, long size, long lastModified) {
+    }
+
+    private final Path catalogFile;
+    private final ConcurrentHashMap<Path, CatalogEntry> entries = new ConcurrentHashMap<>();
+    private volatile LoaderJar loaderJar;
+    private volatile boolean dirty;
+
+    private PluginCatalog(Path catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    /**
+     * Loads the catalog from the given file. A missing or unreadable catalog results in an empty catalog,
+     * causing all artifacts to be scanned.
+     *
+     * @param catalogFile the catalog file
+     * @return the loaded catalog
+     */
+    public static PluginCatalog load(Path catalogFile) {
+        PluginCatalog catalog = new PluginCatalog(catalogFile);
+        if (Files.isRegularFile(catalogFile)) {
+            try (InputStream in = Files.newInputStream(catalogFile)) {
+                Properties properties = new Properties();
+                properties.load(in);
+                catalog.read(properties);
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Ignoring unreadable plugin catalog: " + catalogFile, e);
+                catalog.entries.clear();
+                catalog.loaderJar = null;
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Returns the catalog entry of an artifact, if the artifact is unchanged since it was recorded.
+     * <p>
+     * An artifact with the recorded size and modification time is considered unchanged. If only its
+     * modification time differs, its content hash is compared, and the entry updated when it matches.
+     *
+     * @param artifact the plugin artifact
+     * @return the entry of the unchanged artifact, or an empty optional if it must be scanned
+     */
+    public Optional<CatalogEntry> validate(Path artifact) {
+        Path key = artifact.toAbsolutePath().normalize();
+        CatalogEntry entry = entries.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != entry.size()) {
+                return Optional.empty();
+            }
+            if (lastModified == entry.lastModified()) {
+                return Optional.of(entry);
+            }
+            if (sha256(key).equals(entry.sha256())) {
+                CatalogEntry touched = new CatalogEntry(key, entry.size(), lastModified, entry.sha256(), entry.modules());
+                entries.put(key, touched);
+                dirty = true;
+                return Optional.of(touched);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to validate plugin artifact: " + key, e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Records an artifact in the catalog, scanning the module descriptors found on its module path.
+     *
+     * @param artifact          the plugin artifact
+     * @param sha256            the hex encoded SHA-256 hash of the artifact content
+     * @param modulePathEntries the module path entries the artifact was unpacked to
+     * @return the recorded entry
+     */
+    public CatalogEntry record(Path artifact, String sha256, List<Path> modulePathEntries) {
+        return record(artifact, sha256, ModuleFinder.of(modulePathEntries.toArray(Path[]::new)));
+    }
+
+    /**
+     * Records an artifact in the catalog, scanning the module descriptors found by a module finder.
+     *
+     * @param artifact     the plugin artifact
+     * @param sha256       the hex encoded SHA-256 hash of the artifact content
+     * @param moduleFinder the module finder of the modules of the artifact
+     * @return the recorded entry
+     */
+    public CatalogEntry record(Path artifact, String sha256, ModuleFinder moduleFinder) {
+        Path key = artifact.toAbsolutePath().normalize();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+            List<CatalogModule> modules = moduleFinder.findAll().stream()
+                    .map(ModuleReference::descriptor)
+                    .map(PluginCatalog::catalogModule)
+                    .sorted(Comparator.comparing(CatalogModule::name))
+                    .toList();
+            CatalogEntry entry = new CatalogEntry(key, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                    sha256, modules);
+            entries.put(key, entry);
+            dirty = true;
+            return entry;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Removes an artifact from the catalog.
+     *
+     * @param artifact the plugin artifact
+     */
+    public void remove(Path artifact) {
+        if (entries.remove(artifact.toAbsolutePath().normalize()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Removes all artifacts from the catalog that are not in the given collection.
+     *
+     * @param artifacts the plugin artifacts to retain
+     */
+    public void retainAll(Collection<Path> artifacts) {
+        Set<Path> keys = artifacts.stream().map(path -> path.toAbsolutePath().normalize()).collect(Collectors.toSet());
+        if (entries.keySet().retainAll(keys)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Returns the recorded PluggableServiceLoader jar, if it is unchanged and matches the artifact key.
+     *
+     * @param artifactKey the artifact key the jar name must start with
+     * @return the jar, or an empty optional if it must be searched for
+     */
+    public Optional<Path> pluggableServiceLoaderJar(String artifactKey) {
+        LoaderJar recorded = loaderJar;
+        if (recorded == null || !artifactKey.equals(recorded.artifactKey())) {
+            return Optional.empty();
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(recorded.jar(), BasicFileAttributes.class);
+            if (attributes.size() == recorded.size() &&
+                    attributes.lastModifiedTime().toMillis() == recorded.lastModified()) {
+                return Optional.of(recorded.jar());
+            }
+        } catch (IOException e) {
+            // no longer present
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Records the location of the PluggableServiceLoader jar.
+     *
+     * @param jar         the jar
+     * @param artifactKey the artifact key used to find the jar
+     */
+    public void setPluggableServiceLoaderJar(Path jar, String artifactKey) {
+        Path key = jar.toAbsolutePath().normalize();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+            LoaderJar recorded = new LoaderJar(key, artifactKey, attributes.size(), attributes.lastModifiedTime().toMillis());
+            if (!recorded.equals(loaderJar)) {
+                loaderJar = recorded;
+                dirty = true;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to record pluggable service loader jar: " + key, e);
+        }
+    }
+
+    /**
+     * Writes the catalog to its file, if it changed. The file is replaced atomically, so a concurrent or
+     * interrupted write never leaves a partial catalog behind.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            Files.createDirectories(catalogFile.toAbsolutePath().getParent());
+            Path tempFile = Files.createTempFile(catalogFile.toAbsolutePath().getParent(),
+                    catalogFile.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                write().store(out, "Tinkar plugin catalog");
+            }
+            Files.move(tempFile, catalogFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            LOG.warn("Unable to save plugin catalog: " + catalogFile, e);
+        }
+    }
+
+    /**
+     * Returns a key identifying an application by its working directory and plugin directories, under which the
+     * application keeps a catalog of its own. The key does not depend on the order of the plugin directories.
+     *
+     * @param workingDirectory  the working directory of the application
+     * @param pluginDirectories the plugin directories of the application
+     * @return the hex encoded key
+     */
+    public static String applicationKey(Path workingDirectory, Collection<Path> pluginDirectories) {
+        MessageDigest digest = sha256Digest();
+        digest.update(workingDirectory.toAbsolutePath().normalize().toString().getBytes(StandardCharsets.UTF_8));
+        pluginDirectories.stream()
+                .map(directory -> directory.toAbsolutePath().normalize().toString())
+                .sorted()
+                .forEach(directory -> {
+                    digest.update((byte) 0);
+                    digest.update(directory.getBytes(StandardCharsets.UTF_8));
+                });
+        return HexFormat.of().formatHex(digest.digest(), 0, 8);
+    }
+
+    /**
+     * Computes the hex encoded SHA-256 hash of a file's content.
+     *
+     * @param file the file
+     * @return the hash of the file content
+     * @throws IOException if an I/O error occurs reading the file
+     */
+    public static String sha256(Path file) throws IOException {
+        MessageDigest digest = sha256Digest();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Returns a new SHA-256 message digest.
+     *
+     * @return the message digest
+     */
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static CatalogModule catalogModule(ModuleDescriptor descriptor) {
+        Set<String> requires = descriptor.requires().stream()
+                .map(ModuleDescriptor.Requires::name)
+                .collect(Collectors.toCollection(TreeSet::new));
+        Map<String, List<String>> provides = new TreeMap<>();
+        descriptor.provides().forEach(provided -> provides.put(provided.service(), List.copyOf(provided.providers())));
+        return new CatalogModule(descriptor.name(), Collections.unmodifiableSet(requires),
+                Collections.unmodifiableMap(provides));
+    }
+
+    private void read(Properties properties) {
+        if (!CATALOG_VERSION.equals(properties.getProperty("catalog.version"))) {
+            return;
+        }
+        String loaderPath = properties.getProperty("loader.path");
+        if (loaderPath != null) {
+            loaderJar = new LoaderJar(Path.of(loaderPath), properties.getProperty("loader.artifactKey"),
+                    Long.parseLong(properties.getProperty("loader.size")),
+                    Long.parseLong(properties.getProperty("loader.lastModified")));
+        }
+        for (int i = 0; properties.containsKey("artifact." + i + ".path"); i++) {
+            String prefix = "artifact." + i + ".";
+            List<CatalogModule> modules = new ArrayList<>();
+            for (int m = 0; properties.containsKey(prefix + "module." + m + ".name"); m++) {
+                String modulePrefix = prefix + "module." + m + ".";
+                modules.add(new CatalogModule(properties.getProperty(modulePrefix + "name"),
+                        splitRequires(properties.getProperty(modulePrefix + "requires", "")),
+                        splitProvides(properties.getProperty(modulePrefix + "provides", ""))));
+            }
+            Path artifact = Path.of(properties.getProperty(prefix + "path"));
+            entries.put(artifact, new CatalogEntry(artifact,
+                    Long.parseLong(properties.getProperty(prefix + "size")),
+                    Long.parseLong(properties.getProperty(prefix + "lastModified")),
+                    properties.getProperty(prefix + "sha256"),
+                    List.copyOf(modules)));
+        }
+    }
+
+    private Properties write() {
+        Properties properties = new Properties();
+        properties.setProperty("catalog.version", CATALOG_VERSION);
+        LoaderJar recorded = loaderJar;
+        if (recorded != null) {
+            properties.setProperty("loader.path", recorded.jar().toString());
+            properties.setProperty("loader.artifactKey", recorded.artifactKey());
+            properties.setProperty("loader.size", Long.toString(recorded.size()));
+            properties.setProperty("loader.lastModified", Long.toString(recorded.lastModified()));
+        }
+        int i = 0;
+        for (CatalogEntry entry : entries.values()) {
+            String prefix = "artifact." + i++ + ".";
+            properties.setProperty(prefix + "path", entry.artifact().toString());
+            properties.setProperty(prefix + "size", Long.toString(entry.size()));
+            properties.setProperty(prefix + "lastModified", Long.toString(entry.lastModified()));
+            properties.setProperty(prefix + "sha256", entry.sha256());
+            int m = 0;
+            for (CatalogModule module : entry.modules()) {
+                String modulePrefix = prefix + "module." + m++ + ".";
+                properties.setProperty(modulePrefix + "name", module.name());
+                properties.setProperty(modulePrefix + "requires", String.join(",", module.requires()));
+                properties.setProperty(modulePrefix + "provides", module.provides().entrySet().stream()
+                        .map(provided -> provided.getKey() + ":" + String.join("|", provided.getValue()))
+                        .collect(Collectors.joining(",")));
+            }
+        }
+        return properties;
+    }
+
+    private static Set<String> splitRequires(String requires) {
+        if (requires.isEmpty()) {
+            return Set.of();
+        }
+        return Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(requires.split(","))));
+    }
+
+    private static Map<String, List<String>> splitProvides(String provides) {
+        if (provides.isEmpty()) {
+            return Map.of();
+        }
+        Map<String, List<String>> providesMap = new TreeMap<>();
+        for (String provided : provides.split(",")) {
+            int separator = provided.indexOf(':');
+            providesMap.put(provided.substring(0, separator),
+                    List.of(provided.substring(separator + 1).split("\\|")));
+        }
+        return Collections.unmodifiableMap(providesMap);
+    }
+}
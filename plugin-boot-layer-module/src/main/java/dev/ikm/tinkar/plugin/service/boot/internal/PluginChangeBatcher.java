@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The PluginChangeBatcher coalesces the changes of plugin artifacts into batches, so that a burst of changes,
+ * such as copying many plugins into a plugin directory, is applied as a single transition of the plugin layers.
+ * <p>
+ * Changes are merged per artifact path: a delete followed by a create becomes a modification, a create followed
+ * by a delete cancels out, and a modification of a created artifact remains a creation. A batch is handed out
+ * once no change has been offered for the quiet period, and the size and modification time of every created or
+ * modified artifact have stayed the same over the quiet period, so that artifacts still being written are not
+ * loaded.
+ */
+public class PluginChangeBatcher {
+    public static final Duration DEFAULT_QUIET_PERIOD = Duration.ofMillis(500);
+
+    /**
+     * The kind of change of a plugin artifact.
+     */
+    public enum Kind {
+        CREATE, MODIFY, DELETE
+    }
+
+    /**
+     * A change of a plugin artifact.
+     *
+     * @param pluginLayerName the name of the plugin layer of the artifact
+     * @param artifact        the path of the plugin artifact
+     * @param kind            the kind of change
+     */
+    public record PluginChange(String pluginLayerName, Path artifact, Kind kind) {
+    }
+
+    /**
+     * The size and modification time of an artifact, to detect artifacts that are still being written.
+     */
+    private record FileState(long size, long lastModified) {
+        private static final FileState MISSING = new FileState(-1, -1);
+
+        private static FileState of(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                return MISSING;
+            }
+        }
+    }
+
+    private static final class PendingChange {
+        private PluginChange change;
+        private FileState fileState;
+
+        private PendingChange(PluginChange change) {
+            this.change = change;
+            this.fileState = FileState.of(change.artifact());
+        }
+    }
+
+    private final long quietPeriodNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final LinkedHashMap<Path, PendingChange> pendingChanges = new LinkedHashMap<>();
+    private long lastChangeNanos = System.nanoTime();
+
+    /**
+     * Creates a batcher with the given quiet period.
+     *
+     * @param quietPeriod the time without changes after which a batch is handed out
+     */
+    public PluginChangeBatcher(Duration quietPeriod) {
+        this.quietPeriodNanos = quietPeriod.toNanos();
+    }
+
+    /**
+     * Offers a change, merging it with a pending change of the same artifact.
+     *
+     * @param change the change of a plugin artifact
+     */
+    public void offer(PluginChange change) {
+        lock.lock();
+        try {
+            lastChangeNanos = System.nanoTime();
+            PendingChange pending = pendingChanges.get(change.artifact());
+            if (pending == null) {
+                pendingChanges.put(change.artifact(), new PendingChange(change));
+            } else {
+                Kind merged = merge(pending.change.kind(), change.kind());
+                if (merged == null) {
+                    pendingChanges.remove(change.artifact());
+                } else {
+                    pending.change = new PluginChange(change.pluginLayerName(), change.artifact(), merged);
+                    pending.fileState = FileState.of(change.artifact());
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next batch of changes, in the order their artifacts were first changed.
+     *
+     * @return the next batch, never empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<PluginChange> nextBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (pendingChanges.isEmpty()) {
+                    changed.await();
+                    continue;
+                }
+                long remainingNanos = quietPeriodNanos - (System.nanoTime() - lastChangeNanos);
+                if (remainingNanos > 0) {
+                    changed.awaitNanos(remainingNanos);
+                    continue;
+                }
+                if (!artifactsStable()) {
+                    // wait another quiet period for the artifacts to settle
+                    lastChangeNanos = System.nanoTime();
+                    continue;
+                }
+                List<PluginChange> batch = pendingChanges.values().stream().map(pending -> pending.change).toList();
+                pendingChanges.clear();
+                return batch;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean artifactsStable() {
+        boolean stable = true;
+        for (PendingChange pending : pendingChanges.values()) {
+            if (pending.change.kind() == Kind.DELETE) {
+                continue;
+            }
+            FileState fileState = FileState.of(pending.change.artifact());
+            if (!fileState.equals(pending.fileState)) {
+                pending.fileState = fileState;
+                stable = false;
+            }
+        }
+        return stable;
+    }
+
+    /**
+     * Merges a change into a pending change of the same artifact.
+     *
+     * @return the merged kind of change, or null if the changes cancel out
+     */
+    private static Kind merge(Kind pending, Kind next) {
+        return switch (pending) {
+            case CREATE -> next == Kind.DELETE ? null : Kind.CREATE;
+            case MODIFY -> next == Kind.DELETE ? Kind.DELETE : Kind.MODIFY;
+            case DELETE -> next == Kind.DELETE ? Kind.DELETE : Kind.MODIFY;
+        };
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import io.methvin.watcher.DirectoryChangeEvent;
+import io.methvin.watcher.DirectoryChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Watches directories by polling the size and modification time of their files, for file systems without
+ * reliable native events. Changes are reported to a listener as the same {@link DirectoryChangeEvent}s a
+ * DirectoryWatcher reports, so both strategies share one handler.
+ * <p>
+ * Only the files directly in a watched directory and in its shared library subdirectory are polled, as these
+ * are the only files plugin layers are created from. The files present at construction are the baseline and are
+ * not reported.
+ */
+public class PluginDirectoryPoller {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginDirectoryPoller.class);
+    public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(2);
+
+    private record FileState(long size, long lastModified) {
+    }
+
+    private final List<Path> rootPaths;
+    private final DirectoryChangeListener listener;
+    private final Duration interval;
+    private final Map<Path, Map<Path, FileState>> statesByRoot = new HashMap<>();
+
+    /**
+     * Creates a poller and takes the baseline of the directories.
+     *
+     * @param rootPaths the directories to poll
+     * @param listener  the listener to report changes to
+     * @param interval  the time between polls
+     */
+    public PluginDirectoryPoller(List<Path> rootPaths, DirectoryChangeListener listener, Duration interval) {
+        this.rootPaths = List.copyOf(rootPaths);
+        this.listener = listener;
+        this.interval = interval;
+        for (Path rootPath : this.rootPaths) {
+            try {
+                statesByRoot.put(rootPath, poll(rootPath));
+            } catch (IOException e) {
+                LOG.warn("Unable to poll plugin directory " + rootPath, e);
+                statesByRoot.put(rootPath, Map.of());
+            }
+        }
+    }
+
+    /**
+     * Polls the directories until the calling thread is interrupted.
+     */
+    public void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Path rootPath : rootPaths) {
+                Map<Path, FileState> current;
+                try {
+                    current = poll(rootPath);
+                } catch (IOException e) {
+                    // keep the previous state, rather than reporting all files as deleted
+                    LOG.warn("Unable to poll plugin directory " + rootPath, e);
+                    continue;
+                }
+                try {
+                    report(rootPath, statesByRoot.get(rootPath), current);
+                } catch (IOException | RuntimeException e) {
+                    listener.onException(e);
+                }
+                statesByRoot.put(rootPath, current);
+            }
+        }
+    }
+
+    private void report(Path rootPath, Map<Path, FileState> previous, Map<Path, FileState> current)
+            throws IOException {
+        for (Map.Entry<Path, FileState> entry : current.entrySet()) {
+            FileState previousState = previous.get(entry.getKey());
+            if (previousState == null) {
+                listener.onEvent(event(DirectoryChangeEvent.EventType.CREATE, entry.getKey(), rootPath));
+            } else if (!previousState.equals(entry.getValue())) {
+                listener.onEvent(event(DirectoryChangeEvent.EventType.MODIFY, entry.getKey(), rootPath));
+            }
+        }
+        for (Path path : previous.keySet()) {
+            if (!current.containsKey(path)) {
+                listener.onEvent(event(DirectoryChangeEvent.EventType.DELETE, path, rootPath));
+            }
+        }
+    }
+
+    private static DirectoryChangeEvent event(DirectoryChangeEvent.EventType eventType, Path path, Path rootPath) {
+        return new DirectoryChangeEvent(eventType, false, path, null, 1, rootPath);
+    }
+
+    private static Map<Path, FileState> poll(Path rootPath) throws IOException {
+        Map<Path, FileState> states = new HashMap<>();
+        poll(rootPath, states);
+        poll(rootPath.resolve(Layers.SHARED_LIBRARY_DIR), states);
+        return states;
+    }
+
+    private static void poll(Path directory, Map<Path, FileState> states) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : paths.toList()) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        states.put(path, new FileState(attributes.size(), attributes.lastModifiedTime().toMillis()));
+                    }
+                } catch (NoSuchFileException e) {
+                    // deleted while polling, reported by the next poll
+                }
+            }
+        }
+    }
+}
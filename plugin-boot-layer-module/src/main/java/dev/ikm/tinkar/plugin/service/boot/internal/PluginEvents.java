@@ -0,0 +1,229 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of the plugin layers, to find out which step of a slow plugin deployment or
+ * service lookup takes the time. The events are disabled unless a recording enables them, e.g. with
+ * {@code -XX:StartFlightRecording}, and are cheap enough to leave enabled in production recordings: an event
+ * is only filled in if it is enabled and passes the threshold of the recording, and stack traces are not
+ * recorded.
+ * <p>
+ * Every event records its duration and thread. The outcome of an event is {@link #SUCCESS}, or the class name
+ * of the exception the step failed with.
+ */
+public final class PluginEvents {
+    /**
+     * The outcome of a step that completed normally.
+     */
+    public static final String SUCCESS = "success";
+
+    private static final String CATEGORY = "Tinkar";
+    private static final String SUBCATEGORY = "Plugins";
+
+    private PluginEvents() {
+    }
+
+    /**
+     * Returns the outcome of a step that failed.
+     *
+     * @param throwable the exception the step failed with
+     * @return the class name of the exception
+     */
+    public static String failure(Throwable throwable) {
+        return throwable.getClass().getName();
+    }
+
+    /**
+     * Unpacking a plugin artifact into the working directory of its layer.
+     */
+    @Name("dev.ikm.tinkar.plugin.Unpack")
+    @Label("Plugin Unpack")
+    @Description("Staging a plugin jar or extracting a plugin bundle into the working directory of its layer")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class UnpackEvent extends Event {
+        @Label("Plugin Layer")
+        public String pluginLayerName;
+
+        @Label("Artifact")
+        public String artifact;
+
+        @Label("Artifact Size")
+        @DataAmount
+        public long artifactSize;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Resolving the modules of a layer against its parent layers.
+     */
+    @Name("dev.ikm.tinkar.plugin.Resolution")
+    @Label("Plugin Layer Resolution")
+    @Description("Resolving the modules of a layer against its parent layers with Configuration.resolve")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class ResolutionEvent extends Event {
+        @Label("Layer")
+        public String layerName;
+
+        @Label("Module Count")
+        @Description("The number of modules resolved")
+        public int moduleCount;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Defining the module layer of a resolved configuration.
+     */
+    @Name("dev.ikm.tinkar.plugin.LayerDefinition")
+    @Label("Plugin Layer Definition")
+    @Description("Defining the module layer and class loader of a resolved configuration")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class LayerDefinitionEvent extends Event {
+        @Label("Layer")
+        public String layerName;
+
+        @Label("Module Count")
+        public int moduleCount;
+
+        @Label("Class Loader Strategy")
+        public String classLoaderStrategy;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Warming up a plugin layer before it is published to lookups.
+     */
+    @Name("dev.ikm.tinkar.plugin.Warmup")
+    @Label("Plugin Warm-up")
+    @Description("Initializing the provider classes and calling the warm-up hooks of a new plugin layer")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class WarmupEvent extends Event {
+        @Label("Plugin Layer")
+        public String pluginLayerName;
+
+        @Label("Provider Class Count")
+        public int providerClassCount;
+
+        @Label("Hook Count")
+        public int hookCount;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Pointing the PluggableServiceLoader at the registered layers.
+     */
+    @Name("dev.ikm.tinkar.plugin.ServiceLoaderDeployment")
+    @Label("Pluggable Service Loader Deployment")
+    @Description("Handing the PluggableServiceLoader a service layer over the registered layers")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class ServiceLoaderDeploymentEvent extends Event {
+        @Label("Layer Count")
+        @Description("The number of layers the PluggableServiceLoader finds services in")
+        public int layerCount;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Applying a batch of changes of plugin artifacts, from unpacking until the listeners have been notified.
+     */
+    @Name("dev.ikm.tinkar.plugin.Deployment")
+    @Label("Plugin Deployment")
+    @Description("Applying a batch of changes of plugin artifacts as one transition of the plugin layers")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class DeploymentEvent extends Event {
+        @Label("Added Layers")
+        public String addedLayers;
+
+        @Label("Removed Layers")
+        public String removedLayers;
+
+        @Label("Change Count")
+        @Description("The number of artifact changes in the batch")
+        public int changeCount;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Delivering a lifecycle event to a listener.
+     */
+    @Name("dev.ikm.tinkar.plugin.ListenerDispatch")
+    @Label("Plugin Listener Dispatch")
+    @Description("Delivering the addition or removal of a plugin layer to a PluginLifecycleListener")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class ListenerDispatchEvent extends Event {
+        @Label("Plugin Layer")
+        public String pluginLayerName;
+
+        @Label("Listener")
+        public Class<?> listener;
+
+        @Label("Added")
+        @Description("True for the addition of the plugin layer, false for its removal")
+        public boolean added;
+
+        @Label("Outcome")
+        public String outcome;
+    }
+
+    /**
+     * Looking up the providers of a service through PluggableService.
+     */
+    @Name("dev.ikm.tinkar.plugin.ServiceLookup")
+    @Label("Plugin Service Lookup")
+    @Description("Looking up the providers of a service through PluggableService")
+    @Category({CATEGORY, SUBCATEGORY})
+    @StackTrace(false)
+    public static final class ServiceLookupEvent extends Event {
+        @Label("Service")
+        public Class<?> service;
+
+        @Label("Method")
+        @Description("The PluggableService method used: loader, providers or stream")
+        public String method;
+
+        @Label("Provider Count")
+        @Description("The number of providers, as declared by the modules of the registered layers for loader " +
+                "and stream, or -1 if PluggableService has not been set up")
+        public int providerCount;
+    }
+}
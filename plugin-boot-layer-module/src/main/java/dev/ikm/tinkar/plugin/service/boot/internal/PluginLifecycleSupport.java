@@ -16,55 +16,336 @@
 package dev.ikm.tinkar.plugin.service.boot.internal;
 
 import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Iterator;
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Invoked by the launcher whenever a plugin layer gets added or removed.
- * Invokes all registered {@link PluginLifecycleListener}s in turn.
+ * Delivers the events to all registered {@link PluginLifecycleListener}s.
+ * <p>
+ * The listeners of a layer are discovered and instantiated once, when the layer is registered, and dropped
+ * when it is unregistered. Each listener is registered only through its defining layer, not through other
+ * layers derived from that, so every listener is notified exactly once per event.
+ * <p>
+ * Events are delivered asynchronously: every listener has its own lane, a bounded queue drained by a virtual
+ * thread, so a listener receives events in order, and a slow listener delays neither the deployment of plugins
+ * nor the other listeners. Events that do not fit in the queue of a lane are dropped and reported. A listener
+ * that handles an event for longer than the listener timeout is reported, and its lane thread is interrupted.
+ * Timeouts are checked by one watchdog thread shared by all instances, which holds an instance only weakly, so a
+ * discarded instance does not stay reachable through it.
  */
 public class PluginLifecycleSupport {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginLifecycleSupport.class);
+    public static final Duration DEFAULT_LISTENER_TIMEOUT = Duration.ofSeconds(10);
+    public static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 256;
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable ->
+            Thread.ofPlatform().daemon().name("Plugin lifecycle listener watchdog").unstarted(runnable));
+
+    private final LinkedHashMap<ModuleLayer, List<ListenerLane>> lanesByLayer = new LinkedHashMap<>();
+    private final long listenerTimeoutNanos;
+    private final int listenerQueueCapacity;
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private final Condition eventDelivered = deliveryLock.newCondition();
+    private final ScheduledFuture<?> watchdogTask;
 
     /**
-     * Notifies registered PluginLifecycleListeners about the addition of a plugin layer.
+     * A lifecycle event for a plugin layer.
      *
-     * @param listenerModuleLayer        the module layer of the listener
-     * @param pluginNameAndModuleLayer   the name and module layer of the plugin being added
+     * @param added                    true for an added layer, false for a layer being removed
+     * @param pluginNameAndModuleLayer the name and module layer of the plugin
+     */
+    private record LifecycleEvent(boolean added, PluginNameAndModuleLayer pluginNameAndModuleLayer) {
+        private void deliverTo(PluginLifecycleListener listener) {
+            if (added) {
+                listener.pluginLayerAdded(pluginNameAndModuleLayer.name(), pluginNameAndModuleLayer.moduleLayer());
+            } else {
+                listener.pluginLayerBeingRemoved(pluginNameAndModuleLayer.name(), pluginNameAndModuleLayer.moduleLayer());
+            }
+        }
+    }
+
+    /**
+     * Creates the lifecycle support, with the given listener timeout and lane queue capacity.
      *
-     * @throws NullPointerException if either listenerModuleLayer or pluginNameAndModuleLayer is null
+     * @param listenerTimeout       the time a listener may take to handle an event
+     * @param listenerQueueCapacity the number of events that may be queued for a listener
      */
-    public void notifyPluginLayerListenersOnAddition(ModuleLayer listenerModuleLayer, PluginNameAndModuleLayer pluginNameAndModuleLayer) {
-        ServiceLoader<PluginLifecycleListener> loader = ServiceLoader.load(listenerModuleLayer, PluginLifecycleListener.class);
+    public PluginLifecycleSupport(Duration listenerTimeout, int listenerQueueCapacity) {
+        this.listenerTimeoutNanos = listenerTimeout.toNanos();
+        this.listenerQueueCapacity = listenerQueueCapacity;
+        long checkIntervalMillis = Math.max(1, listenerTimeout.toMillis() / 4);
+        WeakReference<PluginLifecycleSupport> reference = new WeakReference<>(this);
+        this.watchdogTask = WATCHDOG.scheduleWithFixedDelay(() -> {
+            PluginLifecycleSupport pluginLifecycleSupport = reference.get();
+            if (pluginLifecycleSupport == null) {
+                // an exception ends a periodic task
+                throw new CancellationException("Plugin lifecycle support collected");
+            }
+            pluginLifecycleSupport.interruptTimedOutListeners();
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
 
-        Iterator<PluginLifecycleListener> listeners = loader.iterator();
-        while (listeners.hasNext()) {
-            PluginLifecycleListener listener = listeners.next();
+    /**
+     * Stops checking the listeners for timeouts, and drops the listeners of all layers. Events already queued for
+     * them are still delivered.
+     */
+    public void shutdown() {
+        watchdogTask.cancel(false);
+        List<ModuleLayer> listenerModuleLayers;
+        synchronized (lanesByLayer) {
+            listenerModuleLayers = List.copyOf(lanesByLayer.keySet());
+        }
+        listenerModuleLayers.forEach(this::unregister);
+    }
 
-            // notify each listener only through its defining layer, but not via other layers
-            // derived from that
-            if (listener.getClass().getModule().getLayer().equals(listenerModuleLayer)) {
-                listener.pluginLayerAdded(pluginNameAndModuleLayer.name(), pluginNameAndModuleLayer.moduleLayer());
+    /**
+     * Registers the listeners defined in a layer, unless the layer is already registered.
+     *
+     * @param listenerModuleLayer the module layer defining the listeners
+     */
+    public void register(ModuleLayer listenerModuleLayer) {
+        synchronized (lanesByLayer) {
+            if (lanesByLayer.containsKey(listenerModuleLayer)) {
+                return;
+            }
+        }
+        // only instantiate the listeners of the layer itself, not those visible through its parents
+        register(listenerModuleLayer, ServiceLoader.load(listenerModuleLayer, PluginLifecycleListener.class)
+                .stream()
+                .filter(provider -> provider.type().getModule().getLayer() == listenerModuleLayer)
+                .map(ServiceLoader.Provider::get)
+                .toList());
+    }
+
+    /**
+     * Registers the given listeners for a layer, unless the layer is already registered.
+     *
+     * @param listenerModuleLayer the module layer defining the listeners
+     * @param listeners           the listeners of the layer
+     */
+    void register(ModuleLayer listenerModuleLayer, List<PluginLifecycleListener> listeners) {
+        synchronized (lanesByLayer) {
+            if (!lanesByLayer.containsKey(listenerModuleLayer)) {
+                lanesByLayer.put(listenerModuleLayer, listeners.stream().map(ListenerLane::new).toList());
             }
         }
     }
 
+    /**
+     * Drops the listeners defined in a layer. Events already queued for them are still delivered.
+     *
+     * @param listenerModuleLayer the module layer defining the listeners
+     */
+    public void unregister(ModuleLayer listenerModuleLayer) {
+        List<ListenerLane> lanes;
+        synchronized (lanesByLayer) {
+            lanes = lanesByLayer.remove(listenerModuleLayer);
+        }
+        if (lanes != null) {
+            lanes.forEach(ListenerLane::stop);
+        }
+    }
+
+    /**
+     * Notifies registered PluginLifecycleListeners about the addition of a plugin layer.
+     *
+     * @param pluginNameAndModuleLayer   the name and module layer of the plugin being added
+     *
+     * @throws NullPointerException if pluginNameAndModuleLayer is null
+     */
+    public void notifyPluginLayerListenersOnAddition(PluginNameAndModuleLayer pluginNameAndModuleLayer) {
+        publish(new LifecycleEvent(true, pluginNameAndModuleLayer));
+    }
+
     /**
      * Notifies registered plugin layer listeners about the removal of a plugin layer.
      *
-     * @param listenerModuleLayer the module layer of the listener
      * @param pluginNameAndModuleLayer the name and module layer of the plugin being removed
      */
-    public void notifyPluginLayerListenersOnRemoval(ModuleLayer listenerModuleLayer, PluginNameAndModuleLayer pluginNameAndModuleLayer) {
-        ServiceLoader<PluginLifecycleListener> loader = ServiceLoader.load(listenerModuleLayer, PluginLifecycleListener.class);
+    public void notifyPluginLayerListenersOnRemoval(PluginNameAndModuleLayer pluginNameAndModuleLayer) {
+        publish(new LifecycleEvent(false, pluginNameAndModuleLayer));
+    }
 
-        Iterator<PluginLifecycleListener> listeners = loader.iterator();
-        while (listeners.hasNext()) {
-            PluginLifecycleListener listener = listeners.next();
+    private void publish(LifecycleEvent event) {
+        for (ListenerLane lane : lanes()) {
+            lane.offer(event);
+        }
+    }
 
-            // notify each listener only through its defining layer, but not via other layers derived from that
-            if (listener.getClass().getModule().getLayer().equals(listenerModuleLayer)) {
-                listener.pluginLayerBeingRemoved(pluginNameAndModuleLayer.name(), pluginNameAndModuleLayer.moduleLayer());
+    /**
+     * Waits until the events published so far have been delivered to the registered listeners, or dropped.
+     * The lanes signal every delivered event, so the caller blocks rather than polls.
+     *
+     * @param timeout the maximum time to wait
+     * @return true if the events have been delivered, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitDelivery(Duration timeout) throws InterruptedException {
+        long remainingNanos = timeout.toNanos();
+        deliveryLock.lockInterruptibly();
+        try {
+            for (ListenerLane lane : lanes()) {
+                long published = lane.offeredEvents.get();
+                while (lane.deliveredEvents.get() < published) {
+                    if (remainingNanos <= 0) {
+                        return false;
+                    }
+                    remainingNanos = eventDelivered.awaitNanos(remainingNanos);
+                }
+            }
+            return true;
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    private void signalDelivery() {
+        deliveryLock.lock();
+        try {
+            eventDelivered.signalAll();
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    private List<ListenerLane> lanes() {
+        synchronized (lanesByLayer) {
+            return lanesByLayer.values().stream().flatMap(List::stream).toList();
+        }
+    }
+
+    private void interruptTimedOutListeners() {
+        long now = System.nanoTime();
+        for (ListenerLane lane : lanes()) {
+            lane.interruptIfTimedOut(now);
+        }
+    }
+
+    /**
+     * Delivers events to one listener, in order, on its own virtual thread.
+     */
+    private final class ListenerLane {
+        private static final LifecycleEvent STOP = new LifecycleEvent(false, null);
+
+        private final PluginLifecycleListener listener;
+        private final BlockingQueue<LifecycleEvent> events = new ArrayBlockingQueue<>(listenerQueueCapacity);
+        private final AtomicLong droppedEvents = new AtomicLong();
+        private final AtomicLong offeredEvents = new AtomicLong();
+        private final AtomicLong deliveredEvents = new AtomicLong();
+        private final Thread thread;
+        private volatile boolean stopped;
+        /**
+         * Guards the event being handled against the watchdog, so the lane thread is only interrupted while the
+         * timed out event is still being handled.
+         */
+        private final ReentrantLock dispatchLock = new ReentrantLock();
+        private LifecycleEvent currentEvent;
+        private long currentEventStartNanos;
+        private LifecycleEvent timedOutEvent;
+
+        private ListenerLane(PluginLifecycleListener listener) {
+            this.listener = listener;
+            this.thread = Thread.ofVirtual()
+                    .name("Plugin lifecycle listener " + listener.getClass().getName())
+                    .start(this::deliverEvents);
+        }
+
+        private void offer(LifecycleEvent event) {
+            if (events.offer(event)) {
+                offeredEvents.incrementAndGet();
+            } else {
+                LOG.warn("Dropped lifecycle event for plugin layer " + event.pluginNameAndModuleLayer().name() +
+                        ", as the queue of listener " + listener.getClass().getName() + " is full (" +
+                        droppedEvents.incrementAndGet() + " dropped events)");
+            }
+        }
+
+        private void stop() {
+            stopped = true;
+            // if the queue is full, the lane stops once it is drained
+            events.offer(STOP);
+        }
+
+        private void interruptIfTimedOut(long now) {
+            dispatchLock.lock();
+            try {
+                LifecycleEvent event = currentEvent;
+                if (event != null && event != timedOutEvent && now - currentEventStartNanos > listenerTimeoutNanos) {
+                    timedOutEvent = event;
+                    LOG.warn("Listener " + listener.getClass().getName() + " timed out after " +
+                            TimeUnit.NANOSECONDS.toMillis(listenerTimeoutNanos) + " ms handling plugin layer " +
+                            event.pluginNameAndModuleLayer().name() + ", interrupting it");
+                    thread.interrupt();
+                }
+            } finally {
+                dispatchLock.unlock();
+            }
+        }
+
+        private void deliverEvents() {
+            while (!(stopped && events.isEmpty())) {
+                LifecycleEvent event;
+                try {
+                    event = events.take();
+                } catch (InterruptedException e) {
+                    // the watchdog only interrupts while an event is handled, but the listener may interrupt itself
+                    continue;
+                }
+                if (event == STOP) {
+                    return;
+                }
+                dispatchLock.lock();
+                try {
+                    currentEventStartNanos = System.nanoTime();
+                    currentEvent = event;
+                } finally {
+                    dispatchLock.unlock();
+                }
+                PluginEvents.ListenerDispatchEvent dispatchEvent = new PluginEvents.ListenerDispatchEvent();
+                dispatchEvent.begin();
+                try {
+                    event.deliverTo(listener);
+                    dispatchEvent.outcome = PluginEvents.SUCCESS;
+                } catch (Throwable e) {
+                    // errors of a plugin, such as a NoClassDefFoundError, must not end the lane
+                    dispatchEvent.outcome = PluginEvents.failure(e);
+                    LOG.error("Listener " + listener.getClass().getName() + " failed handling plugin layer " +
+                            event.pluginNameAndModuleLayer().name(), e);
+                } finally {
+                    dispatchEvent.end();
+                    if (dispatchEvent.shouldCommit()) {
+                        dispatchEvent.pluginLayerName = event.pluginNameAndModuleLayer().name();
+                        dispatchEvent.listener = listener.getClass();
+                        dispatchEvent.added = event.added();
+                        dispatchEvent.commit();
+                    }
+                    dispatchLock.lock();
+                    try {
+                        currentEvent = null;
+                        // clear an interrupt of a timed out listener, before the next event can be interrupted
+                        Thread.interrupted();
+                    } finally {
+                        dispatchLock.unlock();
+                    }
+                    deliveredEvents.incrementAndGet();
+                    signalDelivery();
+                }
             }
         }
     }
@@ -0,0 +1,279 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import dev.ikm.tinkar.plugin.service.boot.PinnedPluginLayer;
+import dev.ikm.tinkar.plugin.service.boot.PluggableService;
+import dev.ikm.tinkar.plugin.service.boot.management.PluginLayerMXBean;
+import dev.ikm.tinkar.plugin.service.boot.management.PluginRuntimeMXBean;
+import dev.ikm.tinkar.plugin.service.boot.management.ServiceLookupMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.lang.module.ModuleDescriptor;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registers the MXBeans of the plugin runtime with the platform MBean server: the {@link PluginRuntimeMXBean},
+ * the {@link ServiceLookupMXBean}, and a {@link PluginLayerMXBean} for each registered layer, which is
+ * unregistered when its layer is removed, so that the MBean server does not keep removed layers reachable.
+ */
+public class PluginManagement {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginManagement.class);
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final Layers layers;
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    private final ConcurrentHashMap<String, LongAdder> lookupCounts = new ConcurrentHashMap<>();
+
+    private PluginManagement(Layers layers) {
+        this.layers = layers;
+    }
+
+    /**
+     * Registers the MXBeans of the plugin runtime, and keeps the layer MXBeans in step with the registered
+     * layers. An MXBean already registered under the same name, by an earlier runtime, is replaced.
+     *
+     * @param layers the layers of the plugin runtime
+     * @return the plugin management, or an empty optional if the MXBeans could not be registered
+     */
+    public static Optional<PluginManagement> register(Layers layers) {
+        PluginManagement pluginManagement = new PluginManagement(layers);
+        try {
+            pluginManagement.registerMBean(
+                    new StandardMBean(pluginManagement.new RuntimeBean(), PluginRuntimeMXBean.class, true),
+                    new ObjectName(PluginRuntimeMXBean.OBJECT_NAME));
+            pluginManagement.registerMBean(
+                    new StandardMBean(pluginManagement.new LookupsBean(), ServiceLookupMXBean.class, true),
+                    new ObjectName(ServiceLookupMXBean.OBJECT_NAME));
+        } catch (JMException e) {
+            LOG.warn("Unable to register the plugin runtime MXBeans", e);
+            return Optional.empty();
+        }
+        layers.addLayerChangeListener(pluginManagement::layersChanged);
+        pluginManagement.layersChanged(layers.registeredLayers(), List.of());
+        return Optional.of(pluginManagement);
+    }
+
+    /**
+     * Counts a lookup of a service.
+     *
+     * @param service the looked up service
+     */
+    public void recordLookup(Class<?> service) {
+        LongAdder count = lookupCounts.get(service.getName());
+        if (count == null) {
+            count = lookupCounts.computeIfAbsent(service.getName(), name -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    private void layersChanged(Collection<PluginNameAndModuleLayer> added, Collection<PluginNameAndModuleLayer> removed) {
+        for (PluginNameAndModuleLayer removedLayer : removed) {
+            try {
+                ObjectName objectName = layerObjectName(removedLayer.name());
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                LOG.warn("Unable to unregister the MXBean of plugin layer " + removedLayer.name(), e);
+            }
+        }
+        for (PluginNameAndModuleLayer addedLayer : added) {
+            try {
+                registerMBean(new StandardMBean(new LayerBean(addedLayer), PluginLayerMXBean.class, true),
+                        layerObjectName(addedLayer.name()));
+            } catch (JMException e) {
+                LOG.warn("Unable to register the MXBean of plugin layer " + addedLayer.name(), e);
+            }
+        }
+    }
+
+    private void registerMBean(Object mBean, ObjectName objectName) throws JMException {
+        if (mBeanServer.isRegistered(objectName)) {
+            mBeanServer.unregisterMBean(objectName);
+        }
+        mBeanServer.registerMBean(mBean, objectName);
+    }
+
+    private static ObjectName layerObjectName(String layerName) throws JMException {
+        return new ObjectName(PluginLayerMXBean.OBJECT_NAME_PREFIX + ObjectName.quote(layerName));
+    }
+
+    private final class RuntimeBean implements PluginRuntimeMXBean {
+        @Override
+        public String getServiceLoaderPath() {
+            return System.getProperty(PluggableService.PATH_KEY);
+        }
+
+        @Override
+        public String[] getPluginDirectories() {
+            return layers.pluginsDirectories().stream()
+                    .sorted(Comparator.comparing(PluginWatchDirectory::name))
+                    .map(pluginDirectory -> pluginDirectory.name() + "=" + pluginDirectory.directory())
+                    .toArray(String[]::new);
+        }
+
+        @Override
+        public String[] getLayerNames() {
+            return layers.registeredLayers().stream().map(PluginNameAndModuleLayer::name).toArray(String[]::new);
+        }
+
+        @Override
+        public int getLayerCount() {
+            return layers.registeredLayers().size();
+        }
+
+        @Override
+        public String[] getPendingLayerNames() {
+            return layers.pendingPluginLayerNames().stream().sorted().toArray(String[]::new);
+        }
+
+        @Override
+        public String[] getPinnedLayerNames() {
+            return layers.pinnedPluginLayers().stream().map(PinnedPluginLayer::name).toArray(String[]::new);
+        }
+
+        @Override
+        public long getDeploymentCount() {
+            return layers.deploymentStats().deploymentCount();
+        }
+
+        @Override
+        public long getFailedDeploymentCount() {
+            return layers.deploymentStats().failedDeploymentCount();
+        }
+
+        @Override
+        public long getAddedLayerCount() {
+            return layers.deploymentStats().addedLayerCount();
+        }
+
+        @Override
+        public long getRemovedLayerCount() {
+            return layers.deploymentStats().removedLayerCount();
+        }
+
+        @Override
+        public double getLastDeploymentMillis() {
+            return layers.deploymentStats().lastNanos() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getMeanDeploymentMillis() {
+            return layers.deploymentStats().meanNanos() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public double getMaxDeploymentMillis() {
+            return layers.deploymentStats().maxNanos() / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public int rescan() {
+            return layers.rescan();
+        }
+
+        @Override
+        public boolean undeploy(String layerName) {
+            return layers.undeployPluginLayer(layerName);
+        }
+    }
+
+    private final class LookupsBean implements ServiceLookupMXBean {
+        @Override
+        public Map<String, Long> getLookupCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            lookupCounts.forEach((service, count) -> counts.put(service, count.sum()));
+            return counts;
+        }
+
+        @Override
+        public long getTotalLookupCount() {
+            return lookupCounts.values().stream().mapToLong(LongAdder::sum).sum();
+        }
+
+        @Override
+        public void reset() {
+            lookupCounts.clear();
+        }
+    }
+
+    private static final class LayerBean implements PluginLayerMXBean {
+        private final PluginNameAndModuleLayer pluginLayer;
+        private final Instant registeredAt = Instant.now();
+        private volatile int classCount = -1;
+
+        private LayerBean(PluginNameAndModuleLayer pluginLayer) {
+            this.pluginLayer = pluginLayer;
+        }
+
+        @Override
+        public String getName() {
+            return pluginLayer.name();
+        }
+
+        @Override
+        public String getRegisteredAt() {
+            return registeredAt.toString();
+        }
+
+        @Override
+        public String[] getModuleNames() {
+            return pluginLayer.moduleLayer().modules().stream().map(Module::getName).sorted().toArray(String[]::new);
+        }
+
+        @Override
+        public int getModuleCount() {
+            return pluginLayer.moduleLayer().modules().size();
+        }
+
+        @Override
+        public int getClassCount() {
+            if (classCount < 0) {
+                classCount = RemovedLayerTracker.countClasses(pluginLayer.moduleLayer());
+            }
+            return classCount;
+        }
+
+        @Override
+        public int getClassLoaderCount() {
+            return (int) pluginLayer.moduleLayer().modules().stream()
+                    .map(Module::getClassLoader)
+                    .filter(Objects::nonNull)
+                    .distinct()
+                    .count();
+        }
+
+        @Override
+        public String[] getProvidedServices() {
+            return pluginLayer.moduleLayer().modules().stream()
+                    .flatMap(module -> module.getDescriptor().provides().stream())
+                    .map(ModuleDescriptor.Provides::service)
+                    .distinct()
+                    .sorted()
+                    .toArray(String[]::new);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Mirrors the artifacts of a {@link PluginSource} into a plugin directory, so that the nodes of a fleet pick up
+ * the same plugins without external copy scripts.
+ * <p>
+ * Only artifacts whose content hash differs from the local file are fetched, in parallel on virtual threads.
+ * Each artifact is transferred into a hidden {@code .part} file next to it, which a later sync resumes from
+ * where the transfer stopped. Once its size and SHA-256 hash match the index, the part file is atomically
+ * renamed to the artifact, so the directory watcher never sees a partially written plugin. Artifacts installed
+ * by an earlier sync and no longer listed in the index are deleted; artifacts copied into the directory by
+ * other means are left alone.
+ * <p>
+ * The state of the mirror, the hash, size and modification time of each installed artifact, is kept in a
+ * hidden file in the plugin directory, so an unchanged artifact is recognized without hashing it again.
+ */
+public class PluginRepositorySync {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginRepositorySync.class);
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMinutes(5);
+    static final String STATE_FILE_NAME = ".plugin-repository-sync.properties";
+    static final String PART_SUFFIX = ".part";
+    private static final int MAX_PARALLEL_FETCHES = 8;
+
+    /**
+     * The outcome of a sync, by artifact file name.
+     *
+     * @param fetched   the artifacts transferred and installed
+     * @param unchanged the artifacts that were already up to date
+     * @param removed   the artifacts deleted, as they are no longer listed in the index
+     * @param failed    the artifacts that could not be fetched or failed verification
+     */
+    public record Result(List<String> fetched, List<String> unchanged, List<String> removed, List<String> failed) {
+    }
+
+    /**
+     * An installed artifact, as recorded in the state file.
+     */
+    private record Installed(String sha256, long size, long lastModified) {
+        private static Optional<Installed> parse(String value) {
+            String[] fields = value.split(" ");
+            if (fields.length != 3) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(new Installed(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            } catch (NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+
+        private String format() {
+            return sha256 + " " + size + " " + lastModified;
+        }
+    }
+
+    private final PluginSource pluginSource;
+    private final Path pluginDirectory;
+    private final Semaphore fetchPermits = new Semaphore(MAX_PARALLEL_FETCHES);
+
+    /**
+     * Creates a sync mirroring a source into a plugin directory.
+     *
+     * @param pluginSource    the plugin source
+     * @param pluginDirectory the plugin directory
+     */
+    public PluginRepositorySync(PluginSource pluginSource, Path pluginDirectory) {
+        this.pluginSource = pluginSource;
+        this.pluginDirectory = pluginDirectory;
+    }
+
+    /**
+     * Mirrors the source into the plugin directory once. An artifact that fails does not affect the others; a
+     * previously installed version of it stays in place.
+     *
+     * @return the outcome of the sync
+     * @throws IOException if the index cannot be read
+     */
+    public synchronized Result sync() throws IOException {
+        List<PluginSource.Entry> index = pluginSource.index();
+        Map<String, Installed> installed = readState();
+        Map<String, PluginSource.Entry> entriesByFileName = new LinkedHashMap<>();
+        for (PluginSource.Entry entry : index) {
+            String fileName = entry.fileName();
+            if (!isArtifactFileName(fileName)) {
+                LOG.warn("Ignoring plugin index entry that is not a plugin artifact: " + entry.path());
+            } else if (entriesByFileName.putIfAbsent(fileName, entry) != null) {
+                LOG.warn("Ignoring plugin index entry with the same file name as another entry: " + entry.path());
+            }
+        }
+
+        List<String> fetched = new ArrayList<>();
+        List<String> unchanged = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        Map<String, Installed> newState = new TreeMap<>();
+        Map<String, Future<Installed>> fetches = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (PluginSource.Entry entry : entriesByFileName.values()) {
+                Optional<Installed> upToDate = upToDate(entry, installed.get(entry.fileName()));
+                if (upToDate.isPresent()) {
+                    unchanged.add(entry.fileName());
+                    newState.put(entry.fileName(), upToDate.get());
+                } else {
+                    fetches.put(entry.fileName(), executor.submit(() -> fetchWithPermit(entry)));
+                }
+            }
+            for (Map.Entry<String, Future<Installed>> fetch : fetches.entrySet()) {
+                String fileName = fetch.getKey();
+                try {
+                    newState.put(fileName, fetch.getValue().get());
+                    fetched.add(fileName);
+                } catch (ExecutionException e) {
+                    LOG.error("Unable to fetch plugin " + fileName + " from " + pluginSource, e.getCause());
+                    failed.add(fileName);
+                    Installed previous = installed.get(fileName);
+                    if (previous != null) {
+                        // the previous version stays installed, and is removed once it leaves the index
+                        newState.put(fileName, previous);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted syncing plugins from " + pluginSource, e);
+        }
+
+        for (String fileName : installed.keySet()) {
+            if (!entriesByFileName.containsKey(fileName)) {
+                Files.deleteIfExists(pluginDirectory.resolve(fileName));
+                Files.deleteIfExists(partFile(fileName));
+                removed.add(fileName);
+            }
+        }
+        writeState(newState);
+        if (!fetched.isEmpty() || !removed.isEmpty() || !failed.isEmpty()) {
+            LOG.info("Synced plugins from " + pluginSource + ": fetched " + fetched + ", removed " + removed +
+                    ", failed " + failed);
+        }
+        return new Result(List.copyOf(fetched), List.copyOf(unchanged), List.copyOf(removed), List.copyOf(failed));
+    }
+
+    /**
+     * Starts syncing periodically on a virtual thread, until the thread is interrupted.
+     *
+     * @param interval the time between the end of a sync and the start of the next
+     * @return the sync thread
+     */
+    public Thread start(Duration interval) {
+        return Thread.ofVirtual().name("Plugin repository sync thread").start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(interval);
+                    sync();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | UncheckedIOException e) {
+                    LOG.warn("Unable to sync plugins from " + pluginSource + ", retrying in " + interval, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the installed state of an artifact if the local file matches the index entry. The file is only
+     * hashed if it differs from the recorded state.
+     */
+    private Optional<Installed> upToDate(PluginSource.Entry entry, Installed recorded) throws IOException {
+        Path artifact = pluginDirectory.resolve(entry.fileName());
+        if (!Files.isRegularFile(artifact)) {
+            return Optional.empty();
+        }
+        BasicFileAttributes attributes = Files.readAttributes(artifact, BasicFileAttributes.class);
+        if (attributes.size() != entry.size()) {
+            return Optional.empty();
+        }
+        Installed current = new Installed(entry.sha256(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        if (current.equals(recorded)) {
+            return Optional.of(current);
+        }
+        return PluginCatalog.sha256(artifact).equals(entry.sha256()) ? Optional.of(current) : Optional.empty();
+    }
+
+    private Installed fetchWithPermit(PluginSource.Entry entry) throws IOException, InterruptedException {
+        fetchPermits.acquire();
+        try {
+            return fetch(entry);
+        } finally {
+            fetchPermits.release();
+        }
+    }
+
+    /**
+     * Transfers an artifact into its part file, resuming a previous transfer, and installs it once verified. A
+     * resumed transfer that fails verification is retried once from the start.
+     */
+    private Installed fetch(PluginSource.Entry entry) throws IOException {
+        Path partFile = partFile(entry.fileName());
+        try {
+            transfer(entry, partFile);
+        } catch (ChecksumException e) {
+            if (e.resumedFrom == 0) {
+                throw e;
+            }
+            LOG.warn("Resumed transfer of " + entry.fileName() + " failed verification, transferring it again");
+            Files.deleteIfExists(partFile);
+            transfer(entry, partFile);
+        }
+        Path artifact = pluginDirectory.resolve(entry.fileName());
+        Files.move(partFile, artifact, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new Installed(entry.sha256(), entry.size(), Files.getLastModifiedTime(artifact).toMillis());
+    }
+
+    private void transfer(PluginSource.Entry entry, Path partFile) throws IOException {
+        long offset = Files.isRegularFile(partFile) ? Files.size(partFile) : 0;
+        if (offset > entry.size()) {
+            Files.delete(partFile);
+            offset = 0;
+        }
+        MessageDigest digest = PluginCatalog.sha256Digest();
+        if (offset > 0) {
+            try (InputStream in = new DigestInputStream(Files.newInputStream(partFile), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        long size = offset;
+        if (offset < entry.size()) {
+            try (InputStream in = new DigestInputStream(pluginSource.open(entry, offset), digest);
+                 OutputStream out = Files.newOutputStream(partFile, StandardOpenOption.CREATE,
+                         StandardOpenOption.APPEND)) {
+                size += in.transferTo(out);
+            }
+        }
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        if (size != entry.size() || !sha256.equals(entry.sha256())) {
+            Files.deleteIfExists(partFile);
+            throw new ChecksumException("Fetched " + entry.fileName() + " has size " + size + " and SHA-256 " +
+                    sha256 + ", expected size " + entry.size() + " and SHA-256 " + entry.sha256(), offset);
+        }
+    }
+
+    private Path partFile(String fileName) {
+        return pluginDirectory.resolve("." + fileName + PART_SUFFIX);
+    }
+
+    private static boolean isArtifactFileName(String fileName) {
+        return !fileName.isEmpty() && !fileName.startsWith(".") && !fileName.contains("\\") &&
+                (fileName.endsWith(".jar") || PluginBundleExtractor.isBundle(fileName));
+    }
+
+    private Map<String, Installed> readState() {
+        Map<String, Installed> state = new HashMap<>();
+        Path stateFile = pluginDirectory.resolve(STATE_FILE_NAME);
+        if (Files.isRegularFile(stateFile)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(stateFile)) {
+                properties.load(in);
+            } catch (IOException e) {
+                LOG.warn("Unable to read plugin repository sync state " + stateFile + ", rehashing artifacts", e);
+            }
+            properties.stringPropertyNames().forEach(fileName -> Installed.parse(properties.getProperty(fileName))
+                    .ifPresent(installed -> state.put(fileName, installed)));
+        }
+        return state;
+    }
+
+    private void writeState(Map<String, Installed> state) throws IOException {
+        Properties properties = new Properties();
+        state.forEach((fileName, installed) -> properties.setProperty(fileName, installed.format()));
+        Path stateFile = pluginDirectory.resolve(STATE_FILE_NAME);
+        Path tempFile = pluginDirectory.resolve(STATE_FILE_NAME + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            properties.store(out, "Plugin artifacts installed from " + pluginSource);
+        }
+        Files.move(tempFile, stateFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A fetched artifact that does not match its index entry.
+     */
+    private static final class ChecksumException extends IOException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final long resumedFrom;
+
+        private ChecksumException(String message, long resumedFrom) {
+            super(message);
+            this.resumedFrom = resumedFrom;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A source of plugin artifacts that a {@link PluginRepositorySync} mirrors into a plugin directory. A source
+ * publishes an index of its artifacts, one per line:
+ * <pre>
+ * # sha256 size path
+ * 3b0c...e1 48213 plugins/plugin-message-provider-1.0.0.jar
+ * </pre>
+ * The path of an artifact is relative to the index, and its file name is the name it is mirrored under. Blank
+ * lines and lines starting with # are ignored.
+ */
+public interface PluginSource {
+
+    /**
+     * An artifact listed in the index of a plugin source.
+     *
+     * @param path   the path of the artifact, relative to the index
+     * @param size   the size of the artifact in bytes
+     * @param sha256 the hex encoded SHA-256 hash of the artifact
+     */
+    record Entry(String path, long size, String sha256) {
+        /**
+         * Returns the file name the artifact is mirrored under.
+         *
+         * @return the last segment of the path
+         */
+        public String fileName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+    }
+
+    /**
+     * Reads the index of the source.
+     *
+     * @return the artifacts of the source
+     * @throws IOException if the index cannot be read or parsed
+     */
+    List<Entry> index() throws IOException;
+
+    /**
+     * Opens the content of an artifact, starting at an offset, to resume a partial transfer.
+     *
+     * @param entry  the artifact
+     * @param offset the number of bytes to skip
+     * @return the content of the artifact from the offset on
+     * @throws IOException if the artifact cannot be read
+     */
+    InputStream open(Entry entry, long offset) throws IOException;
+
+    /**
+     * Returns the source for a location: an http or https URI of an index is read with an
+     * {@link HttpPluginSource}, any other location is the path of an index file read with a
+     * {@link FilePluginSource}.
+     *
+     * @param location the location of the index
+     * @return the plugin source
+     */
+    static PluginSource of(String location) {
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            return new HttpPluginSource(URI.create(location));
+        }
+        return new FilePluginSource(Path.of(location));
+    }
+
+    /**
+     * Parses the content of an index.
+     *
+     * @param index the content of the index
+     * @return the artifacts listed in the index
+     * @throws IOException if a line is malformed
+     */
+    static List<Entry> parseIndex(String index) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new StringReader(index));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+", 3);
+            try {
+                if (fields.length != 3 || fields[0].length() != 64) {
+                    throw new IllegalArgumentException();
+                }
+                entries.add(new Entry(fields[2], Long.parseLong(fields[1]), fields[0].toLowerCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Malformed plugin index line " + lineNumber + ": " + line);
+            }
+        }
+        return entries;
+    }
+}
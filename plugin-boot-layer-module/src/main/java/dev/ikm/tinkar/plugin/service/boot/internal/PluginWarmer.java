@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import dev.ikm.tinkar.plugin.service.boot.PluginWarmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.module.ModuleDescriptor;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Warms up a newly defined plugin layer before it is published to lookups. The provider classes declared by the
+ * modules of the layer are loaded, linked and initialized concurrently on virtual threads, and the
+ * {@link PluginWarmup} hooks of the layer are then called. Warm-up is bounded by a timeout, after which the
+ * layer is published regardless; failures are logged and do not prevent the deployment.
+ */
+public class PluginWarmer {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginWarmer.class);
+    public static final Duration DEFAULT_WARMUP_TIMEOUT = Duration.ofSeconds(30);
+
+    private final long timeoutNanos;
+
+    /**
+     * Creates a warmer with the given timeout.
+     *
+     * @param timeout the maximum time to wait for the warm-up of a layer
+     */
+    public PluginWarmer(Duration timeout) {
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    /**
+     * Warms up a plugin layer, returning once the warm-up completed or timed out.
+     *
+     * @param pluginNameAndModuleLayer the name and module layer of the plugin
+     */
+    public void warmUp(PluginNameAndModuleLayer pluginNameAndModuleLayer) {
+        String pluginLayerName = pluginNameAndModuleLayer.name();
+        ModuleLayer moduleLayer = pluginNameAndModuleLayer.moduleLayer();
+        PluginEvents.WarmupEvent warmupEvent = new PluginEvents.WarmupEvent();
+        warmupEvent.begin();
+        long deadline = System.nanoTime() + timeoutNanos;
+        // not closed, as that would wait for a hook that ignores the timeout
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<?>> initializations = new ArrayList<>();
+            for (Module module : moduleLayer.modules()) {
+                ClassLoader classLoader = module.getClassLoader();
+                for (ModuleDescriptor.Provides provides : module.getDescriptor().provides()) {
+                    for (String providerName : provides.providers()) {
+                        initializations.add(executor.submit(() -> Class.forName(providerName, true, classLoader)));
+                    }
+                }
+            }
+            int failures = awaitAll(pluginLayerName, initializations, deadline, "initializing a provider class");
+
+            List<Future<?>> hooks = new ArrayList<>();
+            ServiceLoader.load(moduleLayer, PluginWarmup.class).stream()
+                    .filter(provider -> provider.type().getModule().getLayer() == moduleLayer)
+                    .forEach(provider -> hooks.add(executor.submit(() -> {
+                        provider.get().warmUp(pluginLayerName, moduleLayer);
+                        return null;
+                    })));
+            failures += awaitAll(pluginLayerName, hooks, deadline, "calling a warm-up hook");
+
+            warmupEvent.providerClassCount = initializations.size();
+            warmupEvent.hookCount = hooks.size();
+            warmupEvent.outcome = failures == 0 ? PluginEvents.SUCCESS : failures + " failures";
+        } catch (RuntimeException | Error e) {
+            warmupEvent.outcome = PluginEvents.failure(e);
+            LOG.warn("Unable to warm up plugin layer " + pluginLayerName, e);
+        } finally {
+            executor.shutdown();
+            warmupEvent.pluginLayerName = pluginLayerName;
+            warmupEvent.commit();
+        }
+    }
+
+    /**
+     * Waits for warm-up tasks until the deadline, cancelling the tasks that did not complete in time.
+     *
+     * @return the number of tasks that failed or timed out
+     */
+    private int awaitAll(String pluginLayerName, List<Future<?>> tasks, long deadline, String step) {
+        int failures = 0;
+        for (Future<?> task : tasks) {
+            try {
+                task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                task.cancel(true);
+                failures++;
+                LOG.warn("Timed out " + step + " of plugin layer " + pluginLayerName + ", publishing it anyway");
+            } catch (ExecutionException e) {
+                failures++;
+                LOG.warn("Failed " + step + " of plugin layer " + pluginLayerName, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted warming up plugin layer " + pluginLayerName, e);
+            }
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The PluginWorkingStore is the working area plugin artifacts are copied to before their modules are loaded,
+ * allowing the original artifacts to be removed or replaced while they are in use.
+ * <p>
+ * Artifacts are stored once per content, as blobs named by their SHA-256 hash, and appear in the working
+ * directory of each plugin layer as hard links to their blob. Where the file system does not support hard
+ * links, they are copied instead. Deploying an artifact whose content is already stored therefore costs no
+ * copy at all.
+ * <p>
+ * Layer working directories are per store instance, in a directory named after the process id, the process start
+ * time and a random suffix, so that neither a restarted process reusing a process id nor a second store in the
+ * same process finds directories it did not create. They are deleted once their layer has been removed and
+ * collected; directories left behind by processes that are no longer running are deleted when the store is
+ * opened. Blobs
+ * not used by any layer of this process are kept as a cache, bounded by a maximum total size, and evicted
+ * least recently used first. Deleting a blob never affects a layer, as the layer holds its own link or copy.
+ */
+public class PluginWorkingStore {
+    private static final Logger LOG = LoggerFactory.getLogger(PluginWorkingStore.class);
+    public static final long DEFAULT_MAX_UNUSED_BYTES = 256L * 1024 * 1024;
+    private static final long PROCESS_START_MILLIS = startMillis(ProcessHandle.current());
+
+    private final Path blobsDirectory;
+    private final Path layersDirectory;
+    private final long maxUnusedBytes;
+
+    /**
+     * Number of layer working directories of this process using each blob, including links being made. Guarded
+     * by this store, as is eviction, so a blob is never evicted between being reserved and being linked.
+     */
+    private final HashMap<String, Integer> blobUsage = new HashMap<>();
+
+    /**
+     * Blobs used by each layer working directory of this process.
+     */
+    private final ConcurrentHashMap<Path, List<String>> layerBlobs = new ConcurrentHashMap<>();
+
+    private volatile boolean linksSupported = true;
+
+    /**
+     * Opens the store in the given directory, and deletes the layer working directories of processes that
+     * are no longer running.
+     *
+     * @param storeDirectory the directory of the store
+     * @param maxUnusedBytes the maximum total size of blobs kept while not used by any layer of this process
+     * @return the opened store
+     */
+    public static PluginWorkingStore open(Path storeDirectory, long maxUnusedBytes) {
+        try {
+            PluginWorkingStore store = new PluginWorkingStore(storeDirectory, maxUnusedBytes);
+            store.deleteStaleLayerDirectories();
+            store.evictUnusedBlobs();
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private PluginWorkingStore(Path storeDirectory, long maxUnusedBytes) throws IOException {
+        this.blobsDirectory = Files.createDirectories(storeDirectory.resolve("blobs"));
+        this.layersDirectory = Files.createDirectories(storeDirectory.resolve("layers")
+                .resolve(ProcessHandle.current().pid() + "-" + PROCESS_START_MILLIS + "-" +
+                        HexFormat.of().toHexDigits(new Random().nextInt())));
+        this.maxUnusedBytes = maxUnusedBytes;
+    }
+
+    /**
+     * Returns the directory holding the layer working directories of this store.
+     *
+     * @return the layers directory
+     */
+    public Path layersDirectory() {
+        return layersDirectory;
+    }
+
+    /**
+     * Stores an artifact, and links it into a layer working directory under its original file name.
+     * <p>
+     * If the SHA-256 hash of the artifact is known and its blob is present, the artifact is not read at all.
+     * Otherwise it is copied into the store while its hash is computed.
+     *
+     * @param artifact       the artifact
+     * @param knownSha256    the hash of the artifact, if known from the plugin catalog
+     * @param layerDirectory the layer working directory
+     * @return the hash of the stored artifact
+     */
+    public String stage(Path artifact, Optional<String> knownSha256, Path layerDirectory) {
+        try {
+            String sha256;
+            if (knownSha256.isPresent() && reserve(knownSha256.get())) {
+                sha256 = knownSha256.get();
+            } else {
+                try (InputStream in = Files.newInputStream(artifact)) {
+                    sha256 = store(in);
+                }
+            }
+            link(sha256, layerDirectory.resolve(artifact.getFileName().toString()));
+            return sha256;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stores the content of a stream, such as an entry of a plugin bundle, and links it into a layer working
+     * directory under the given file name.
+     *
+     * @param in             the content to store
+     * @param layerDirectory the layer working directory
+     * @param fileName       the file name in the layer working directory
+     * @return the hash of the stored content
+     */
+    public String stage(InputStream in, Path layerDirectory, String fileName) {
+        try {
+            String sha256 = store(in);
+            link(sha256, layerDirectory.resolve(fileName));
+            return sha256;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Releases the working directory of a removed layer that has been collected. The directory is deleted,
+     * after which the blobs it used may be evicted.
+     *
+     * @param layerDirectory the layer working directory
+     */
+    public void release(Path layerDirectory) {
+        List<String> blobs = layerBlobs.remove(layerDirectory);
+        deleteRecursively(layerDirectory);
+        if (blobs != null) {
+            synchronized (this) {
+                blobs.forEach(this::unreserve);
+            }
+        }
+        evictUnusedBlobs();
+    }
+
+    private Path blob(String sha256) {
+        return blobsDirectory.resolve(sha256);
+    }
+
+    /**
+     * Reserves a blob if it is present, so it is not evicted before it is linked.
+     *
+     * @param sha256 the hash of the blob
+     * @return true if the blob is present and reserved
+     */
+    private synchronized boolean reserve(String sha256) {
+        if (!Files.isRegularFile(blob(sha256))) {
+            return false;
+        }
+        blobUsage.merge(sha256, 1, Integer::sum);
+        return true;
+    }
+
+    private synchronized void unreserve(String sha256) {
+        blobUsage.computeIfPresent(sha256, (key, usage) -> usage == 1 ? null : usage - 1);
+    }
+
+    /**
+     * Stores content as a blob, and reserves the blob.
+     *
+     * @param in the content to store
+     * @return the hash of the stored and reserved blob
+     */
+    private String store(InputStream in) throws IOException {
+        MessageDigest digest = PluginCatalog.sha256Digest();
+        Path tempFile = Files.createTempFile(blobsDirectory, "staging-", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                new DigestInputStream(in, digest).transferTo(out);
+            }
+            String sha256 = HexFormat.of().formatHex(digest.digest());
+            synchronized (this) {
+                if (!reserve(sha256)) {
+                    try {
+                        Files.move(tempFile, blob(sha256), StandardCopyOption.ATOMIC_MOVE);
+                    } catch (FileAlreadyExistsException e) {
+                        // stored concurrently
+                    }
+                    blobUsage.merge(sha256, 1, Integer::sum);
+                }
+            }
+            return sha256;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Links a reserved blob into a layer working directory. The reservation is kept by the layer working
+     * directory, or given up if the link fails.
+     */
+    private void link(String sha256, Path target) throws IOException {
+        Path blob = blob(sha256);
+        try {
+            Files.createDirectories(target.getParent());
+            Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis()));
+            if (linksSupported) {
+                try {
+                    Files.createLink(target, blob);
+                } catch (UnsupportedOperationException e) {
+                    copyInsteadOfLinking(e);
+                } catch (FileSystemException e) {
+                    if (!linkingUnsupported(e)) {
+                        throw e;
+                    }
+                    copyInsteadOfLinking(e);
+                }
+            }
+            if (!linksSupported) {
+                Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            unreserve(sha256);
+            throw e;
+        }
+        layerBlobs.computeIfAbsent(target.getParent(), layerDirectory -> Collections.synchronizedList(new ArrayList<>()))
+                .add(sha256);
+    }
+
+    /**
+     * Returns true if a failure to create a link is due to the file system rather than to the files linked,
+     * such as a link across devices. Errors about the files themselves, such as a missing blob or an existing
+     * target, are reported by the subclasses of FileSystemException.
+     */
+    private static boolean linkingUnsupported(FileSystemException e) {
+        return e.getClass() == FileSystemException.class;
+    }
+
+    private void copyInsteadOfLinking(Exception e) {
+        LOG.info("Hard links not supported in plugin working store, copying instead: " + e);
+        linksSupported = false;
+    }
+
+    private synchronized void evictUnusedBlobs() {
+        record Blob(Path path, String sha256, long size, long lastModified) {
+        }
+        List<Blob> unusedBlobs = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(blobsDirectory)) {
+            for (Path path : paths.toList()) {
+                String fileName = path.getFileName().toString();
+                if (fileName.endsWith(".tmp") || blobUsage.containsKey(fileName)) {
+                    continue;
+                }
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                unusedBlobs.add(new Blob(path, fileName, attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to list plugin working store: " + blobsDirectory, e);
+            return;
+        }
+        long unusedBytes = unusedBlobs.stream().mapToLong(Blob::size).sum();
+        unusedBlobs.sort(Comparator.comparingLong(Blob::lastModified));
+        for (Blob unusedBlob : unusedBlobs) {
+            if (unusedBytes <= maxUnusedBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(unusedBlob.path());
+                unusedBytes -= unusedBlob.size();
+            } catch (IOException e) {
+                LOG.warn("Unable to evict plugin blob: " + unusedBlob.path(), e);
+            }
+        }
+    }
+
+    private void deleteStaleLayerDirectories() throws IOException {
+        try (Stream<Path> processDirectories = Files.list(layersDirectory.getParent())) {
+            for (Path processDirectory : processDirectories.toList()) {
+                if (!processDirectory.equals(layersDirectory) && isStale(processDirectory.getFileName().toString())) {
+                    deleteRecursively(processDirectory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether a directory of the layers directory was left behind: it is not named after a running
+     * process, or after this process but with another start time. Directories named after a process id only
+     * were created by earlier versions of the store, and are stale if the process id is that of this process.
+     *
+     * @param name the name of the directory
+     * @return true if the directory can be deleted
+     */
+    static boolean isStale(String name) {
+        String[] parts = name.split("-");
+        try {
+            long pid = Long.parseLong(parts[0]);
+            Optional<ProcessHandle> process = ProcessHandle.of(pid);
+            if (process.isEmpty()) {
+                return true;
+            }
+            if (parts.length == 1) {
+                return pid == ProcessHandle.current().pid();
+            }
+            long startMillis = Long.parseLong(parts[1]);
+            long processStartMillis = startMillis(process.get());
+            return startMillis != 0 && processStartMillis != 0 && startMillis != processStartMillis;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // not a process directory
+            return true;
+        }
+    }
+
+    private static long startMillis(ProcessHandle process) {
+        return process.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+    }
+
+    private static void deleteRecursively(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    LOG.warn("Unable to delete from plugin working store: " + path, e);
+                }
+            });
+        } catch (IOException e) {
+            LOG.warn("Unable to delete from plugin working store: " + directory, e);
+        }
+    }
+}
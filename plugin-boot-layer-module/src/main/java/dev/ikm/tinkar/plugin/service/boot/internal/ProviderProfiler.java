@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import dev.ikm.tinkar.plugin.service.boot.ProviderProfile;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Profiles the providers of selected service interfaces, by wrapping each provider in a dynamic proxy recording
+ * the calls, latency and allocation of every method, by the plugin layer of the provider.
+ * <p>
+ * Proxies hold their provider strongly, so the proxies of a provider list are cached only until the plugin
+ * layers change; the recorded profiles hold names only, and outlive the layers they were recorded for. Allocation
+ * is measured with the per thread allocation counter of the JVM, which is not available on virtual threads.
+ */
+public class ProviderProfiler {
+    private static final int HISTOGRAM_BUCKETS = Long.SIZE;
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadMXBean &&
+                    threadMXBean.isThreadAllocatedMemorySupported() ? threadMXBean : null;
+
+    /**
+     * Identifies the recorded calls of a method of a service, on the providers of a plugin layer.
+     */
+    private record MethodKey(String pluginLayerName, String service, String method) {
+    }
+
+    private static final class MethodStats {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray latencyHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final LongAdder allocationMeasuredCalls = new LongAdder();
+
+        private void record(long nanos, long allocated, boolean failed) {
+            calls.increment();
+            if (failed) {
+                failures.increment();
+            }
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            latencyHistogram.incrementAndGet(HISTOGRAM_BUCKETS - Long.numberOfLeadingZeros(nanos));
+            if (allocated >= 0) {
+                allocatedBytes.add(allocated);
+                allocationMeasuredCalls.increment();
+            }
+        }
+
+        private ProviderProfile profile(MethodKey key) {
+            int buckets = HISTOGRAM_BUCKETS;
+            while (buckets > 0 && latencyHistogram.get(buckets - 1) == 0) {
+                buckets--;
+            }
+            List<Long> histogram = new ArrayList<>(buckets);
+            for (int i = 0; i < buckets; i++) {
+                histogram.add(latencyHistogram.get(i));
+            }
+            return new ProviderProfile(key.pluginLayerName(), key.service(), key.method(), calls.sum(),
+                    failures.sum(), totalNanos.sum(), maxNanos.get(), List.copyOf(histogram), allocatedBytes.sum(),
+                    allocationMeasuredCalls.sum());
+        }
+    }
+
+    /**
+     * The providers of a service as last returned by the PluggableServiceLoader, and their proxies.
+     */
+    private record ProfiledProviders(List<?> providers, List<?> proxies) {
+    }
+
+    private final Set<String> profiledServices;
+    private final Function<ModuleLayer, Optional<String>> pluginLayerNames;
+    private final ConcurrentHashMap<MethodKey, MethodStats> methodStats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, ProfiledProviders> profiledProviders = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a profiler for the given services.
+     *
+     * @param profiledServices the names of the service interfaces to profile
+     * @param pluginLayerNames returns the name of a registered plugin layer, or empty for other layers, whose
+     *                         providers are not profiled
+     */
+    public ProviderProfiler(Set<String> profiledServices, Function<ModuleLayer, Optional<String>> pluginLayerNames) {
+        this.profiledServices = Set.copyOf(profiledServices);
+        this.pluginLayerNames = pluginLayerNames;
+    }
+
+    /**
+     * Parses the value of {@link dev.ikm.tinkar.plugin.service.boot.PluggableService#PROFILED_SERVICES_KEY}.
+     *
+     * @param value a comma separated list of service interface names, or null
+     * @return the service interface names
+     */
+    public static Set<String> parseProfiledServices(String value) {
+        if (value == null) {
+            return Set.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::strip)
+                .filter(name -> !name.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Returns whether the providers of a service are profiled.
+     *
+     * @param service the service
+     * @return true if the service is an interface selected for profiling
+     */
+    public boolean profiles(Class<?> service) {
+        return service.isInterface() && profiledServices.contains(service.getName());
+    }
+
+    /**
+     * Returns the providers of a service wrapped in profiling proxies. The proxies are reused for as long as the
+     * same provider list is passed in, which the PluggableServiceLoader caches until the plugin layers change.
+     *
+     * @param service   the profiled service
+     * @param providers the providers of the service
+     * @param <S>       the type of the service
+     * @return the providers, wrapped unless they are not from a registered plugin layer
+     */
+    @SuppressWarnings("unchecked")
+    public <S> List<S> profile(Class<S> service, List<S> providers) {
+        ProfiledProviders cached = profiledProviders.get(service);
+        if (cached != null && cached.providers() == providers) {
+            return (List<S>) cached.proxies();
+        }
+        List<S> proxies = providers.stream().map(provider -> proxy(service, provider)).toList();
+        profiledProviders.put(service, new ProfiledProviders(providers, proxies));
+        return proxies;
+    }
+
+    /**
+     * Returns a provider that wraps the instance it gets in a profiling proxy.
+     *
+     * @param service  the profiled service
+     * @param provider the provider of the service
+     * @param <S>      the type of the service
+     * @return the wrapping provider
+     */
+    public <S> ServiceLoader.Provider<S> profile(Class<S> service, ServiceLoader.Provider<S> provider) {
+        return new ServiceLoader.Provider<>() {
+            @Override
+            public Class<? extends S> type() {
+                return provider.type();
+            }
+
+            @Override
+            public S get() {
+                return proxy(service, provider.get());
+            }
+        };
+    }
+
+    private <S> S proxy(Class<S> service, S provider) {
+        Optional<String> pluginLayerName = pluginLayerNames.apply(provider.getClass().getModule().getLayer());
+        if (pluginLayerName.isEmpty()) {
+            return provider;
+        }
+        ProfilingHandler handler = new ProfilingHandler(pluginLayerName.get(), service.getName(), provider);
+        return service.cast(Proxy.newProxyInstance(service.getClassLoader(), new Class<?>[]{service}, handler));
+    }
+
+    /**
+     * Drops the cached proxies, so that they do not keep the providers of removed plugin layers reachable.
+     */
+    public void clearProxies() {
+        profiledProviders.clear();
+    }
+
+    /**
+     * Returns the recorded profiles, by plugin layer, service and method name.
+     *
+     * @return the profiles
+     */
+    public List<ProviderProfile> profiles() {
+        return methodStats.entrySet().stream()
+                .map(entry -> entry.getValue().profile(entry.getKey()))
+                .sorted(Comparator.comparing(ProviderProfile::pluginLayerName)
+                        .thenComparing(ProviderProfile::service)
+                        .thenComparing(ProviderProfile::method))
+                .toList();
+    }
+
+    /**
+     * Discards the recorded profiles.
+     */
+    public void reset() {
+        methodStats.clear();
+    }
+
+    private static String methodName(Method method) {
+        return Arrays.stream(method.getParameterTypes())
+                .map(Class::getSimpleName)
+                .collect(Collectors.joining(", ", method.getName() + "(", ")"));
+    }
+
+    private static long allocatedBytes() {
+        if (THREAD_MX_BEAN == null || Thread.currentThread().isVirtual() ||
+                !THREAD_MX_BEAN.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return THREAD_MX_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Forwards calls to a provider, recording them. The methods of Object are forwarded without being recorded,
+     * except equals, which compares the proxies.
+     */
+    private final class ProfilingHandler implements InvocationHandler {
+        private final String pluginLayerName;
+        private final String service;
+        private final Object provider;
+        private final ConcurrentHashMap<Method, MethodKey> methodKeys = new ConcurrentHashMap<>();
+
+        private ProfilingHandler(String pluginLayerName, String service, Object provider) {
+            this.pluginLayerName = pluginLayerName;
+            this.service = service;
+            this.provider = provider;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                }
+                return invokeProvider(method, args);
+            }
+            MethodKey key = methodKeys.computeIfAbsent(method,
+                    m -> new MethodKey(pluginLayerName, service, methodName(m)));
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = invokeProvider(method, args);
+                failed = false;
+                return result;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                long allocatedAfter = allocatedBefore < 0 ? -1 : allocatedBytes();
+                methodStats.computeIfAbsent(key, k -> new MethodStats())
+                        .record(nanos, allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore, failed);
+            }
+        }
+
+        private Object invokeProvider(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(provider, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
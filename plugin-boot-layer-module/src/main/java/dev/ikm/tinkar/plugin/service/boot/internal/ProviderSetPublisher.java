@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the providers of a service to each subscriber: the current providers first, and then the new
+ * providers whenever a layer providing the service is added or removed. The stream never completes.
+ * <p>
+ * Changes are conflated: a subscriber without outstanding demand is not queued a list per change, but receives
+ * only the providers current at the time it next requests, so a slow subscriber never sees stale providers and
+ * never holds on to providers of removed layers through a queue. The providers are looked up when they are
+ * delivered, on a virtual thread, and the signals to each subscriber are serialized.
+ *
+ * @param <S> the type of the service
+ */
+public class ProviderSetPublisher<S> implements Flow.Publisher<List<S>> {
+    private static final Logger LOG = LoggerFactory.getLogger(ProviderSetPublisher.class);
+    private static final Executor EXECUTOR = runnable ->
+            Thread.ofVirtual().name("Plugin provider publisher").start(runnable);
+
+    private final String serviceName;
+    private final Supplier<List<S>> providers;
+    private final CopyOnWriteArrayList<ProviderSetSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates a publisher of the providers of a service.
+     *
+     * @param service   the service
+     * @param providers looks up the current providers of the service
+     */
+    public ProviderSetPublisher(Class<S> service, Supplier<List<S>> providers) {
+        this.serviceName = service.getName();
+        this.providers = providers;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<S>> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        ProviderSetSubscription subscription = new ProviderSetSubscription(subscriber);
+        subscriptions.add(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Notifies the subscribers if any of the added or removed layers provides the service.
+     *
+     * @param added   the added layers
+     * @param removed the removed layers
+     */
+    public void layersChanged(Collection<PluginNameAndModuleLayer> added, Collection<PluginNameAndModuleLayer> removed) {
+        if (subscriptions.isEmpty() || !(provides(added) || provides(removed))) {
+            return;
+        }
+        subscriptions.forEach(ProviderSetSubscription::providersChanged);
+    }
+
+    private boolean provides(Collection<PluginNameAndModuleLayer> pluginLayers) {
+        return pluginLayers.stream()
+                .flatMap(pluginLayer -> pluginLayer.moduleLayer().modules().stream())
+                .flatMap(module -> module.getDescriptor().provides().stream())
+                .anyMatch(provides -> provides.service().equals(serviceName));
+    }
+
+    private final class ProviderSetSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super List<S>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        /**
+         * Whether the subscriber has not yet received the current providers.
+         */
+        private final AtomicBoolean stale = new AtomicBoolean(true);
+        /**
+         * The number of drain requests; signals are only sent by the thread that raised it from zero.
+         */
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable pendingError;
+
+        private ProviderSetSubscription(Flow.Subscriber<? super List<S>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Signals onSubscribe, holding off deliveries requested from within onSubscribe until it returns. A
+         * subscriber throwing from onSubscribe is cancelled.
+         */
+        private void start() {
+            drainRequests.incrementAndGet();
+            try {
+                subscriber.onSubscribe(this);
+            } catch (RuntimeException e) {
+                // a subscriber must not throw; it is treated as cancelled
+                cancel();
+                LOG.warn("Subscriber to the providers of " + serviceName + " failed in onSubscribe", e);
+            }
+            if (drainRequests.decrementAndGet() != 0) {
+                EXECUTOR.execute(this::drainLoop);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                pendingError = new IllegalArgumentException("Non-positive request: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void providersChanged() {
+            stale.set(true);
+            drain();
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() == 0) {
+                EXECUTOR.execute(this::drainLoop);
+            }
+        }
+
+        private void drainLoop() {
+            do {
+                if (cancelled) {
+                    continue;
+                }
+                Throwable error = pendingError;
+                if (error != null) {
+                    fail(error);
+                    continue;
+                }
+                while (!cancelled && demand.get() > 0 && stale.compareAndSet(true, false)) {
+                    List<S> currentProviders;
+                    try {
+                        currentProviders = providers.get();
+                    } catch (RuntimeException e) {
+                        fail(e);
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    try {
+                        subscriber.onNext(currentProviders);
+                    } catch (RuntimeException e) {
+                        // a subscriber must not throw; it is treated as cancelled
+                        cancel();
+                    }
+                }
+            } while (drainRequests.decrementAndGet() != 0);
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            try {
+                subscriber.onError(error);
+            } catch (RuntimeException e) {
+                // a subscriber must not throw
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import dev.ikm.tinkar.plugin.service.boot.PinnedPluginLayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.module.ModuleReader;
+import java.lang.module.ResolvedModule;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The RemovedLayerTracker follows plugin layers after they have been removed, and runs a cleanup action
+ * once a removed layer, and with it the classes and class loader of the plugin, has been garbage collected.
+ * <p>
+ * Layers are tracked through phantom references only, so tracking never keeps a layer reachable. A removed
+ * layer that is not collected within the grace period is reported as pinned, with the number of classes in
+ * its modules as an approximation of the classes it retains: something still holds a reference to the layer,
+ * its class loader, or one of its classes or instances, typically a reference kept after
+ * {@link dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener#pluginLayerBeingRemoved(String, ModuleLayer)}.
+ */
+public class RemovedLayerTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(RemovedLayerTracker.class);
+    public static final Duration DEFAULT_GRACE_PERIOD = Duration.ofSeconds(60);
+
+    private final ReferenceQueue<ModuleLayer> collectedLayers = new ReferenceQueue<>();
+    private final long gracePeriodNanos;
+
+    /**
+     * The references must stay strongly reachable until their layer is collected.
+     */
+    private final Set<RemovedLayerReference> removedLayers = ConcurrentHashMap.newKeySet();
+
+    private static final class RemovedLayerReference extends PhantomReference<ModuleLayer> {
+        private final String pluginLayerName;
+        private final Runnable onCollected;
+        private final Instant removedAt = Instant.now();
+        private final long removedAtNanos = System.nanoTime();
+        private final int approximateClassCount;
+        private volatile boolean reported;
+
+        private RemovedLayerReference(String pluginLayerName, ModuleLayer moduleLayer, Runnable onCollected,
+                                      ReferenceQueue<ModuleLayer> queue) {
+            super(moduleLayer, queue);
+            this.pluginLayerName = pluginLayerName;
+            this.onCollected = onCollected;
+            this.approximateClassCount = countClasses(moduleLayer);
+        }
+
+        private boolean pinned(long now, long gracePeriodNanos) {
+            return now - removedAtNanos > gracePeriodNanos;
+        }
+    }
+
+    /**
+     * Creates a tracker, with a daemon thread that runs the cleanup actions of collected layers and reports
+     * layers that are not collected within the grace period.
+     *
+     * @param gracePeriod the time a removed layer may take to be collected before it is reported as pinned
+     */
+    public RemovedLayerTracker(Duration gracePeriod) {
+        this.gracePeriodNanos = gracePeriod.toNanos();
+        Thread.ofPlatform().daemon().name("Removed plugin layer tracker").start(this::runCleanupActions);
+    }
+
+    /**
+     * Tracks a removed plugin layer. The cleanup action must not reference the layer.
+     *
+     * @param pluginLayerName the name of the removed plugin layer
+     * @param moduleLayer     the removed plugin layer
+     * @param onCollected     the action to run once the layer has been collected
+     */
+    public void track(String pluginLayerName, ModuleLayer moduleLayer, Runnable onCollected) {
+        removedLayers.add(new RemovedLayerReference(pluginLayerName, moduleLayer, onCollected, collectedLayers));
+    }
+
+    /**
+     * Returns the removed layers that have not been collected within the grace period, oldest first.
+     *
+     * @return the pinned plugin layers
+     */
+    public List<PinnedPluginLayer> pinnedLayers() {
+        long now = System.nanoTime();
+        return removedLayers.stream()
+                .filter(reference -> reference.pinned(now, gracePeriodNanos))
+                .sorted(Comparator.comparingLong(reference -> reference.removedAtNanos))
+                .map(reference -> new PinnedPluginLayer(reference.pluginLayerName, reference.removedAt,
+                        reference.approximateClassCount))
+                .toList();
+    }
+
+    private void runCleanupActions() {
+        long checkIntervalMillis = Math.max(10, TimeUnit.NANOSECONDS.toMillis(gracePeriodNanos) / 4);
+        while (true) {
+            try {
+                RemovedLayerReference reference = (RemovedLayerReference) collectedLayers.remove(checkIntervalMillis);
+                if (reference != null) {
+                    runCleanupAction(reference);
+                }
+                reportPinnedLayers();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void runCleanupAction(RemovedLayerReference reference) {
+        removedLayers.remove(reference);
+        LOG.info("Removed plugin layer collected: " + reference.pluginLayerName);
+        try {
+            reference.onCollected.run();
+        } catch (RuntimeException e) {
+            LOG.warn("Cleanup of removed plugin layer failed: " + reference.pluginLayerName, e);
+        }
+    }
+
+    private void reportPinnedLayers() {
+        long now = System.nanoTime();
+        for (RemovedLayerReference reference : removedLayers) {
+            if (!reference.reported && reference.pinned(now, gracePeriodNanos)) {
+                reference.reported = true;
+                LOG.warn("Removed plugin layer not collected after " + TimeUnit.NANOSECONDS.toSeconds(gracePeriodNanos) +
+                        " s, retaining up to " + reference.approximateClassCount + " classes: " + reference.pluginLayerName +
+                        ". A reference to the layer, its class loader, or one of its classes or instances is still held.");
+            }
+        }
+    }
+
+    /**
+     * Counts the classes in the modules of a layer.
+     */
+    static int countClasses(ModuleLayer moduleLayer) {
+        int classCount = 0;
+        for (ResolvedModule resolvedModule : moduleLayer.configuration().modules()) {
+            try (ModuleReader reader = resolvedModule.reference().open();
+                 Stream<String> resources = reader.list()) {
+                classCount += (int) resources
+                        .filter(resource -> resource.endsWith(".class") && !resource.endsWith("module-info.class"))
+                        .count();
+            } catch (IOException e) {
+                LOG.debug("Unable to count the classes of module " + resolvedModule.name(), e);
+            }
+        }
+        return classCount;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+/**
+ * How the plugin directories are watched for changes of plugin artifacts.
+ */
+public enum WatchStrategy {
+    /**
+     * Native file system events, without reading the content of the artifacts. Duplicate and spurious events
+     * are absorbed by the {@link PluginChangeBatcher}.
+     */
+    NATIVE,
+    /**
+     * Native file system events, filtered by a content hash of every file, which is computed for all files when
+     * watching starts and for every changed file. Only events that change the content are reported.
+     */
+    HASH,
+    /**
+     * Polling the size and modification time of the artifacts at a fixed interval, for file systems without
+     * reliable native events, such as network mounts.
+     */
+    POLL,
+    /**
+     * No watching: the plugins found at startup are kept until the application stops, for immutable
+     * deployments.
+     */
+    NONE
+}
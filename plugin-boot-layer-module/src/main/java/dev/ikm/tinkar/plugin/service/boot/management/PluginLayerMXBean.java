@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.management;
+
+/**
+ * A registered layer of the plugin runtime. Registered as {@value #OBJECT_NAME_PREFIX} followed by the quoted
+ * name of the layer, while the layer is registered.
+ */
+public interface PluginLayerMXBean {
+    String OBJECT_NAME_PREFIX = "dev.ikm.tinkar.plugin:type=PluginLayer,name=";
+
+    /**
+     * @return the name of the layer
+     */
+    String getName();
+
+    /**
+     * @return the time the layer was registered, as an ISO-8601 instant
+     */
+    String getRegisteredAt();
+
+    /**
+     * @return the names of the modules of the layer
+     */
+    String[] getModuleNames();
+
+    /**
+     * @return the number of modules of the layer
+     */
+    int getModuleCount();
+
+    /**
+     * @return the number of classes in the modules of the layer, counted once on first request; an upper bound of
+     * the classes the layer loads
+     */
+    int getClassCount();
+
+    /**
+     * @return the number of class loaders of the modules of the layer
+     */
+    int getClassLoaderCount();
+
+    /**
+     * @return the names of the services provided by the modules of the layer
+     */
+    String[] getProvidedServices();
+}
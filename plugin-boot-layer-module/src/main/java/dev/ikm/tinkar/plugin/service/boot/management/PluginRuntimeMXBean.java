@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.management;
+
+/**
+ * The plugin runtime: the configuration of the PluggableService, its registered layers, and the changes of the
+ * plugin layers applied since startup. Registered as {@value #OBJECT_NAME}.
+ */
+public interface PluginRuntimeMXBean {
+    String OBJECT_NAME = "dev.ikm.tinkar.plugin:type=PluginRuntime";
+
+    /**
+     * @return the path of the PluggableServiceLoader jar, as resolved for
+     * {@link dev.ikm.tinkar.plugin.service.boot.PluggableService#PATH_KEY}
+     */
+    String getServiceLoaderPath();
+
+    /**
+     * @return the watched plugin directories, as "name=path"
+     */
+    String[] getPluginDirectories();
+
+    /**
+     * @return the names of the registered layers, including the boot layer and the shared library layer, in
+     * registration order
+     */
+    String[] getLayerNames();
+
+    /**
+     * @return the number of registered layers
+     */
+    int getLayerCount();
+
+    /**
+     * @return the names of the plugin layers found at startup in lazy mode that are not yet defined
+     */
+    String[] getPendingLayerNames();
+
+    /**
+     * @return the names of the removed plugin layers that have not been garbage collected within the leak grace
+     * period
+     */
+    String[] getPinnedLayerNames();
+
+    /**
+     * @return the number of batches of plugin changes applied, and of explicit undeployments
+     */
+    long getDeploymentCount();
+
+    /**
+     * @return the number of batches of plugin changes that failed
+     */
+    long getFailedDeploymentCount();
+
+    /**
+     * @return the number of plugin layers added since startup
+     */
+    long getAddedLayerCount();
+
+    /**
+     * @return the number of plugin layers removed since startup
+     */
+    long getRemovedLayerCount();
+
+    /**
+     * @return the time the last deployment took, in milliseconds
+     */
+    double getLastDeploymentMillis();
+
+    /**
+     * @return the mean time of the deployments, in milliseconds
+     */
+    double getMeanDeploymentMillis();
+
+    /**
+     * @return the time the slowest deployment took, in milliseconds
+     */
+    double getMaxDeploymentMillis();
+
+    /**
+     * Lists the plugin directories, and applies the differences to the registered plugin layers, as the watcher
+     * would: new artifacts are deployed, layers of artifacts deleted from the plugin directories are removed, and
+     * layers of changed artifacts are replaced. Returns once the changes are applied.
+     *
+     * @return the number of changes found
+     */
+    int rescan();
+
+    /**
+     * Undeploys a registered plugin layer, leaving its artifact in place. As the artifact is still present, the
+     * layer is deployed again when its artifact changes, or on the next {@link #rescan()}. The boot layer and the
+     * shared library layer, although listed in {@link #getLayerNames()}, are not plugin layers and cannot be
+     * undeployed.
+     *
+     * @param layerName the name of the plugin layer
+     * @return true if the layer was registered and has been undeployed
+     * @throws IllegalArgumentException if the name is that of the boot layer or the shared library layer
+     */
+    boolean undeploy(String layerName);
+}
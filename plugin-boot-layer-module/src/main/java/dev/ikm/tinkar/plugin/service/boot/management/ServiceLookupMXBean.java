@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2015 Integrated Knowledge Management (support@ikm.dev)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dev.ikm.tinkar.plugin.service.boot.management;
+
+import java.util.Map;
+
+/**
+ * The service lookups made through {@link dev.ikm.tinkar.plugin.service.boot.PluggableService}, by service
+ * type. Registered as {@value #OBJECT_NAME}.
+ */
+public interface ServiceLookupMXBean {
+    String OBJECT_NAME = "dev.ikm.tinkar.plugin:type=ServiceLookups";
+
+    /**
+     * @return the number of lookups since startup or the last reset, by service name
+     */
+    Map<String, Long> getLookupCounts();
+
+    /**
+     * @return the total number of lookups since startup or the last reset
+     */
+    long getTotalLookupCount();
+
+    /**
+     * Resets the lookup counts.
+     */
+    void reset();
+}
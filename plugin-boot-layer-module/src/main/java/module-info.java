@@ -1,15 +1,24 @@
 import dev.ikm.tinkar.plugin.service.boot.PluggableService;
 import dev.ikm.tinkar.plugin.service.boot.PluggableServiceLoader;
 import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
+import dev.ikm.tinkar.plugin.service.boot.PluginWarmup;
+import dev.ikm.tinkar.plugin.service.boot.internal.MappedZipUrlStreamHandlerProvider;
 import dev.ikm.tinkar.plugin.service.boot.internal.PluginLifecycleListenerLogger;
 
 module dev.ikm.tinkar.plugin.service.boot {
     exports dev.ikm.tinkar.plugin.service.boot;
+    exports dev.ikm.tinkar.plugin.service.boot.management;
     requires dev.ikm.jpms.directory.watcher;
     requires org.slf4j;
+    requires jdk.jfr;
+    requires java.net.http;
+    requires java.management;
+    requires jdk.management;
 
     uses PluggableServiceLoader;
     uses PluginLifecycleListener;
+    uses PluginWarmup;
 
     provides PluginLifecycleListener with PluginLifecycleListenerLogger;
+    provides java.net.spi.URLStreamHandlerProvider with MappedZipUrlStreamHandlerProvider;
 }
\ No newline at end of file
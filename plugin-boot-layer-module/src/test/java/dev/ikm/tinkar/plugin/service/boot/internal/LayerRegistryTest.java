@@ -0,0 +1,107 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static dev.ikm.tinkar.plugin.service.boot.internal.TestFixtures.emptyLayer;
+
+import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains the tests for the LayerRegistry class, publishing snapshots of the registered layers.
+ */
+public class LayerRegistryTest {
+
+    /**
+     * Test that registering many layers at once publishes a single snapshot, in registration order.
+     */
+    @Test
+    public void testApplyPublishesOneSnapshot() {
+        LayerRegistry layerRegistry = new LayerRegistry();
+        List<PluginNameAndModuleLayer> layers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            layers.add(emptyLayer("plugin-" + i));
+        }
+        long generation = layerRegistry.snapshot().generation();
+
+        assertTrue(layerRegistry.apply(List.of(), layers).isEmpty());
+
+        LayerRegistry.Snapshot snapshot = layerRegistry.snapshot();
+        assertEquals(generation + 1, snapshot.generation());
+        assertEquals(layers, List.copyOf(snapshot.layers()));
+        assertEquals(layers.stream().map(PluginNameAndModuleLayer::moduleLayer).toList(), snapshot.moduleLayers());
+    }
+
+    /**
+     * Test that a layer registered under an existing name replaces it in place, and is reported as removed.
+     */
+    @Test
+    public void testApplyReplacesInPlace() {
+        LayerRegistry layerRegistry = new LayerRegistry();
+        PluginNameAndModuleLayer a = emptyLayer("a");
+        PluginNameAndModuleLayer b = emptyLayer("b");
+        PluginNameAndModuleLayer c = emptyLayer("c");
+        layerRegistry.apply(List.of(), List.of(a, b, c));
+        PluginNameAndModuleLayer newB = emptyLayer("b");
+
+        List<PluginNameAndModuleLayer> removed = layerRegistry.apply(List.of("c", "missing"), List.of(newB));
+
+        assertEquals(List.of(c, b), removed);
+        assertEquals(List.of(a, newB), List.copyOf(layerRegistry.snapshot().layers()));
+    }
+
+    /**
+     * Test that adding a layer under a registered name is refused, and that an empty change publishes nothing.
+     */
+    @Test
+    public void testAddRefusesExistingName() {
+        LayerRegistry layerRegistry = new LayerRegistry();
+        PluginNameAndModuleLayer a = emptyLayer("a");
+        assertTrue(layerRegistry.add(a));
+        long generation = layerRegistry.snapshot().generation();
+
+        assertFalse(layerRegistry.add(emptyLayer("a")));
+        assertTrue(layerRegistry.apply(List.of("missing"), List.of()).isEmpty());
+
+        assertEquals(generation, layerRegistry.snapshot().generation());
+        assertEquals(a, layerRegistry.find("a").orElseThrow());
+    }
+
+    /**
+     * Test that layers are indexed by the services their modules provide, and dropped from the index on removal.
+     */
+    @Test
+    public void testLayersAreIndexedByProvidedService() {
+        LayerRegistry layerRegistry = new LayerRegistry();
+        PluginNameAndModuleLayer boot = new PluginNameAndModuleLayer(Layers.BOOT_LAYER, ModuleLayer.boot());
+        layerRegistry.apply(List.of(), List.of(boot, emptyLayer("a")));
+
+        assertEquals(List.of(boot), layerRegistry.snapshot().providing(PluginLifecycleListener.class.getName()));
+        assertEquals(List.of(), layerRegistry.snapshot().providing("no.such.Service"));
+
+        assertEquals(boot, layerRegistry.remove(Layers.BOOT_LAYER).orElseThrow());
+        assertEquals(List.of(), layerRegistry.snapshot().providing(PluginLifecycleListener.class.getName()));
+    }
+
+    /**
+     * Test that layers are found by their module layer, and no longer found once removed.
+     */
+    @Test
+    public void testFindByModuleLayer() {
+        LayerRegistry layerRegistry = new LayerRegistry();
+        PluginNameAndModuleLayer a = emptyLayer("a");
+        PluginNameAndModuleLayer b = emptyLayer("b");
+        layerRegistry.apply(List.of(), List.of(a, b));
+
+        assertEquals(b, layerRegistry.snapshot().find(b.moduleLayer()).orElseThrow());
+        assertTrue(layerRegistry.snapshot().find(ModuleLayer.boot()).isEmpty());
+
+        layerRegistry.remove("b");
+        assertTrue(layerRegistry.snapshot().find(b.moduleLayer()).isEmpty());
+        assertEquals(a, layerRegistry.snapshot().find(a.moduleLayer()).orElseThrow());
+    }
+}
@@ -0,0 +1,223 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static dev.ikm.tinkar.plugin.service.boot.internal.TestFixtures.bytes;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class contains the tests for the MappedZip class, reading zip archives from a buffer.
+ */
+public class MappedZipTest {
+    private static final int END_SIZE = 22;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Test that stored and deflated entries are read, both into a buffer and as a stream.
+     */
+    @Test
+    public void testStoredAndDeflatedEntries() throws IOException {
+        byte[] stored = bytes(10_000, 1);
+        byte[] deflated = "deflated ".repeat(2_000).getBytes();
+        byte[] zip = zip(List.of("stored.bin", "dir/", "dir/deflated.txt"), List.of(stored, new byte[0], deflated),
+                Set.of("stored.bin"));
+
+        MappedZip mappedZip = MappedZip.of(ByteBuffer.wrap(zip), "test");
+
+        assertEquals(List.of("stored.bin", "dir/", "dir/deflated.txt"),
+                mappedZip.entries().stream().map(MappedZip.Entry::name).toList());
+        MappedZip.Entry storedEntry = mappedZip.entry("stored.bin").orElseThrow();
+        MappedZip.Entry deflatedEntry = mappedZip.entry("dir/deflated.txt").orElseThrow();
+        assertEquals(ZipEntry.STORED, storedEntry.method());
+        assertEquals(ZipEntry.DEFLATED, deflatedEntry.method());
+        assertArrayEquals(stored, toArray(mappedZip.read(storedEntry)));
+        assertArrayEquals(deflated, toArray(mappedZip.read(deflatedEntry)));
+        try (InputStream in = mappedZip.open(storedEntry)) {
+            assertArrayEquals(stored, in.readAllBytes());
+        }
+        try (InputStream in = mappedZip.open(deflatedEntry)) {
+            assertArrayEquals(deflated, in.readAllBytes());
+        }
+    }
+
+    /**
+     * Test that buffers too short to hold an end record, or without one, are rejected.
+     */
+    @Test
+    public void testNotAZip() {
+        assertThrows(IOException.class, () -> MappedZip.of(ByteBuffer.allocate(0), "empty"));
+        assertThrows(IOException.class, () -> MappedZip.of(ByteBuffer.allocate(10), "short"));
+        assertThrows(IOException.class, () -> MappedZip.of(ByteBuffer.wrap(bytes(1_000, 2)), "random"));
+    }
+
+    /**
+     * Test that truncated archives are rejected, whether the end record or the central directory is cut.
+     */
+    @Test
+    public void testTruncatedArchive() throws IOException {
+        byte[] zip = zip(List.of("a.bin", "b.bin"), List.of(bytes(5_000, 3), bytes(5_000, 4)), Set.of());
+
+        for (int length : new int[]{zip.length / 2, zip.length - 1, zip.length - END_SIZE}) {
+            assertThrows(IOException.class, () -> MappedZip.of(ByteBuffer.wrap(Arrays.copyOf(zip, length)), "cut"),
+                    "length " + length);
+        }
+    }
+
+    /**
+     * Test that central directory records pointing beyond the archive, or with inconsistent sizes, are rejected
+     * rather than trusted.
+     */
+    @Test
+    public void testHeadersAreNotTrusted() throws IOException {
+        byte[] zip = zip(List.of("stored.bin"), List.of(bytes(1_000, 5)), Set.of("stored.bin"));
+        int central = centralDirectoryOffset(zip);
+
+        assertRejected(patch(zip, central + 20, 0x7FFF_FFF0), "compressed size beyond the archive");
+        assertRejected(patch(zip, central + 24, 999), "stored sizes differ");
+        assertRejected(patch(zip, central + 42, zip.length), "local header beyond the archive");
+        assertRejected(patchShort(zip, central + 28, 0xFFFF), "name beyond the central directory");
+        assertRejected(patch(zip, zip.length - END_SIZE + 16, central + 1), "misplaced central directory");
+    }
+
+    /**
+     * Test that deflated entries inflating to more or less than their recorded size are rejected on read.
+     */
+    @Test
+    public void testDeflatedSizeIsVerified() throws IOException {
+        byte[] content = "deflated ".repeat(1_000).getBytes();
+        byte[] zip = zip(List.of("deflated.txt"), List.of(content), Set.of());
+        int central = centralDirectoryOffset(zip);
+
+        for (int size : new int[]{content.length - 1, content.length + 1}) {
+            MappedZip mappedZip = MappedZip.of(ByteBuffer.wrap(patch(zip, central + 24, size)), "size " + size);
+            MappedZip.Entry entry = mappedZip.entry("deflated.txt").orElseThrow();
+            assertThrows(IOException.class, () -> mappedZip.read(entry), "size " + size);
+            assertThrows(IOException.class, () -> {
+                try (InputStream in = mappedZip.open(entry)) {
+                    in.readAllBytes();
+                }
+            }, "size " + size);
+        }
+        assertRejected(patch(zip, central + 24, Integer.MAX_VALUE), "size beyond the deflate ratio");
+    }
+
+    /**
+     * Test that ZIP64 archives and entries are rejected explicitly.
+     */
+    @Test
+    public void testZip64IsRejected() throws IOException {
+        byte[] zip = zip(List.of("a.bin"), List.of(bytes(100, 6)), Set.of());
+        int end = zip.length - END_SIZE;
+        ByteBuffer withLocator = ByteBuffer.allocate(zip.length + 20).order(ByteOrder.LITTLE_ENDIAN);
+        withLocator.put(zip, 0, end).putInt(0x07064b50).putInt(0).putLong(0).putInt(1).put(zip, end, END_SIZE);
+        IOException locatorException = assertThrows(IOException.class,
+                () -> MappedZip.of(withLocator.flip(), "locator"));
+        assertEquals("ZIP64 archives are not supported: locator", locatorException.getMessage());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOut = new ZipOutputStream(out)) {
+            ZipEntry entry = new ZipEntry("a.bin");
+            // ZipOutputStream drops ZIP64 extra fields, so an unknown field is written and turned into one
+            entry.setExtra(new byte[]{0x34, 0x12, 0, 0});
+            zipOut.putNextEntry(entry);
+            zipOut.write(bytes(100, 7));
+            zipOut.closeEntry();
+        }
+        byte[] withExtra = out.toByteArray();
+        byte[] withZip64Extra = patchShort(withExtra, centralDirectoryOffset(withExtra) + 46 + "a.bin".length(), 0x0001);
+        IOException extraException = assertThrows(IOException.class,
+                () -> MappedZip.of(ByteBuffer.wrap(withZip64Extra), "extra"));
+        assertEquals("ZIP64 entry a.bin is not supported: extra", extraException.getMessage());
+    }
+
+    /**
+     * Test that a mapped archive keeps its content when the file is replaced by a rename, while a new mapping
+     * sees the replacement.
+     */
+    @Test
+    public void testRenameOverWhileMapped() throws IOException {
+        byte[] original = bytes(10_000, 8);
+        byte[] replacement = bytes(20_000, 9);
+        Path file = Files.write(directory.resolve("plugin-1.0.0.jar"),
+                zip(List.of("content.bin"), List.of(original), Set.of()));
+        MappedZip mapped = MappedZip.map(file);
+
+        Path staged = Files.write(directory.resolve("plugin-1.0.0.jar.tmp"),
+                zip(List.of("content.bin"), List.of(replacement), Set.of()));
+        Files.move(staged, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        assertArrayEquals(original, toArray(mapped.read(mapped.entry("content.bin").orElseThrow())));
+        MappedZip remapped = MappedZip.map(file);
+        assertArrayEquals(replacement, toArray(remapped.read(remapped.entry("content.bin").orElseThrow())));
+    }
+
+    private static void assertRejected(byte[] zip, String message) {
+        assertThrows(IOException.class, () -> {
+            MappedZip mappedZip = MappedZip.of(ByteBuffer.wrap(zip), message);
+            for (MappedZip.Entry entry : mappedZip.entries()) {
+                mappedZip.read(entry);
+            }
+        }, message);
+    }
+
+    private static int centralDirectoryOffset(byte[] zip) {
+        return ByteBuffer.wrap(zip).order(ByteOrder.LITTLE_ENDIAN).getInt(zip.length - END_SIZE + 16);
+    }
+
+    private static byte[] patch(byte[] zip, int offset, int value) {
+        byte[] patched = zip.clone();
+        ByteBuffer.wrap(patched).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+        return patched;
+    }
+
+    private static byte[] patchShort(byte[] zip, int offset, int value) {
+        byte[] patched = zip.clone();
+        ByteBuffer.wrap(patched).order(ByteOrder.LITTLE_ENDIAN).putShort(offset, (short) value);
+        return patched;
+    }
+
+    private static byte[] zip(List<String> names, List<byte[]> contents, Set<String> storedNames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOut = new ZipOutputStream(out)) {
+            for (int i = 0; i < names.size(); i++) {
+                ZipEntry entry = new ZipEntry(names.get(i));
+                byte[] content = contents.get(i);
+                if (storedNames.contains(names.get(i))) {
+                    CRC32 crc = new CRC32();
+                    crc.update(content);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(content.length);
+                    entry.setCrc(crc.getValue());
+                }
+                zipOut.putNextEntry(entry);
+                zipOut.write(content);
+                zipOut.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,290 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static dev.ikm.tinkar.plugin.service.boot.internal.TestFixtures.bytes;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * This class contains the tests for the PluginBundleExtractor class, extracting the jars of zip and tar bundles.
+ */
+public class PluginBundleExtractorTest {
+    @TempDir
+    Path directory;
+
+    private PluginBundleExtractor extractor;
+    private Path layerDirectory;
+
+    @BeforeEach
+    public void createExtractor() {
+        PluginWorkingStore store = PluginWorkingStore.open(directory.resolve("store"), 0);
+        extractor = new PluginBundleExtractor(store);
+        layerDirectory = store.layersDirectory().resolve("bundle");
+    }
+
+    /**
+     * Test that the stored and deflated jars of a zip bundle are extracted at any depth, other entries are
+     * skipped, and the hash of the bundle is returned.
+     */
+    @Test
+    public void testZipBundle() throws IOException {
+        byte[] plugin = bytes(20_000, 1);
+        byte[] dependency = bytes(30_000, 2);
+        Path bundle = zip("plugin-1.0.0.zip", Map.of(
+                "plugin-1.0.0.jar", plugin,
+                "lib/nested/dependency-2.0.0.jar", dependency,
+                "README.txt", bytes(100, 3)), "lib/nested/dependency-2.0.0.jar");
+
+        String sha256 = extractor.extract(bundle, Optional.empty(), layerDirectory);
+
+        assertEquals(PluginCatalog.sha256(bundle), sha256);
+        assertEquals(Set.of("plugin-1.0.0.jar", "dependency-2.0.0.jar"), fileNames(layerDirectory));
+        assertArrayEquals(plugin, Files.readAllBytes(layerDirectory.resolve("plugin-1.0.0.jar")));
+        assertArrayEquals(dependency, Files.readAllBytes(layerDirectory.resolve("dependency-2.0.0.jar")));
+    }
+
+    /**
+     * Test that a known hash of a zip bundle is returned without hashing it again.
+     */
+    @Test
+    public void testZipBundleWithKnownHash() throws IOException {
+        Path bundle = zip("plugin-1.0.0.zip", Map.of("plugin-1.0.0.jar", bytes(1_000, 4)));
+
+        assertEquals("known", extractor.extract(bundle, Optional.of("known"), layerDirectory));
+    }
+
+    /**
+     * Test that entry names climbing out of the bundle, with either separator, are reduced to their file name.
+     */
+    @Test
+    public void testTraversalIsContained() throws IOException {
+        Path bundle = zip("plugin-1.0.0.zip", Map.of(
+                "../../escaped-a-1.0.0.jar", bytes(100, 5),
+                "..\\..\\escaped-b-1.0.0.jar", bytes(100, 6),
+                "C:\\Windows\\escaped-c-1.0.0.jar", bytes(100, 7)));
+
+        extractor.extract(bundle, Optional.empty(), layerDirectory);
+
+        assertEquals(Set.of("escaped-a-1.0.0.jar", "escaped-b-1.0.0.jar", "escaped-c-1.0.0.jar"),
+                fileNames(layerDirectory));
+        try (Stream<Path> files = Files.walk(directory)) {
+            assertTrue(files.filter(file -> file.getFileName().toString().startsWith("escaped-"))
+                    .allMatch(file -> file.getParent().equals(layerDirectory)));
+        }
+    }
+
+    /**
+     * Test that a bundle with two jars of the same file name is rejected.
+     */
+    @Test
+    public void testDuplicateJarNamesAreRejected() throws IOException {
+        Path bundle = zip("plugin-1.0.0.zip", Map.of(
+                "a/dependency-1.0.0.jar", bytes(100, 8),
+                "b\\dependency-1.0.0.jar", bytes(100, 9)));
+
+        assertThrows(IOException.class, () -> extractor.extract(bundle, Optional.empty(), layerDirectory));
+    }
+
+    /**
+     * Test that a truncated zip bundle is rejected.
+     */
+    @Test
+    public void testTruncatedZipIsRejected() throws IOException {
+        Path bundle = zip("plugin-1.0.0.zip", Map.of("plugin-1.0.0.jar", bytes(10_000, 10)));
+        byte[] content = Files.readAllBytes(bundle);
+        Files.write(bundle, Arrays.copyOf(content, content.length / 2));
+
+        assertThrows(IOException.class, () -> extractor.extract(bundle, Optional.empty(), layerDirectory));
+    }
+
+    /**
+     * Test that the jars of ustar, GNU long name and pax entries are extracted from a tar bundle, links are not,
+     * and the hash of the bundle is returned.
+     */
+    @Test
+    public void testTarBundle() throws IOException {
+        String longDirectory = "very/" + "long/".repeat(30);
+        byte[] plugin = bytes(20_000, 11);
+        byte[] gnuLong = bytes(1_000, 12);
+        byte[] paxLong = bytes(1_000, 13);
+        byte[] prefixed = bytes(1_000, 14);
+        TarBuilder tar = new TarBuilder()
+                .directory("lib/")
+                .file("plugin-1.0.0.jar", plugin)
+                .gnuLongName(longDirectory + "gnu-long-1.0.0.jar", gnuLong)
+                .paxPath(longDirectory + "pax-long-1.0.0.jar", paxLong)
+                .prefixed("a/b/c", "prefixed-1.0.0.jar", prefixed)
+                .link("symbolic-1.0.0.jar", '2', "plugin-1.0.0.jar")
+                .link("hard-1.0.0.jar", '1', "plugin-1.0.0.jar")
+                .file("notes.txt", bytes(10, 15));
+        Path bundle = Files.write(directory.resolve("plugin-1.0.0.tar"), tar.build());
+
+        String sha256 = extractor.extract(bundle, Optional.empty(), layerDirectory);
+
+        assertEquals(PluginCatalog.sha256(bundle), sha256);
+        assertEquals(Set.of("plugin-1.0.0.jar", "gnu-long-1.0.0.jar", "pax-long-1.0.0.jar", "prefixed-1.0.0.jar"),
+                fileNames(layerDirectory));
+        assertArrayEquals(plugin, Files.readAllBytes(layerDirectory.resolve("plugin-1.0.0.jar")));
+        assertArrayEquals(gnuLong, Files.readAllBytes(layerDirectory.resolve("gnu-long-1.0.0.jar")));
+        assertArrayEquals(paxLong, Files.readAllBytes(layerDirectory.resolve("pax-long-1.0.0.jar")));
+        assertArrayEquals(prefixed, Files.readAllBytes(layerDirectory.resolve("prefixed-1.0.0.jar")));
+    }
+
+    /**
+     * Test that a gzipped tar bundle is extracted, and hashed as stored rather than as decompressed.
+     */
+    @Test
+    public void testTarGzBundle() throws IOException {
+        byte[] plugin = bytes(20_000, 16);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(new TarBuilder().file("..\\plugin-1.0.0.jar", plugin).build());
+        }
+        Path bundle = Files.write(directory.resolve("plugin-1.0.0.tar.gz"), compressed.toByteArray());
+
+        String sha256 = extractor.extract(bundle, Optional.empty(), layerDirectory);
+
+        assertEquals(PluginCatalog.sha256(bundle), sha256);
+        assertArrayEquals(plugin, Files.readAllBytes(layerDirectory.resolve("plugin-1.0.0.jar")));
+    }
+
+    /**
+     * Test that tar bundles truncated within an entry or a header, or with a corrupt header, are rejected.
+     */
+    @Test
+    public void testTruncatedOrCorruptTarIsRejected() throws IOException {
+        byte[] tar = new TarBuilder().file("plugin-1.0.0.jar", bytes(2_000, 17))
+                .file("dependency-1.0.0.jar", bytes(2_000, 18)).build();
+        int secondHeader = 512 + 2_048;
+
+        Path withinEntry = Files.write(directory.resolve("within-entry-1.0.0.tar"), Arrays.copyOf(tar, 1_000));
+        Path withinHeader = Files.write(directory.resolve("within-header-1.0.0.tar"), Arrays.copyOf(tar, secondHeader + 100));
+        byte[] corrupt = tar.clone();
+        corrupt[secondHeader + 10] ^= 1;
+        Path corruptHeader = Files.write(directory.resolve("corrupt-header-1.0.0.tar"), corrupt);
+
+        for (Path bundle : List.of(withinEntry, withinHeader, corruptHeader)) {
+            assertThrows(IOException.class, () -> extractor.extract(bundle, Optional.empty(),
+                    layerDirectory.resolveSibling(bundle.getFileName().toString())), bundle.toString());
+        }
+    }
+
+    private Path zip(String fileName, Map<String, byte[]> entries, String... storedEntries) throws IOException {
+        Path bundle = directory.resolve(fileName);
+        Set<String> stored = Set.of(storedEntries);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(bundle))) {
+            for (Map.Entry<String, byte[]> entry : new TreeMap<>(entries).entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (stored.contains(entry.getKey())) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(zipEntry);
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return bundle;
+    }
+
+    private static Set<String> fileNames(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(java.util.stream.Collectors.toSet());
+        }
+    }
+
+    /**
+     * Writes tar archives with ustar headers, GNU long name entries and pax headers.
+     */
+    private static final class TarBuilder {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        TarBuilder file(String name, byte[] content) {
+            return entry(name, "", '0', content, "");
+        }
+
+        TarBuilder directory(String name) {
+            return entry(name, "", '5', new byte[0], "");
+        }
+
+        TarBuilder prefixed(String prefix, String name, byte[] content) {
+            return entry(name, prefix, '0', content, "");
+        }
+
+        TarBuilder link(String name, char type, String target) {
+            return entry(name, "", type, new byte[0], target);
+        }
+
+        TarBuilder gnuLongName(String name, byte[] content) {
+            entry("././@LongLink", "", 'L', (name + "\0").getBytes(StandardCharsets.UTF_8), "");
+            return entry(name.substring(name.length() - 50), "", '0', content, "");
+        }
+
+        TarBuilder paxPath(String name, byte[] content) {
+            // the length of a record includes its own digits
+            String record = " path=" + name + "\n";
+            int length = record.length() + Integer.toString(record.length()).length();
+            if (Integer.toString(length).length() > Integer.toString(record.length()).length()) {
+                length++;
+            }
+            entry("PaxHeaders/entry", "", 'x', (length + record).getBytes(StandardCharsets.UTF_8), "");
+            return entry(name.substring(name.length() - 50), "", '0', content, "");
+        }
+
+        byte[] build() {
+            out.writeBytes(new byte[1024]);
+            return out.toByteArray();
+        }
+
+        private TarBuilder entry(String name, String prefix, char type, byte[] content, String linkName) {
+            byte[] header = new byte[512];
+            put(header, 0, 100, name);
+            put(header, 100, 8, "0000644");
+            put(header, 108, 8, "0000000");
+            put(header, 116, 8, "0000000");
+            put(header, 124, 12, String.format("%011o", content.length));
+            put(header, 136, 12, String.format("%011o", 0));
+            header[156] = (byte) type;
+            put(header, 157, 100, linkName);
+            put(header, 257, 6, "ustar");
+            put(header, 263, 2, "00");
+            put(header, 345, 155, prefix);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            long checksum = 0;
+            for (byte b : header) {
+                checksum += Byte.toUnsignedInt(b);
+            }
+            put(header, 148, 8, String.format("%06o", checksum) + "\0 ");
+            out.writeBytes(header);
+            out.writeBytes(content);
+            out.writeBytes(new byte[(512 - content.length % 512) % 512]);
+            return this;
+        }
+
+        private static void put(byte[] header, int offset, int length, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+        }
+    }
+}
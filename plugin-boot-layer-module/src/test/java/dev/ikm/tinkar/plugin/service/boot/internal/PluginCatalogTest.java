@@ -0,0 +1,76 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.module.ModuleFinder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * This class contains the tests for the PluginCatalog class, keeping a catalog per application.
+ */
+public class PluginCatalogTest {
+    private static final String ARTIFACT_KEY = "plugin-service-loader";
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Test that the application key depends on the working directory and plugin directories, but not on the
+     * order of the plugin directories.
+     */
+    @Test
+    public void testApplicationKey() {
+        Path appA = directory.resolve("app-a");
+        Path appB = directory.resolve("app-b");
+        List<Path> pluginDirectories = List.of(appA.resolve("plugins"), appA.resolve("more-plugins"));
+
+        String key = PluginCatalog.applicationKey(appA, pluginDirectories);
+
+        assertEquals(key, PluginCatalog.applicationKey(appA, pluginDirectories.reversed()));
+        assertNotEquals(key, PluginCatalog.applicationKey(appB, pluginDirectories));
+        assertNotEquals(key, PluginCatalog.applicationKey(appA, List.of(appA.resolve("plugins"))));
+    }
+
+    /**
+     * Test that applications with their own catalog neither adopt each other's PluggableServiceLoader jar, nor
+     * drop each other's artifacts.
+     */
+    @Test
+    public void testApplicationsKeepTheirOwnCatalog() throws IOException {
+        Path appA = Files.createDirectories(directory.resolve("app-a"));
+        Path appB = Files.createDirectories(directory.resolve("app-b"));
+        Path loaderJar = Files.write(appA.resolve(ARTIFACT_KEY + "-1.0.0.jar"), new byte[100]);
+        Path artifact = Files.write(appA.resolve("plugin-a-1.0.0.jar"), new byte[200]);
+
+        PluginCatalog catalogA = PluginCatalog.load(catalogFile(appA));
+        catalogA.setPluggableServiceLoaderJar(loaderJar, ARTIFACT_KEY);
+        catalogA.record(artifact, PluginCatalog.sha256(artifact), ModuleFinder.of());
+        catalogA.save();
+
+        PluginCatalog catalogB = PluginCatalog.load(catalogFile(appB));
+        assertEquals(Optional.empty(), catalogB.pluggableServiceLoaderJar(ARTIFACT_KEY));
+        catalogB.retainAll(List.of());
+        catalogB.setPluggableServiceLoaderJar(Files.write(appB.resolve(ARTIFACT_KEY + "-2.0.0.jar"), new byte[10]),
+                ARTIFACT_KEY);
+        catalogB.save();
+
+        PluginCatalog reloadedA = PluginCatalog.load(catalogFile(appA));
+        assertEquals(Optional.of(loaderJar.toAbsolutePath().normalize()), reloadedA.pluggableServiceLoaderJar(ARTIFACT_KEY));
+        assertTrue(reloadedA.validate(artifact).isPresent());
+    }
+
+    private Path catalogFile(Path workingDirectory) {
+        return directory.resolve(Layers.PLUGIN_CATALOGS_DIR)
+                .resolve(PluginCatalog.applicationKey(workingDirectory, List.of(workingDirectory.resolve("plugins"))))
+                .resolve(Layers.PLUGIN_CATALOG_FILE);
+    }
+}
@@ -0,0 +1,197 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static dev.ikm.tinkar.plugin.service.boot.internal.TestFixtures.emptyLayer;
+
+import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class contains the tests for the PluginLifecycleSupport class, delivering events on per-listener lanes.
+ */
+public class PluginLifecycleSupportTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * A listener recording the names of the layers it was notified about, prefixed with + or -.
+     */
+    private static class RecordingListener implements PluginLifecycleListener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void pluginLayerAdded(String pluginLayerName, ModuleLayer pluginLayer) {
+            events.add("+" + pluginLayerName);
+        }
+
+        @Override
+        public void pluginLayerBeingRemoved(String pluginLayerName, ModuleLayer pluginLayer) {
+            events.add("-" + pluginLayerName);
+        }
+    }
+
+    /**
+     * Test that every listener receives the events in order.
+     */
+    @Test
+    public void testEventsAreDeliveredInOrder() throws InterruptedException {
+        PluginLifecycleSupport support = new PluginLifecycleSupport(TIMEOUT, 256);
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        support.register(ModuleLayer.boot(), List.of(first, second));
+
+        for (int i = 0; i < 100; i++) {
+            support.notifyPluginLayerListenersOnAddition(emptyLayer("plugin-" + i));
+            support.notifyPluginLayerListenersOnRemoval(emptyLayer("plugin-" + i));
+        }
+
+        assertTrue(support.awaitDelivery(TIMEOUT));
+        assertEquals(200, first.events.size());
+        assertEquals(first.events, second.events);
+        assertEquals(List.of("+plugin-0", "-plugin-0", "+plugin-1"), first.events.subList(0, 3));
+    }
+
+    /**
+     * Test that an error thrown by a listener, such as a class missing from a plugin, does not end its lane.
+     */
+    @Test
+    public void testListenerErrorDoesNotEndLane() throws InterruptedException {
+        PluginLifecycleSupport support = new PluginLifecycleSupport(TIMEOUT, 256);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void pluginLayerAdded(String pluginLayerName, ModuleLayer pluginLayer) {
+                super.pluginLayerAdded(pluginLayerName, pluginLayer);
+                if (pluginLayerName.equals("broken")) {
+                    throw new NoClassDefFoundError("missing/FromPlugin");
+                }
+            }
+        };
+        support.register(ModuleLayer.boot(), List.of(listener));
+
+        support.notifyPluginLayerListenersOnAddition(emptyLayer("broken"));
+        support.notifyPluginLayerListenersOnAddition(emptyLayer("working"));
+
+        assertTrue(support.awaitDelivery(TIMEOUT));
+        assertEquals(List.of("+broken", "+working"), listener.events);
+    }
+
+    /**
+     * Test that a listener timing out is interrupted, and that the interrupt does not leak into the next event.
+     */
+    @Test
+    public void testTimedOutListenerIsInterruptedOnce() throws InterruptedException {
+        PluginLifecycleSupport support = new PluginLifecycleSupport(Duration.ofMillis(100), 256);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void pluginLayerAdded(String pluginLayerName, ModuleLayer pluginLayer) {
+                try {
+                    Thread.sleep(pluginLayerName.equals("slow") ? TIMEOUT.toMillis() : 20);
+                    events.add("completed " + pluginLayerName);
+                } catch (InterruptedException e) {
+                    events.add("interrupted " + pluginLayerName);
+                }
+            }
+        };
+        support.register(ModuleLayer.boot(), List.of(listener));
+
+        support.notifyPluginLayerListenersOnAddition(emptyLayer("slow"));
+        for (int i = 0; i < 20; i++) {
+            support.notifyPluginLayerListenersOnAddition(emptyLayer("fast-" + i));
+        }
+
+        assertTrue(support.awaitDelivery(TIMEOUT));
+        assertEquals("interrupted slow", listener.events.getFirst());
+        assertEquals(20, listener.events.stream().filter(event -> event.startsWith("completed fast-")).count());
+    }
+
+    /**
+     * Test that events not fitting in the queue of a busy listener are dropped, without blocking the publisher.
+     */
+    @Test
+    public void testEventsAreDroppedWhenQueueIsFull() throws InterruptedException {
+        PluginLifecycleSupport support = new PluginLifecycleSupport(TIMEOUT, 1);
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void pluginLayerAdded(String pluginLayerName, ModuleLayer pluginLayer) {
+                super.pluginLayerAdded(pluginLayerName, pluginLayer);
+                handling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        support.register(ModuleLayer.boot(), List.of(listener));
+
+        support.notifyPluginLayerListenersOnAddition(emptyLayer("handled"));
+        assertTrue(handling.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 5; i++) {
+            support.notifyPluginLayerListenersOnAddition(emptyLayer("queued-" + i));
+        }
+        assertFalse(support.awaitDelivery(Duration.ofMillis(50)));
+        release.countDown();
+
+        assertTrue(support.awaitDelivery(TIMEOUT));
+        assertEquals(List.of("+handled", "+queued-0"), listener.events);
+    }
+
+    /**
+     * Test that events queued for the listeners of an unregistered layer are still delivered, and later events
+     * are not.
+     */
+    @Test
+    public void testUnregisterDeliversQueuedEvents() throws InterruptedException {
+        PluginLifecycleSupport support = new PluginLifecycleSupport(TIMEOUT, 256);
+        RecordingListener listener = new RecordingListener();
+        support.register(ModuleLayer.boot(), List.of(listener));
+
+        for (int i = 0; i < 10; i++) {
+            support.notifyPluginLayerListenersOnAddition(emptyLayer("plugin-" + i));
+        }
+        support.unregister(ModuleLayer.boot());
+        support.notifyPluginLayerListenersOnAddition(emptyLayer("after"));
+
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (listener.events.size() < 10 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(10, listener.events.size());
+        assertFalse(listener.events.contains("+after"));
+    }
+
+    /**
+     * Test that a shut down instance is not kept reachable by the shared watchdog, nor by its listener lanes.
+     */
+    @Test
+    public void testShutDownInstanceIsCollected() throws InterruptedException {
+        PluginLifecycleSupport support = new PluginLifecycleSupport(Duration.ofMillis(10), 256);
+        RecordingListener listener = new RecordingListener();
+        support.register(ModuleLayer.boot(), List.of(listener));
+        support.notifyPluginLayerListenersOnAddition(emptyLayer("plugin"));
+        assertTrue(support.awaitDelivery(TIMEOUT));
+        support.shutdown();
+        WeakReference<PluginLifecycleSupport> reference = new WeakReference<>(support);
+        support = null;
+
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (reference.get() != null && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(reference.get());
+        assertEquals(List.of("+plugin"), listener.events);
+    }
+}
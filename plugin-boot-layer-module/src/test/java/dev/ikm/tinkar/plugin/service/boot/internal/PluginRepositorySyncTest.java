@@ -0,0 +1,189 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static dev.ikm.tinkar.plugin.service.boot.internal.TestFixtures.bytes;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class contains the tests for the PluginRepositorySync class, syncing from an embedded HTTP server.
+ */
+public class PluginRepositorySyncTest {
+    private static final String INDEX_PATH = "/repo/plugins.index";
+
+    @TempDir
+    Path pluginDirectory;
+
+    private final Map<String, byte[]> artifacts = new ConcurrentHashMap<>();
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile String indexOverride;
+    private HttpServer server;
+    private PluginRepositorySync pluginRepositorySync;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/repo/", this::handle);
+        server.start();
+        URI index = URI.create("http://localhost:" + server.getAddress().getPort() + INDEX_PATH);
+        pluginRepositorySync = new PluginRepositorySync(new HttpPluginSource(index), pluginDirectory);
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    /**
+     * Test that a first sync fetches every artifact of the index, without leaving part files behind.
+     */
+    @Test
+    public void testInitialSync() throws IOException {
+        artifacts.put("a/plugin-a-1.0.0.jar", bytes(10_000, 1));
+        artifacts.put("b/plugin-b-1.0.0.jar", bytes(20_000, 2));
+
+        PluginRepositorySync.Result result = pluginRepositorySync.sync();
+
+        assertEquals(List.of("plugin-a-1.0.0.jar", "plugin-b-1.0.0.jar"), sorted(result.fetched()));
+        assertTrue(result.failed().isEmpty());
+        assertArrayEquals(artifacts.get("a/plugin-a-1.0.0.jar"), Files.readAllBytes(pluginDirectory.resolve("plugin-a-1.0.0.jar")));
+        assertArrayEquals(artifacts.get("b/plugin-b-1.0.0.jar"), Files.readAllBytes(pluginDirectory.resolve("plugin-b-1.0.0.jar")));
+        try (var files = Files.list(pluginDirectory)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(PluginRepositorySync.PART_SUFFIX)));
+        }
+    }
+
+    /**
+     * Test that a later sync only fetches the artifacts whose checksum changed.
+     */
+    @Test
+    public void testOnlyChangedArtifactsAreFetched() throws IOException {
+        artifacts.put("plugin-a-1.0.0.jar", bytes(10_000, 1));
+        artifacts.put("plugin-b-1.0.0.jar", bytes(10_000, 2));
+        pluginRepositorySync.sync();
+        requests.clear();
+
+        artifacts.put("plugin-b-1.0.0.jar", bytes(10_000, 3));
+        PluginRepositorySync.Result result = pluginRepositorySync.sync();
+
+        assertEquals(List.of("plugin-b-1.0.0.jar"), result.fetched());
+        assertEquals(List.of("plugin-a-1.0.0.jar"), result.unchanged());
+        assertEquals(List.of(INDEX_PATH, "/repo/plugin-b-1.0.0.jar"), requests);
+        assertArrayEquals(artifacts.get("plugin-b-1.0.0.jar"), Files.readAllBytes(pluginDirectory.resolve("plugin-b-1.0.0.jar")));
+    }
+
+    /**
+     * Test that a partial transfer is resumed with a range request.
+     */
+    @Test
+    public void testPartialTransferIsResumed() throws IOException {
+        byte[] artifact = bytes(50_000, 4);
+        artifacts.put("plugin-a-1.0.0.jar", artifact);
+        Files.write(pluginDirectory.resolve(".plugin-a-1.0.0.jar" + PluginRepositorySync.PART_SUFFIX),
+                Arrays.copyOf(artifact, 20_000));
+
+        PluginRepositorySync.Result result = pluginRepositorySync.sync();
+
+        assertEquals(List.of("plugin-a-1.0.0.jar"), result.fetched());
+        assertEquals(List.of(INDEX_PATH, "/repo/plugin-a-1.0.0.jar bytes=20000-"), requests);
+        assertArrayEquals(artifact, Files.readAllBytes(pluginDirectory.resolve("plugin-a-1.0.0.jar")));
+    }
+
+    /**
+     * Test that an artifact not matching its checksum is not installed.
+     */
+    @Test
+    public void testChecksumMismatchIsRejected() throws IOException {
+        artifacts.put("plugin-a-1.0.0.jar", bytes(10_000, 5));
+        indexOverride = "0".repeat(64) + " 10000 plugin-a-1.0.0.jar\n";
+
+        PluginRepositorySync.Result result = pluginRepositorySync.sync();
+
+        assertEquals(List.of("plugin-a-1.0.0.jar"), result.failed());
+        assertFalse(Files.exists(pluginDirectory.resolve("plugin-a-1.0.0.jar")));
+        assertFalse(Files.exists(pluginDirectory.resolve(".plugin-a-1.0.0.jar" + PluginRepositorySync.PART_SUFFIX)));
+    }
+
+    /**
+     * Test that artifacts dropped from the index are removed, while artifacts copied in by other means are kept.
+     */
+    @Test
+    public void testRemovedArtifactsAreDeleted() throws IOException {
+        artifacts.put("plugin-a-1.0.0.jar", bytes(10_000, 6));
+        artifacts.put("plugin-b-1.0.0.jar", bytes(10_000, 7));
+        pluginRepositorySync.sync();
+        Files.write(pluginDirectory.resolve("plugin-local-1.0.0.jar"), bytes(100, 8));
+
+        artifacts.remove("plugin-b-1.0.0.jar");
+        PluginRepositorySync.Result result = pluginRepositorySync.sync();
+
+        assertEquals(List.of("plugin-b-1.0.0.jar"), result.removed());
+        assertTrue(Files.exists(pluginDirectory.resolve("plugin-a-1.0.0.jar")));
+        assertFalse(Files.exists(pluginDirectory.resolve("plugin-b-1.0.0.jar")));
+        assertTrue(Files.exists(pluginDirectory.resolve("plugin-local-1.0.0.jar")));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        requests.add(range == null ? path : path + " " + range);
+        byte[] body;
+        int offset = 0;
+        if (path.equals(INDEX_PATH)) {
+            body = (indexOverride != null ? indexOverride : index()).getBytes(StandardCharsets.UTF_8);
+        } else {
+            body = artifacts.get(path.substring("/repo/".length()));
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        if (range != null) {
+            offset = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + offset + "-" + (body.length - 1) + "/" + body.length);
+            exchange.sendResponseHeaders(206, body.length - offset);
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body, offset, body.length - offset);
+        }
+    }
+
+    private String index() {
+        StringBuilder index = new StringBuilder("# sha256 size path\n");
+        artifacts.forEach((path, artifact) -> index.append(sha256(artifact)).append(' ')
+                .append(artifact.length).append(' ').append(path).append('\n'));
+        return index.toString();
+    }
+
+    private static String sha256(byte[] artifact) {
+        return HexFormat.of().formatHex(PluginCatalog.sha256Digest().digest(artifact));
+    }
+
+    private static List<String> sorted(List<String> list) {
+        return list.stream().sorted().toList();
+    }
+}
@@ -0,0 +1,181 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static dev.ikm.tinkar.plugin.service.boot.internal.TestFixtures.bytes;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class contains the tests for the PluginWorkingStore class, staging, releasing and evicting blobs.
+ */
+public class PluginWorkingStoreTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * Test that a staged artifact appears in the layer working directory under its file name.
+     */
+    @Test
+    public void testStageLinksArtifactIntoLayerDirectory() throws IOException {
+        PluginWorkingStore store = PluginWorkingStore.open(directory.resolve("store"), 0);
+        Path artifact = write("plugin-a-1.0.0.jar", bytes(10_000, 1));
+        Path layerDirectory = store.layersDirectory().resolve("layer-a");
+
+        String sha256 = store.stage(artifact, Optional.empty(), layerDirectory);
+
+        assertEquals(PluginCatalog.sha256(artifact), sha256);
+        assertArrayEquals(Files.readAllBytes(artifact), Files.readAllBytes(layerDirectory.resolve("plugin-a-1.0.0.jar")));
+    }
+
+    /**
+     * Test that an artifact whose blob is already stored is not read again, and shares the blob with the
+     * layers already using it.
+     */
+    @Test
+    public void testKnownHashReusesBlob() throws IOException {
+        PluginWorkingStore store = PluginWorkingStore.open(directory.resolve("store"), 0);
+        Path artifact = write("plugin-a-1.0.0.jar", bytes(10_000, 2));
+        Path layerA = store.layersDirectory().resolve("layer-a");
+        Path layerB = store.layersDirectory().resolve("layer-b");
+        String sha256 = store.stage(artifact, Optional.empty(), layerA);
+        Files.delete(artifact);
+
+        store.stage(artifact, Optional.of(sha256), layerB);
+
+        assertTrue(Files.isSameFile(layerA.resolve("plugin-a-1.0.0.jar"), layerB.resolve("plugin-a-1.0.0.jar")));
+    }
+
+    /**
+     * Test that releasing a layer deletes its working directory, and only evicts blobs no layer uses anymore.
+     */
+    @Test
+    public void testReleaseEvictsOnlyUnusedBlobs() throws IOException {
+        PluginWorkingStore store = PluginWorkingStore.open(directory.resolve("store"), 0);
+        Path artifact = write("plugin-a-1.0.0.jar", bytes(10_000, 3));
+        Path layerA = store.layersDirectory().resolve("layer-a");
+        Path layerB = store.layersDirectory().resolve("layer-b");
+        String sha256 = store.stage(artifact, Optional.empty(), layerA);
+        store.stage(new ByteArrayInputStream(Files.readAllBytes(artifact)), layerB, "plugin-a-1.0.0.jar");
+        Path blob = directory.resolve("store").resolve("blobs").resolve(sha256);
+
+        store.release(layerA);
+
+        assertFalse(Files.exists(layerA));
+        assertTrue(Files.exists(blob));
+        assertTrue(Files.exists(layerB.resolve("plugin-a-1.0.0.jar")));
+
+        store.release(layerB);
+
+        assertFalse(Files.exists(blob));
+        Files.delete(artifact);
+        assertThrows(UncheckedIOException.class,
+                () -> store.stage(artifact, Optional.of(sha256), store.layersDirectory().resolve("layer-c")));
+    }
+
+    /**
+     * Test that unused blobs are kept up to the maximum size, evicting the least recently used first.
+     */
+    @Test
+    public void testLeastRecentlyUsedBlobIsEvicted() throws IOException {
+        PluginWorkingStore store = PluginWorkingStore.open(directory.resolve("store"), 10_000);
+        Path layerA = store.layersDirectory().resolve("layer-a");
+        Path layerB = store.layersDirectory().resolve("layer-b");
+        String older = store.stage(write("plugin-a-1.0.0.jar", bytes(10_000, 4)), Optional.empty(), layerA);
+        String newer = store.stage(write("plugin-b-1.0.0.jar", bytes(10_000, 5)), Optional.empty(), layerB);
+        Path blobs = directory.resolve("store").resolve("blobs");
+        Files.setLastModifiedTime(blobs.resolve(older), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+
+        store.release(layerA);
+        assertTrue(Files.exists(blobs.resolve(older)));
+
+        store.release(layerB);
+        assertFalse(Files.exists(blobs.resolve(older)));
+        assertTrue(Files.exists(blobs.resolve(newer)));
+    }
+
+    /**
+     * Test that staging while other layers are released never loses a blob about to be linked, and never
+     * gives up on hard links because of it.
+     */
+    @Test
+    public void testConcurrentStageAndRelease() throws Exception {
+        PluginWorkingStore store = PluginWorkingStore.open(directory.resolve("store"), 0);
+        Path artifact = write("plugin-a-1.0.0.jar", bytes(10_000, 6));
+        String sha256 = PluginCatalog.sha256(artifact);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                int threadIndex = thread;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        Path layerDirectory = store.layersDirectory().resolve("layer-" + threadIndex + "-" + i);
+                        store.stage(artifact, Optional.of(sha256), layerDirectory);
+                        assertTrue(Files.exists(layerDirectory.resolve("plugin-a-1.0.0.jar")));
+                        store.release(layerDirectory);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        Path layerA = store.layersDirectory().resolve("layer-a");
+        Path layerB = store.layersDirectory().resolve("layer-b");
+        store.stage(artifact, Optional.of(sha256), layerA);
+        store.stage(artifact, Optional.of(sha256), layerB);
+        assertTrue(Files.isSameFile(layerA.resolve("plugin-a-1.0.0.jar"), layerB.resolve("plugin-a-1.0.0.jar")));
+    }
+
+    /**
+     * Test that stores opened twice, as by a second PluggableService in one process or by a restart reusing the
+     * process id, stage into their own layer directories, and that directories left behind are deleted.
+     */
+    @Test
+    public void testReopenedStoreUsesItsOwnLayerDirectories() throws IOException {
+        Path storeDirectory = directory.resolve("store");
+        Path artifact = write("plugin-a-1.0.0.jar", bytes(10_000, 7));
+        long pid = ProcessHandle.current().pid();
+        Path legacyDirectory = Files.createDirectories(storeDirectory.resolve("layers").resolve(Long.toString(pid))
+                .resolve("0-plugin-a"));
+        Files.write(legacyDirectory.resolve("plugin-a-1.0.0.jar"), new byte[1]);
+        Path restartedDirectory = Files.createDirectories(storeDirectory.resolve("layers").resolve(pid + "-1-00000000")
+                .resolve("0-plugin-a"));
+        Files.write(restartedDirectory.resolve("plugin-a-1.0.0.jar"), new byte[1]);
+
+        PluginWorkingStore first = PluginWorkingStore.open(storeDirectory, 0);
+        first.stage(artifact, Optional.empty(), first.layersDirectory().resolve("0-plugin-a"));
+        PluginWorkingStore second = PluginWorkingStore.open(storeDirectory, 0);
+        second.stage(artifact, Optional.empty(), second.layersDirectory().resolve("0-plugin-a"));
+
+        assertFalse(first.layersDirectory().equals(second.layersDirectory()));
+        assertTrue(Files.exists(first.layersDirectory().resolve("0-plugin-a").resolve("plugin-a-1.0.0.jar")));
+        assertTrue(Files.exists(second.layersDirectory().resolve("0-plugin-a").resolve("plugin-a-1.0.0.jar")));
+        assertFalse(Files.exists(legacyDirectory.getParent()));
+        assertFalse(Files.exists(restartedDirectory.getParent()));
+    }
+
+    private Path write(String fileName, byte[] content) throws IOException {
+        return Files.write(directory.resolve(fileName), content);
+    }
+}
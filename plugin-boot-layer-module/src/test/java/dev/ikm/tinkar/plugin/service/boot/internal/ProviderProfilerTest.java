@@ -0,0 +1,124 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ikm.tinkar.plugin.service.boot.ProviderProfile;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class contains the tests for the ProviderProfiler class, recording the calls of service providers by
+ * plugin layer, and for the percentiles of the ProviderProfile records it returns.
+ */
+public class ProviderProfilerTest {
+
+    /**
+     * A profiled service.
+     */
+    public interface Greeter {
+        String greet(String name) throws InterruptedException;
+    }
+
+    /**
+     * Test that calls are recorded by the plugin layer of the provider at the time the proxy was created, and that
+     * providers of unnamed layers are not wrapped.
+     */
+    @Test
+    public void testCallsAreAttributedToTheirLayer() throws InterruptedException {
+        Map<ModuleLayer, String> layerNames = new ConcurrentHashMap<>();
+        ProviderProfiler profiler = new ProviderProfiler(Set.of(Greeter.class.getName()),
+                moduleLayer -> Optional.ofNullable(layerNames.get(moduleLayer)));
+        Greeter provider = name -> "Hello " + name;
+
+        assertSame(provider, profiler.profile(Greeter.class, List.of(provider)).getFirst());
+
+        layerNames.put(ModuleLayer.boot(), "plugin-a");
+        Greeter proxyA = profiler.profile(Greeter.class, List.of(provider)).getFirst();
+        assertNotSame(provider, proxyA);
+        layerNames.put(ModuleLayer.boot(), "plugin-b");
+        Greeter proxyB = profiler.profile(Greeter.class, List.of(provider)).getFirst();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Hello a", proxyA.greet("a"));
+        }
+        assertEquals("Hello b", proxyB.greet("b"));
+
+        List<ProviderProfile> profiles = profiler.profiles();
+        assertEquals(List.of("plugin-a", "plugin-b"), profiles.stream().map(ProviderProfile::pluginLayerName).toList());
+        assertEquals(List.of(3L, 1L), profiles.stream().map(ProviderProfile::calls).toList());
+        assertEquals("greet(String)", profiles.getFirst().method());
+        assertEquals(Greeter.class.getName(), profiles.getFirst().service());
+
+        profiler.reset();
+        assertEquals(List.of(), profiler.profiles());
+    }
+
+    /**
+     * Test that every call is counted in the histogram bucket of its latency, and that failures are counted.
+     */
+    @Test
+    public void testHistogramBuckets() throws InterruptedException {
+        ProviderProfiler profiler = new ProviderProfiler(Set.of(Greeter.class.getName()),
+                moduleLayer -> Optional.of("plugin"));
+        Greeter provider = name -> {
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("No name");
+            }
+            Thread.sleep(2);
+            return name;
+        };
+        Greeter proxy = profiler.profile(Greeter.class, List.of(provider)).getFirst();
+
+        for (int i = 0; i < 10; i++) {
+            proxy.greet("name");
+        }
+        assertThrows(IllegalArgumentException.class, () -> proxy.greet(""));
+
+        ProviderProfile profile = profiler.profiles().getFirst();
+        assertEquals(11, profile.calls());
+        assertEquals(1, profile.failures());
+        assertEquals(11, profile.latencyHistogram().stream().mapToLong(Long::longValue).sum());
+        int slowest = profile.latencyHistogram().size() - 1;
+        assertTrue(profile.latencyHistogram().get(slowest) > 0);
+        assertTrue(profile.maxNanos() >= 1L << (slowest - 1) && profile.maxNanos() < 1L << slowest);
+        assertTrue(profile.maxNanos() >= 2_000_000);
+    }
+
+    /**
+     * Test the percentiles of profiles without calls, with calls in the first bucket, in a middle bucket and in
+     * the last bucket.
+     */
+    @Test
+    public void testPercentileNanos() {
+        assertEquals(0, profile(0, 0, List.of()).percentileNanos(99));
+
+        assertEquals(0, profile(5, 0, List.of(5L)).percentileNanos(50));
+        assertEquals(0, profile(5, 0, List.of(5L)).percentileNanos(100));
+
+        ProviderProfile middle = profile(10, 100, List.of(0L, 0L, 0L, 9L, 0L, 0L, 0L, 1L));
+        assertEquals(7, middle.percentileNanos(0));
+        assertEquals(7, middle.percentileNanos(90));
+        assertEquals(100, middle.percentileNanos(99));
+
+        List<Long> histogram = new ArrayList<>(Collections.nCopies(Long.SIZE, 0L));
+        histogram.set(1, 1L);
+        histogram.set(Long.SIZE - 1, 1L);
+        ProviderProfile last = profile(2, Long.MAX_VALUE, histogram);
+        assertEquals(1, last.percentileNanos(50));
+        assertEquals(Long.MAX_VALUE, last.percentileNanos(100));
+    }
+
+    private static ProviderProfile profile(long calls, long maxNanos, List<Long> histogram) {
+        return new ProviderProfile("plugin", "service", "method()", calls, 0, maxNanos, maxNanos, histogram, 0, 0);
+    }
+}
@@ -0,0 +1,174 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static dev.ikm.tinkar.plugin.service.boot.internal.TestFixtures.emptyLayer;
+
+import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class contains the tests for the ProviderSetPublisher class, publishing the providers of a service as plugin
+ * layers change.
+ */
+public class ProviderSetPublisherTest {
+    private static final long TIMEOUT_MILLIS = 10_000;
+    private static final long QUIET_MILLIS = 200;
+    private static final PluginLifecycleListener LISTENER = new PluginLifecycleListenerLogger();
+    /**
+     * The boot layer, whose module provides PluginLifecycleListener.
+     */
+    private static final PluginNameAndModuleLayer PROVIDING_LAYER =
+            new PluginNameAndModuleLayer(Layers.BOOT_LAYER, ModuleLayer.boot());
+
+    /**
+     * The version of the providers, published as the number of providers.
+     */
+    private final AtomicInteger version = new AtomicInteger(1);
+    private final ProviderSetPublisher<PluginLifecycleListener> publisher = new ProviderSetPublisher<>(
+            PluginLifecycleListener.class, () -> Collections.nCopies(version.get(), LISTENER));
+
+    /**
+     * A subscriber recording its signals: the number of providers of each list, or the error.
+     */
+    private static class RecordingSubscriber implements Flow.Subscriber<List<PluginLifecycleListener>> {
+        final LinkedBlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(List<PluginLifecycleListener> providers) {
+            signals.add(providers.size());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            signals.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            signals.add("complete");
+        }
+
+        Object next() throws InterruptedException {
+            return signals.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        Object nextIfAny() throws InterruptedException {
+            return signals.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Test that providers are only delivered on demand: the current providers first, then the providers after
+     * each change of a layer providing the service.
+     */
+    @Test
+    public void testProvidersAreDeliveredOnDemand() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertNull(subscriber.nextIfAny());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.next());
+
+        publisher.layersChanged(List.of(emptyLayer("unrelated")), List.of());
+        subscriber.subscription.request(1);
+        assertNull(subscriber.nextIfAny());
+
+        version.set(2);
+        publisher.layersChanged(List.of(PROVIDING_LAYER), List.of());
+        assertEquals(2, subscriber.next());
+        assertNull(subscriber.nextIfAny());
+    }
+
+    /**
+     * Test that changes without demand are conflated into a single delivery of the latest providers.
+     */
+    @Test
+    public void testChangesAreConflated() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.next());
+
+        for (int i = 2; i <= 5; i++) {
+            version.set(i);
+            publisher.layersChanged(List.of(), List.of(PROVIDING_LAYER));
+        }
+        assertNull(subscriber.nextIfAny());
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(5, subscriber.next());
+        assertNull(subscriber.nextIfAny());
+    }
+
+    /**
+     * Test that a cancelled subscriber receives no further signals.
+     */
+    @Test
+    public void testCancel() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.cancel();
+
+        subscriber.subscription.request(1);
+        publisher.layersChanged(List.of(PROVIDING_LAYER), List.of());
+
+        assertNull(subscriber.nextIfAny());
+    }
+
+    /**
+     * Test that a subscriber throwing from onSubscribe is cancelled, without the exception reaching the caller
+     * of subscribe or the other subscribers.
+     */
+    @Test
+    public void testOnSubscribeFailureCancels() throws InterruptedException {
+        RecordingSubscriber failing = new RecordingSubscriber() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                super.onSubscribe(subscription);
+                subscription.request(1);
+                throw new IllegalStateException("Subscriber failure");
+            }
+        };
+        RecordingSubscriber working = new RecordingSubscriber();
+
+        publisher.subscribe(failing);
+        publisher.subscribe(working);
+        working.subscription.request(1);
+
+        assertEquals(1, working.next());
+        publisher.layersChanged(List.of(PROVIDING_LAYER), List.of());
+        failing.subscription.request(1);
+        assertNull(failing.nextIfAny());
+    }
+
+    /**
+     * Test that a non-positive request is signalled as an error, after which the subscriber receives nothing.
+     */
+    @Test
+    public void testNonPositiveRequest() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertInstanceOf(IllegalArgumentException.class, subscriber.next());
+        subscriber.subscription.request(1);
+        assertNull(subscriber.nextIfAny());
+    }
+}
@@ -0,0 +1,41 @@
+package dev.ikm.tinkar.plugin.service.boot.internal;
+
+import java.lang.module.Configuration;
+import java.lang.module.ModuleFinder;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This class contains the fixtures shared by the tests of the internal classes.
+ */
+final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /**
+     * Returns reproducible random content.
+     *
+     * @param size the number of bytes
+     * @param seed the seed of the random generator
+     * @return the content
+     */
+    static byte[] bytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns a new layer without modules, on top of the boot layer.
+     *
+     * @param name the name of the layer
+     * @return the layer with its name
+     */
+    static PluginNameAndModuleLayer emptyLayer(String name) {
+        Configuration configuration = ModuleLayer.boot().configuration()
+                .resolve(ModuleFinder.of(), ModuleFinder.of(), Set.of());
+        return new PluginNameAndModuleLayer(name,
+                ModuleLayer.boot().defineModulesWithOneLoader(configuration, ClassLoader.getSystemClassLoader()));
+    }
+}
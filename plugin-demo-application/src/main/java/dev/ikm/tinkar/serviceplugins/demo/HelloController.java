@@ -3,20 +3,57 @@ package dev.ikm.tinkar.serviceplugins.demo;
 import dev.ikm.tinkar.plugin.service.boot.PluggableService;
 import javafx.fxml.FXML;
 import javafx.scene.control.Label;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ServiceLoader;
+import java.util.List;
+import java.util.concurrent.Flow;
 
 public class HelloController {
+    private static final Logger LOG = LoggerFactory.getLogger(HelloController.class);
+
     @FXML
     private Label welcomeText;
 
+    /**
+     * The current message providers, replaced whenever a plugin providing messages is added or removed.
+     */
+    private volatile List<MessageProvider> messageProviders = List.of();
+
+    @FXML
+    private void initialize() {
+        PluggableService.publisher(MessageProvider.class).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(List<MessageProvider> providers) {
+                messageProviders = providers;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                LOG.error("Unable to follow the message providers", throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+    }
+
     @FXML
     protected void onHelloButtonClick() {
         StringBuilder sb = new StringBuilder();
-        ServiceLoader<MessageProvider> menuProviders = PluggableService.loader(MessageProvider.class);
-        menuProviders.forEach(messageProvider -> {
+        messageProviders.forEach(messageProvider -> {
             sb.append(messageProvider.getMessage()).append("\n");
         });
         welcomeText.setText(sb.toString());
     }
-}
\ No newline at end of file
+}
@@ -21,14 +21,81 @@ import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PluginServiceLoader implements PluggableServiceLoader, PluginLifecycleListener {
     private static final Logger LOG = LoggerFactory.getLogger(PluginServiceLoader.class);
 
+    /**
+     * Single instance per loader layer, so that the instance receiving lifecycle events
+     * is the same instance that serves (and caches) provider lookups.
+     */
+    private static final PluginServiceLoader INSTANCE = new PluginServiceLoader();
+
+    /**
+     * Incremented whenever a plugin layer is added or removed. Cached provider lists
+     * resolved under an older generation are stale.
+     */
+    private final AtomicLong layerGeneration = new AtomicLong();
+
+    private final ConcurrentHashMap<Class<?>, CachedProviders> providerCache = new ConcurrentHashMap<>();
+
+    /**
+     * The layer services are loaded from, until a service layer spanning the plugin layers is set.
+     */
+    private volatile ModuleLayer serviceLayer = PluginServiceLoader.class.getModule().getLayer();
+
+    private record CachedProviders(long generation, List<?> providers) {
+    }
+
+    private PluginServiceLoader() {
+    }
+
+    /**
+     * Provider method used by the ServiceLoader, for both the PluggableServiceLoader and the
+     * PluginLifecycleListener services.
+     *
+     * @return the PluginServiceLoader of this layer
+     */
+    public static PluginServiceLoader provider() {
+        return INSTANCE;
+    }
+
     @Override
     public <S> ServiceLoader<S> loader(Class<S> service) {
-        return ServiceLoader.load(PluginServiceLoader.class.getModule().getLayer(), service);
+        return ServiceLoader.load(serviceLayer, service);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S> List<S> providers(Class<S> service) {
+        long generation = layerGeneration.get();
+        CachedProviders cachedProviders = providerCache.get(service);
+        if (cachedProviders != null && cachedProviders.generation() == generation) {
+            return (List<S>) cachedProviders.providers();
+        }
+        List<S> providers = loader(service).stream().map(ServiceLoader.Provider::get).toList();
+        // If the layers changed while resolving, the providers may include those of a removed layer, and are not
+        // cached, so that they do not stay reachable after the cache was cleared.
+        providerCache.compute(service, (key, current) -> layerGeneration.get() == generation ?
+                new CachedProviders(generation, providers) : current);
+        return providers;
+    }
+
+    /**
+     * Sets the layer services are loaded from, and discards the providers cached for the previous layer.
+     *
+     * @param serviceLayer the layer spanning the plugin layers
+     */
+    @Override
+    public void setServiceLayer(ModuleLayer serviceLayer) {
+        this.serviceLayer = serviceLayer;
+        layerGeneration.incrementAndGet();
+        // do not keep providers of a replaced service layer reachable until the next lookup
+        providerCache.clear();
     }
 
     /**
@@ -53,12 +120,16 @@ public class PluginServiceLoader implements PluggableServiceLoader, PluginLifecy
 
     @Override
     public void pluginLayerAdded(String pluginLayerName, ModuleLayer pluginLayer) {
+        layerGeneration.incrementAndGet();
         PluggableService.setServiceProvider(this);
         LOG.info("added plugin layer: " + pluginLayerName + ": " + pluginLayer);
     }
 
     @Override
     public void pluginLayerBeingRemoved(String pluginLayerName, ModuleLayer pluginLayer) {
+        layerGeneration.incrementAndGet();
+        // do not keep providers of the removed layer reachable until the next lookup
+        providerCache.clear();
         LOG.info("removing plugin layer: " + pluginLayerName + ": " + pluginLayer);
     }
 }
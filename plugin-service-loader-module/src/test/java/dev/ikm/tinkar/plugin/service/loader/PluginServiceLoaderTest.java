@@ -0,0 +1,52 @@
+package dev.ikm.tinkar.plugin.service.loader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.ikm.tinkar.plugin.service.boot.PluginLifecycleListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * This class contains the tests for the PluginServiceLoader class, caching the providers of services until the
+ * plugin layers change.
+ */
+public class PluginServiceLoaderTest {
+    private final PluginServiceLoader pluginServiceLoader = PluginServiceLoader.provider();
+
+    /**
+     * Test that repeated lookups of a service return the cached providers.
+     */
+    @Test
+    public void testLookupHitsCache() {
+        pluginServiceLoader.setServiceLayer(PluginServiceLoader.class.getModule().getLayer());
+
+        List<PluginLifecycleListener> providers = pluginServiceLoader.providers(PluginLifecycleListener.class);
+
+        assertTrue(providers.contains(pluginServiceLoader));
+        assertSame(providers, pluginServiceLoader.providers(PluginLifecycleListener.class));
+    }
+
+    /**
+     * Test that setting the service layer and removing a plugin layer both invalidate the cached providers.
+     */
+    @Test
+    public void testLayerChangesInvalidateCache() {
+        ModuleLayer serviceLayer = PluginServiceLoader.class.getModule().getLayer();
+        pluginServiceLoader.setServiceLayer(serviceLayer);
+        List<PluginLifecycleListener> providers = pluginServiceLoader.providers(PluginLifecycleListener.class);
+
+        pluginServiceLoader.setServiceLayer(serviceLayer);
+        List<PluginLifecycleListener> afterSetServiceLayer = pluginServiceLoader.providers(PluginLifecycleListener.class);
+        assertNotSame(providers, afterSetServiceLayer);
+        assertEquals(providers.size(), afterSetServiceLayer.size());
+
+        pluginServiceLoader.pluginLayerBeingRemoved("plugin", serviceLayer);
+        List<PluginLifecycleListener> afterRemoval = pluginServiceLoader.providers(PluginLifecycleListener.class);
+        assertNotSame(afterSetServiceLayer, afterRemoval);
+        assertSame(afterRemoval, pluginServiceLoader.providers(PluginLifecycleListener.class));
+    }
+}